@@ -29,6 +29,8 @@ import java.nio.ByteBuffer;
 public final class Message implements MessageBase {
 
   private ByteBuffer data;
+  // header which goes before the data, kept apart to avoid copying the data
+  private ByteBuffer header;
 
   public Message() {
   }
@@ -52,16 +54,55 @@ public final class Message implements MessageBase {
   }
 
   /**
-   * Get the data associated with message.
+   * Get the data associated with message. If the message has a header, the
+   * header and the data are copied into a new buffer on every call, which
+   * costs an allocation and a copy of the whole message; use
+   * {@link #getSegments()} to read them without copying.
    *
    * @return {@link ByteBuffer} holding the data.
    */
   public ByteBuffer getData() {
-    return data;
+    if (header == null) {
+      return data;
+    }
+    // callers expect header and data in a single buffer
+    ByteBuffer combined = ByteBuffer.allocate(header.remaining()
+        + data.remaining());
+    combined.put(header.duplicate());
+    combined.put(data.duplicate());
+    combined.flip();
+    return combined;
+  }
+
+  /**
+   * Get the header and the data as separate buffers, without copying them
+   * into a single buffer. The returned buffers are duplicates, reading them
+   * does not change the message.
+   *
+   * @return header followed by data, if the message has a header. Otherwise
+   *         just the data.
+   */
+  public ByteBuffer[] getSegments() {
+    if (header == null) {
+      return new ByteBuffer[] {data.duplicate() };
+    } else {
+      return new ByteBuffer[] {header.duplicate(), data.duplicate() };
+    }
+  }
+
+  /**
+   * Set the header to go before the data of this message. The data is not
+   * copied, {@link #getData()} returns a copy of the header and the data.
+   *
+   * @param header The {@link ByteBuffer} holding the header
+   */
+  public void setHeader(ByteBuffer header) {
+    this.header = header;
   }
 
   public synchronized void set(ByteBuffer data) {
     this.data = data;
+    this.header = null;
   }
 
   public synchronized void clear() {
@@ -69,14 +110,50 @@ public final class Message implements MessageBase {
   }
 
   public long getSize() {
-    return data.limit();
+    if (header == null) {
+      return data.limit();
+    }
+    return header.limit() + data.limit();
+  }
+
+  /**
+   * @return the segments of the message, or null if the message has no data
+   */
+  private ByteBuffer[] getContent() {
+    if (data == null) {
+      return null;
+    }
+    return getSegments();
+  }
+
+  private static int getRemaining(ByteBuffer[] segments) {
+    int remaining = 0;
+    for (ByteBuffer segment : segments) {
+      remaining += segment.remaining();
+    }
+    return remaining;
   }
 
+  /*
+   * hashCode and equals treat the header and the data as one buffer, like
+   * ByteBuffer does with its remaining bytes, without copying them together.
+   */
   @Override
   public int hashCode() {
     final int prime = 31;
     int result = 1;
-    result = prime * result + ((data == null) ? 0 : data.hashCode());
+    ByteBuffer[] content = getContent();
+    int contentHash = 0;
+    if (content != null) {
+      contentHash = 1;
+      for (int s = content.length - 1; s >= 0; s--) {
+        ByteBuffer segment = content[s];
+        for (int i = segment.limit() - 1; i >= segment.position(); i--) {
+          contentHash = prime * contentHash + segment.get(i);
+        }
+      }
+    }
+    result = prime * result + contentHash;
     return result;
   }
 
@@ -92,12 +169,31 @@ public final class Message implements MessageBase {
       return false;
     }
     Message other = (Message) obj;
-    if (data == null) {
-      if (other.data != null) {
+    ByteBuffer[] content = getContent();
+    ByteBuffer[] otherContent = other.getContent();
+    if (content == null) {
+      return otherContent == null;
+    } else if (otherContent == null) {
+      return false;
+    }
+    int remaining = getRemaining(content);
+    if (remaining != getRemaining(otherContent)) {
+      return false;
+    }
+    int s = 0;
+    int o = 0;
+    int i = content[0].position();
+    int j = otherContent[0].position();
+    for (int n = 0; n < remaining; n++) {
+      while (i == content[s].limit()) {
+        i = content[++s].position();
+      }
+      while (j == otherContent[o].limit()) {
+        j = otherContent[++o].position();
+      }
+      if (content[s].get(i++) != otherContent[o].get(j++)) {
         return false;
       }
-    } else if (!data.equals(other.data)) {
-      return false;
     }
     return true;
   }
@@ -105,6 +201,9 @@ public final class Message implements MessageBase {
   @Override
   public Message clone() {
     Message m = new Message(data.duplicate());
+    if (header != null) {
+      m.header = header.duplicate();
+    }
     return m;
   }
 }
@@ -24,7 +24,11 @@ import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import com.inmobi.messaging.ClientConfig;
@@ -58,6 +62,7 @@ public abstract class AbstractMessageConsumer implements MessageConsumer {
   protected Date startTime;
   private BaseMessageConsumerStatsExposer metrics;
   private MessagingClientStatBuilder statsEmitter = new MessagingClientStatBuilder();
+  private MarkCommitter markCommitter;
 
   public static String minDirFormatStr = "yyyy" + File.separator + "MM"
       + File.separator + "dd" + File.separator + "HH" + File.separator + "mm";
@@ -87,12 +92,55 @@ public abstract class AbstractMessageConsumer implements MessageConsumer {
 
   protected abstract void doReset() throws IOException;
 
+  /**
+   * Takes a snapshot of the position to be marked, which
+   * {@link #commitMark(Object)} persists on a background thread.
+   * Consumers which can not separate the two return null, and are marked
+   * through {@link #doMark()} on the calling thread.
+   */
+  protected Object snapshotMark() throws IOException {
+    return null;
+  }
+
+  /**
+   * Persists a snapshot taken by {@link #snapshotMark()}. It is called on the
+   * committer thread without holding the consumer lock, so it should not
+   * touch the consumer state other than the snapshot.
+   */
+  protected void commitMark(Object snapshot) throws IOException {
+  }
+
   protected abstract Message getNext()
       throws InterruptedException, EndOfStreamException;
 
   protected abstract Message getNext(long timeout, TimeUnit timeunit)
       throws InterruptedException, EndOfStreamException;
 
+  /**
+   * Reads upto maxMessages messages by calling
+   * {@link #getNext(long, TimeUnit)}, waiting only for the first one.
+   * Consumers which can read many messages at once should override this.
+   */
+  protected List<Message> getNextBatch(int maxMessages, long timeout,
+      TimeUnit timeunit) throws InterruptedException, EndOfStreamException {
+    List<Message> batch = new ArrayList<Message>();
+    Message msg = getNext(timeout, timeunit);
+    while (msg != null) {
+      batch.add(msg);
+      if (batch.size() == maxMessages) {
+        break;
+      }
+      try {
+        msg = getNext(0, timeunit);
+      } catch (EndOfStreamException e) {
+        // return the messages read so far, end of stream is reported again
+        // on the next call
+        break;
+      }
+    }
+    return batch;
+  }
+
   public synchronized Message next()
       throws InterruptedException, EndOfStreamException {
     Message msg = getNext();
@@ -111,13 +159,99 @@ public abstract class AbstractMessageConsumer implements MessageConsumer {
     return msg;
   }
 
+  public synchronized List<Message> nextBatch(int maxMessages, long timeout,
+      TimeUnit timeunit) throws InterruptedException, EndOfStreamException {
+    if (maxMessages <= 0) {
+      throw new IllegalArgumentException("maxMessages should be positive");
+    }
+    List<Message> batch = getNextBatch(maxMessages, timeout, timeunit);
+    if (!batch.isEmpty()) {
+      metrics.incrementMessagesConsumed(batch.size());
+    } else {
+      metrics.incrementTimeOutsOnNext();
+    }
+    return batch;
+  }
+
   public synchronized void mark() throws IOException {
     if (isMarkSupported()) {
-      doMark();
+      Object snapshot = snapshotMark();
+      if (snapshot == null) {
+        doMark();
+        metrics.incrementMarkCalls();
+        return;
+      }
+      // go through the committer, so that an older pending snapshot is not
+      // committed after this one
+      try {
+        getMarkCommitter().submit(snapshot, null).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while marking", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Could not mark", e.getCause());
+      }
+    }
+  }
+
+  public synchronized Future<Void> markAsync(MarkCallback callback) {
+    if (!isMarkSupported()) {
+      return completedMark(callback, null);
+    }
+    Object snapshot;
+    try {
+      snapshot = snapshotMark();
+      if (snapshot == null) {
+        doMark();
+        metrics.incrementMarkCalls();
+        return completedMark(callback, null);
+      }
+    } catch (IOException e) {
+      return completedMark(callback, e);
+    }
+    return getMarkCommitter().submit(snapshot, callback);
+  }
+
+  private static Future<Void> completedMark(MarkCallback callback,
+      Exception exception) {
+    MarkCommitter.MarkFuture future = new MarkCommitter.MarkFuture(callback);
+    future.complete(exception);
+    return future;
+  }
+
+  private MarkCommitter getMarkCommitter() {
+    if (markCommitter == null) {
+      markCommitter = new MarkCommitter(this);
+      markCommitter.start();
+    }
+    return markCommitter;
+  }
+
+  void markCompleted(Exception exception) {
+    if (exception == null) {
       metrics.incrementMarkCalls();
     }
   }
 
+  /**
+   * Waits for the pending asynchronous marks to be committed and stops the
+   * committer thread. A later mark starts a new one.
+   */
+  protected synchronized void stopMarkCommitter() {
+    if (markCommitter == null) {
+      return;
+    }
+    try {
+      markCommitter.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    markCommitter = null;
+  }
+
   public synchronized void reset() throws IOException {
     if (isMarkSupported()) {
       doReset();
@@ -256,6 +390,7 @@ public abstract class AbstractMessageConsumer implements MessageConsumer {
 
   @Override
   public void close() {
+    stopMarkCommitter();
     statsEmitter.remove(metrics);
   }
 }
@@ -42,6 +42,10 @@ public class BaseMessageConsumerStatsExposer extends
     numMessagesConsumed.incrementAndGet();
   }
 
+  public void incrementMessagesConsumed(int count) {
+    numMessagesConsumed.addAndGet(count);
+  }
+
   public void incrementMarkCalls() {
     numMarkCalls.incrementAndGet();
   }
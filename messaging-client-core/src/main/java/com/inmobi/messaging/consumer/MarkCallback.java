@@ -0,0 +1,38 @@
+package com.inmobi.messaging.consumer;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Callback for the completion of {@link MessageConsumer#markAsync}.
+ *
+ * It is called on the thread committing the checkpoint, so it should return
+ * quickly and should not call the consumer.
+ */
+public interface MarkCallback {
+
+  /**
+   * Called once the checkpoint is committed or the commit failed.
+   *
+   * @param exception null if the checkpoint is committed, the cause of the
+   *  failure otherwise
+   */
+  public void onCompletion(Exception exception);
+}
@@ -0,0 +1,180 @@
+package com.inmobi.messaging.consumer;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Commits the mark snapshots of a consumer on a background thread.
+ *
+ * Snapshots are committed in the order they are submitted. A snapshot
+ * submitted while an older one is waiting replaces it, and the marks of both
+ * complete when the newer one is committed.
+ */
+class MarkCommitter implements Runnable {
+  private static final Log LOG = LogFactory.getLog(MarkCommitter.class);
+
+  private final AbstractMessageConsumer consumer;
+  private final Thread thread;
+  private Object pendingSnapshot;
+  private List<MarkFuture> pendingMarks = new ArrayList<MarkFuture>();
+  private boolean stopped = false;
+
+  MarkCommitter(AbstractMessageConsumer consumer) {
+    this.consumer = consumer;
+    this.thread = new Thread(this, "MarkCommitter-" + consumer.getTopicName()
+        + "-" + consumer.getConsumerName());
+    thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  synchronized Future<Void> submit(Object snapshot, MarkCallback callback) {
+    if (stopped) {
+      throw new IllegalStateException("Mark committer is stopped");
+    }
+    MarkFuture future = new MarkFuture(callback);
+    if (pendingSnapshot != null) {
+      LOG.debug("Coalescing mark with the pending one");
+    }
+    pendingSnapshot = snapshot;
+    pendingMarks.add(future);
+    notifyAll();
+    return future;
+  }
+
+  /**
+   * Stops the committer after committing the pending snapshot.
+   */
+  void stop() throws InterruptedException {
+    synchronized (this) {
+      stopped = true;
+      notifyAll();
+    }
+    thread.join();
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      Object snapshot;
+      List<MarkFuture> marks;
+      synchronized (this) {
+        while (pendingSnapshot == null && !stopped) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            LOG.warn("Mark committer interrupted, stopping it");
+            stopped = true;
+          }
+        }
+        if (pendingSnapshot == null) {
+          return;
+        }
+        snapshot = pendingSnapshot;
+        marks = pendingMarks;
+        pendingSnapshot = null;
+        pendingMarks = new ArrayList<MarkFuture>();
+      }
+      Exception exception = null;
+      try {
+        consumer.commitMark(snapshot);
+      } catch (Exception e) {
+        LOG.warn("Could not commit the mark", e);
+        exception = e;
+      }
+      for (MarkFuture mark : marks) {
+        consumer.markCompleted(exception);
+        mark.complete(exception);
+      }
+    }
+  }
+
+  static class MarkFuture implements Future<Void> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final MarkCallback callback;
+    private volatile Exception exception;
+
+    MarkFuture(MarkCallback callback) {
+      this.callback = callback;
+    }
+
+    void complete(Exception exception) {
+      this.exception = exception;
+      done.countDown();
+      if (callback != null) {
+        try {
+          callback.onCompletion(exception);
+        } catch (RuntimeException e) {
+          LOG.warn("Mark callback failed", e);
+        }
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+      done.await();
+      return getResult();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException,
+        ExecutionException, TimeoutException {
+      if (!done.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+      return getResult();
+    }
+
+    private Void getResult() throws ExecutionException {
+      if (exception != null) {
+        throw new ExecutionException(exception);
+      }
+      return null;
+    }
+  }
+}
@@ -21,6 +21,8 @@ package com.inmobi.messaging.consumer;
  */
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import com.inmobi.messaging.Message;
@@ -57,6 +59,21 @@ public interface MessageConsumer {
   public Message next(long timeout, TimeUnit timeunit)
       throws InterruptedException, EndOfStreamException;
 
+  /**
+   * Reads the messages available on the stream, at most maxMessages of them.
+   *
+   * It waits for the first message up to the specified timeout and returns
+   * the messages which are already available along with it.
+   *
+   * @return List of {@link Message} objects in the order of consumption.
+   *         Empty list if no message is available within timeout
+   * @throws InterruptedException if interrupted while waiting for Message
+   * @throws EndOfStreamException When consumer consumed all messages in the
+   *  stream
+   */
+  public List<Message> nextBatch(int maxMessages, long timeout,
+      TimeUnit timeunit) throws InterruptedException, EndOfStreamException;
+
   /**
    * Tells if this interface supports <code>mark</code> and <code>reset</code>
    * methods
@@ -73,6 +90,20 @@ public interface MessageConsumer {
    */
   public void mark() throws IOException;
 
+  /**
+   * Mark the position in the stream up to last read message, without waiting
+   * for the checkpoint to be persisted.
+   *
+   * The checkpoint is persisted on a background thread. If marks are
+   * requested faster than they are persisted, only the latest pending one is
+   * persisted and all of them complete with it.
+   *
+   * @param callback {@link MarkCallback} called on completion, can be null
+   * @return Future which completes when the checkpoint is persisted. Its get
+   *  throws ExecutionException with the cause if persisting failed
+   */
+  public Future<Void> markAsync(MarkCallback callback);
+
   /**
    * Reset to last the marked position
    * @throws IOException
@@ -0,0 +1,44 @@
+package com.inmobi.messaging.consumer;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.inmobi.messaging.Message;
+
+/**
+ * Callback for consuming messages on a pool of worker threads.
+ *
+ * It is called concurrently from the worker threads. Messages of a partition
+ * are always handled by the same worker, in the order of the stream.
+ */
+public interface MessageHandler {
+
+  /**
+   * Handles a consumed message.
+   *
+   * The message is considered consumed once this returns. If it throws,
+   * the checkpoint of the partition does not move past the message and the
+   * parallel consumption stops.
+   *
+   * @param msg {@link Message} object
+   * @throws Exception if the message could not be handled
+   */
+  public void handle(Message msg) throws Exception;
+}
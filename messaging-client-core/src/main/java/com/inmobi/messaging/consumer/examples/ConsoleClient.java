@@ -20,6 +20,8 @@ package com.inmobi.messaging.consumer.examples;
  * #L%
  */
 
+import java.nio.ByteBuffer;
+
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.consumer.EndOfStreamException;
 import com.inmobi.messaging.consumer.MessageConsumer;
@@ -37,7 +39,9 @@ public class ConsoleClient {
     while (true) {
       try {
         Message msg = consumer.next();
-        System.out.println("MESSAGE:" + new String(msg.getData().array()));
+        ByteBuffer data = msg.getData();
+        System.out.println("MESSAGE:" + new String(data.array(),
+            data.arrayOffset() + data.position(), data.remaining()));
       } catch (EndOfStreamException e) {
         System.exit(0);
       }
@@ -374,8 +374,9 @@ public class StreamingBenchmark {
 
   static String getMessage(Message msg, boolean hadoopConsumer)
       throws IOException {
-    byte[] data = msg.getData().array();
-    return new String(data);
+    ByteBuffer data = msg.getData();
+    return new String(data.array(), data.arrayOffset() + data.position(),
+        data.remaining());
   }
 
   static class Consumer extends Thread {
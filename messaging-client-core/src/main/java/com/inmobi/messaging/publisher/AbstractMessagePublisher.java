@@ -25,6 +25,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -52,7 +53,10 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
 
   private static final long MAX_MSG_SIZE = 50 * 1024;
   private Map<String, TopicStatsExposer> statsExposers =
-      new HashMap<String, TopicStatsExposer>();
+      new ConcurrentHashMap<String, TopicStatsExposer>();
+  // initialized topics; looked up without any lock on every publish
+  private final ConcurrentHashMap<String, TopicContext> topicContexts =
+      new ConcurrentHashMap<String, TopicContext>();
   private MessagingClientStatBuilder statsEmitter =
       new MessagingClientStatBuilder();
   public static final String HEADER_TOPIC = "topic";
@@ -76,35 +80,78 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
     publish(topicName, m, false);
   }
 
+  /**
+   * Everything needed to publish a message to an initialized topic.
+   */
+  private static class TopicContext {
+    private final PintailTimingAccumulator stats;
+    // null if audit is disabled
+    private final AuditCounterAccumulator auditCounter;
+
+    TopicContext(PintailTimingAccumulator stats,
+        AuditCounterAccumulator auditCounter) {
+      this.stats = stats;
+      this.auditCounter = auditCounter;
+    }
+  }
+
   void publish(String topicName, Message m,
       boolean isPublishedByAuditService) {
-    Long timestamp = null;
-    if (!isPublishedByAuditService && isAuditEnabled) {
+    boolean audit = !isPublishedByAuditService && isAuditEnabled;
+    long timestamp = 0;
+    if (audit) {
       // Add timstamp to the message
-      timestamp = new Date().getTime();
+      timestamp = System.currentTimeMillis();
       AuditUtil.attachHeaders(m, timestamp);
-
     }
-    // initialization should happen only by one thread
-    synchronized (this) {
-      if (getStats(topicName) == null) {
-        PintailTimingAccumulator stats = new PintailTimingAccumulator();
-        initTopicStats(topicName, stats);
-      }
-      getStats(topicName).accumulateInvocation();
-      if (m.getSize() > MAX_MSG_SIZE) {
-        getStats(topicName).accumulateOutcome(Outcome.EXCEEDED_MSG_SIZE,
-            new Date().getTime());
-        throw new UnsupportedOperationException("Can not publish the message"
-            + " as message size " + m.getSize() + " exceeded allowed max"
-            + " msg size " + MAX_MSG_SIZE);
-      }
-      initTopic(topicName, getStats(topicName));
-      if (!isPublishedByAuditService && isAuditEnabled) {
-        auditService.incrementReceived(topicName, timestamp);
+    TopicContext context = getTopicContext(topicName);
+    context.stats.accumulateInvocation();
+    if (m.getSize() > MAX_MSG_SIZE) {
+      context.stats.accumulateOutcome(Outcome.EXCEEDED_MSG_SIZE,
+          new Date().getTime());
+      throw new UnsupportedOperationException("Can not publish the message"
+          + " as message size " + m.getSize() + " exceeded allowed max"
+          + " msg size " + MAX_MSG_SIZE);
+    }
+    if (audit && context.auditCounter != null) {
+      context.auditCounter.incrementReceived(timestamp);
+    }
+    publishToTopic(topicName, m);
+  }
+
+  private TopicContext getTopicContext(String topicName) {
+    TopicContext context = topicContexts.get(topicName);
+    if (context == null) {
+      // initialization should happen only by one thread
+      synchronized (this) {
+        context = topicContexts.get(topicName);
+        if (context == null) {
+          PintailTimingAccumulator stats = new PintailTimingAccumulator();
+          initTopicStats(topicName, stats);
+          initTopic(topicName, stats);
+          AuditCounterAccumulator auditCounter = null;
+          if (isAuditEnabled
+              && !AuditUtil.AUDIT_STREAM_TOPIC_NAME.equals(topicName)) {
+            auditCounter = auditService.getAccumulator(topicName);
+          }
+          context = new TopicContext(stats, auditCounter);
+          // publish the context only after the topic is fully initialized
+          topicContexts.put(topicName, context);
+        }
       }
     }
-    // TODO: generate headers
+    return context;
+  }
+
+  /**
+   * Publishes the message to the topic. Passes the topic in the headers to
+   * {@link #publish(Map, Message)}; publishers which need only the topic
+   * should override this to avoid creating headers for every message.
+   *
+   * @param topicName the topic
+   * @param m the message
+   */
+  protected void publishToTopic(String topicName, Message m) {
     Map<String, String> headers = new HashMap<String, String>();
     headers.put(HEADER_TOPIC, topicName);
     publish(headers, m);
@@ -137,8 +184,9 @@ public abstract class AbstractMessagePublisher implements MessagePublisher {
   }
 
   public PintailTimingAccumulator getStats(String topic) {
-    if (statsExposers.get(topic) != null) {
-      return statsExposers.get(topic).getTimingAccumulator();
+    TopicStatsExposer statsExposer = statsExposers.get(topic);
+    if (statsExposer != null) {
+      return statsExposer.getTimingAccumulator();
     } else {
       return null;
     }
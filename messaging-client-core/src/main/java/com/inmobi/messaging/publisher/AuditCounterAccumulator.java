@@ -20,29 +20,22 @@ package com.inmobi.messaging.publisher;
  * #L%
  */
 
-import java.util.HashMap;
 import java.util.Map;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
 /**
- * This class is not thread safe in respect to increments and reset
- * Responsibility is upon the caller
+ * Accumulates the audit counts of a topic in windows of windowSize seconds.
+ * Increments neither block nor box, and reset does not block increments.
  *
  * @author rohit.kochar
  *
  */
 public class AuditCounterAccumulator {
-  private static final Log LOG = LogFactory.
-      getLog(AuditCounterAccumulator.class);
-  private Counters counters = new Counters(new HashMap<Long, Long>(),
-      new HashMap<Long, Long>());
-  private int windowSize;
+  private final WindowedCounter received;
+  private final WindowedCounter sent;
 
   class Counters {
-    private HashMap<Long, Long> received;
-    private HashMap<Long, Long> sent;
+    private Map<Long, Long> received;
+    private Map<Long, Long> sent;
 
     public Map<Long, Long> getReceived() {
       return received;
@@ -52,44 +45,32 @@ public class AuditCounterAccumulator {
       return sent;
     }
 
-    Counters(HashMap<Long, Long> received, HashMap<Long, Long> sent) {
+    Counters(Map<Long, Long> received, Map<Long, Long> sent) {
       this.received = received;
       this.sent = sent;
     }
   }
 
-  AuditCounterAccumulator(int windowSize) {
-
-    this.windowSize = windowSize;
+  /**
+   * @param windowSize size of a window in seconds
+   * @param numWindows number of windows which can be accumulated between two
+   *          resets
+   */
+  AuditCounterAccumulator(int windowSize, int numWindows) {
+    received = new WindowedCounter(windowSize * 1000L, numWindows);
+    sent = new WindowedCounter(windowSize * 1000L, numWindows);
   }
 
-  private Long getWindow(Long timestamp) {
-    Long window = timestamp - (timestamp % (windowSize * 1000));
-    return window;
+  void incrementReceived(long timestamp) {
+    received.increment(timestamp);
   }
 
-  void incrementReceived(Long timestamp) {
-    Long window = getWindow(timestamp);
-    if (!counters.received.containsKey(window)) {
-      counters.received.put(window, Long.valueOf(0));
-    }
-    counters.received.put(window, counters.received.get(window) + 1);
-  }
-
-  void incrementSent(Long timestamp) {
-    Long window = getWindow(timestamp);
-    if (!counters.sent.containsKey(window)) {
-      counters.sent.put(window, Long.valueOf(0));
-    }
-    counters.sent.put(window, counters.sent.get(window) + 1);
-
+  void incrementSent(long timestamp) {
+    sent.increment(timestamp);
   }
 
   Counters getAndReset() {
-    Counters returnValue;
-    returnValue = new Counters(counters.received, counters.sent);
-    counters.received = new HashMap<Long, Long>();
-    counters.sent = new HashMap<Long, Long>();
-    return returnValue;
+    long now = System.currentTimeMillis();
+    return new Counters(received.getAndReset(now), sent.getAndReset(now));
   }
 }
@@ -74,8 +74,8 @@ class AuditService {
        * synchronizing on publisher's instance to avoid execution of this block
        * via 2 threads at same time,this block can be executed via 2 thread
        * 1)through application's thread when close() is called 2) in
-       * AuditService's thread and Also reset operation on accumulator is not
-       * thread safe
+       * AuditService's thread. Publishing to initialized topics does not take
+       * this lock, and accumulators are reset without blocking increments
        */
 
       synchronized (publisher) {
@@ -164,9 +164,17 @@ class AuditService {
     isInit = true;
   }
 
-  private AuditCounterAccumulator getAccumulator(String topic) {
+  /*
+   * Should be called holding the publisher's lock, as the AuditWorker does
+   * while iterating the accumulators
+   */
+  AuditCounterAccumulator getAccumulator(String topic) {
     if (!topicAccumulatorMap.containsKey(topic)) {
-      topicAccumulatorMap.put(topic, new AuditCounterAccumulator(windowSize));
+      // windows counted between two runs of the worker, the window of
+      // messages in flight during a run and a spare window
+      int numWindows = (aggregateWindowSize + windowSize - 1) / windowSize + 2;
+      topicAccumulatorMap.put(topic, new AuditCounterAccumulator(windowSize,
+          numWindows));
     }
     return topicAccumulatorMap.get(topic);
   }
@@ -180,9 +188,4 @@ class AuditService {
       executor.shutdown();
     }
   }
-
-  void incrementReceived(String topicName, Long timestamp) {
-    AuditCounterAccumulator accumulator = getAccumulator(topicName);
-    accumulator.incrementReceived(timestamp);
-  }
 }
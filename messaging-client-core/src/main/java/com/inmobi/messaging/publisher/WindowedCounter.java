@@ -0,0 +1,192 @@
+package com.inmobi.messaging.publisher;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events in fixed size time windows, for a bounded number of recent
+ * windows. Each window is counted in a slot of a ring, and each slot is
+ * striped across threads, so that concurrent increments neither block nor
+ * contend on the same counter and no objects are created per increment.
+ *
+ * Windows are reset by {@link #getAndReset()}, which does not block
+ * increments. A slot of an ended window is first marked closing and drained,
+ * and freed for reuse by a newer window only on the next reset, after being
+ * drained once more. An increment which finds the slot of its window closing,
+ * or held by another window, falls back to a synchronized map. So does an
+ * increment which lost the slot between its ownership check and its
+ * increment, by taking its count back from the slot if not drained yet.
+ */
+class WindowedCounter {
+  private static final long FREE = -1;
+  // a closing slot holds CLOSING - window, below FREE as windows are not
+  // negative
+  private static final long CLOSING = -2;
+  // longs between the counters of two stripes, to keep them on different
+  // cache lines
+  private static final int PADDING = 8;
+  private static final int MAX_STRIPES = 16;
+  private static final int NUM_STRIPES = numStripes();
+
+  private final long windowMillis;
+  private final int numSlots;
+  // start of the window counted in each slot, FREE if the slot is unused
+  // and CLOSING - window if the slot is being freed
+  private final AtomicLongArray slotWindows;
+  private final AtomicLongArray counts;
+  private final Map<Long, Long> overflow = new HashMap<Long, Long>();
+
+  /**
+   * @param windowMillis size of a window in millis
+   * @param numSlots number of windows which can be counted between two resets
+   */
+  WindowedCounter(long windowMillis, int numSlots) {
+    this.windowMillis = windowMillis;
+    this.numSlots = numSlots;
+    this.slotWindows = new AtomicLongArray(numSlots);
+    for (int i = 0; i < numSlots; i++) {
+      slotWindows.set(i, FREE);
+    }
+    this.counts = new AtomicLongArray(numSlots * NUM_STRIPES * PADDING);
+  }
+
+  private static int numStripes() {
+    int stripes = 1;
+    int cpus = Runtime.getRuntime().availableProcessors();
+    while (stripes < cpus && stripes < MAX_STRIPES) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+
+  long getWindow(long timestamp) {
+    return timestamp - (timestamp % windowMillis);
+  }
+
+  private int getSlot(long window) {
+    return (int) ((window / windowMillis) % numSlots);
+  }
+
+  private int getIndex(int slot, int stripe) {
+    return (slot * NUM_STRIPES + stripe) * PADDING;
+  }
+
+  void increment(long timestamp) {
+    long window = getWindow(timestamp);
+    int slot = getSlot(window);
+    long owner = slotWindows.get(slot);
+    if (owner != window) {
+      if (owner != FREE || !slotWindows.compareAndSet(slot, FREE, window)) {
+        owner = slotWindows.get(slot);
+        if (owner != window) {
+          incrementOverflow(window);
+          return;
+        }
+      }
+    }
+    int stripe = (int) Thread.currentThread().getId() & (NUM_STRIPES - 1);
+    int index = getIndex(slot, stripe);
+    counts.incrementAndGet(index);
+    if (slotWindows.get(slot) != window) {
+      // the slot started closing after the ownership check. Only the
+      // increments racing like this one add to a closing slot, so the count
+      // is either still in the slot or already drained for this window.
+      if (takeBack(index)) {
+        incrementOverflow(window);
+      }
+    }
+  }
+
+  /**
+   * Takes a count back from a counter, unless it has been drained.
+   *
+   * @return true if the count was taken back
+   */
+  private boolean takeBack(int index) {
+    long count;
+    do {
+      count = counts.get(index);
+      if (count <= 0) {
+        return false;
+      }
+    } while (!counts.compareAndSet(index, count, count - 1));
+    return true;
+  }
+
+  private void incrementOverflow(long window) {
+    synchronized (overflow) {
+      Long count = overflow.get(window);
+      overflow.put(window, count == null ? 1 : count + 1);
+    }
+  }
+
+  /**
+   * Get the counts of all the windows since last reset, and reset them.
+   *
+   * @param now current time in millis. Slots of windows which ended before
+   *          the previous window are closed, and freed on the next reset.
+   * @return map from window start to the count in that window
+   */
+  Map<Long, Long> getAndReset(long now) {
+    HashMap<Long, Long> result = new HashMap<Long, Long>();
+    long oldestActiveWindow = getWindow(now) - windowMillis;
+    for (int slot = 0; slot < numSlots; slot++) {
+      long owner = slotWindows.get(slot);
+      if (owner == FREE) {
+        continue;
+      }
+      long window;
+      if (owner <= CLOSING) {
+        // closed on the previous reset. Collect the counts which got in
+        // after that drain, and free the slot.
+        window = CLOSING - owner;
+      } else {
+        window = owner;
+        if (window < oldestActiveWindow
+            && !slotWindows.compareAndSet(slot, window, CLOSING - window)) {
+          continue;
+        }
+      }
+      long count = 0;
+      for (int stripe = 0; stripe < NUM_STRIPES; stripe++) {
+        count += counts.getAndSet(getIndex(slot, stripe), 0);
+      }
+      if (count > 0) {
+        result.put(window, count);
+      }
+      if (owner <= CLOSING) {
+        slotWindows.compareAndSet(slot, owner, FREE);
+      }
+    }
+    synchronized (overflow) {
+      for (Map.Entry<Long, Long> entry : overflow.entrySet()) {
+        Long count = result.get(entry.getKey());
+        result.put(entry.getKey(), count == null ? entry.getValue() : count
+            + entry.getValue());
+      }
+      overflow.clear();
+    }
+    return result;
+  }
+}
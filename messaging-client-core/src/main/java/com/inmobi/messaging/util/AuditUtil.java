@@ -39,30 +39,35 @@ public class AuditUtil {
   public static final String DATE_FORMAT = "dd-MM-yyyy-HH:mm";
   private static final int POSITION_OF_TIMESTAMP = 4;
 
+  /**
+   * Attaches the audit header to the message. The header is kept apart from
+   * the data of the message, see {@link Message#setHeader(ByteBuffer)}, so the
+   * data is not copied.
+   */
   public static void attachHeaders(Message m, Long timestamp) {
-    byte[] b = m.getData().array();
-    int messageSize = b.length;
-    int totalSize = messageSize + HEADER_LENGTH;
-    ByteBuffer buffer = ByteBuffer.allocate(totalSize);
+    int messageSize = m.getData().remaining();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
 
     // writing version
-    buffer.put((byte) currentVersion);
+    header.put((byte) currentVersion);
     // writing magic bytes
-    buffer.put(magicBytes);
+    header.put(magicBytes);
     // writing timestamp
     long time = timestamp;
-    buffer.putLong(time);
+    header.putLong(time);
 
     // writing message size
-    buffer.putInt(messageSize);
-    // writing message
-    buffer.put(b);
-    buffer.rewind();
-    m.set(buffer);
-    // return new Message(buffer);
-
+    header.putInt(messageSize);
+    header.flip();
+    m.setHeader(header);
   }
 
+  /**
+   * Removes the audit header, if present, from the data.
+   *
+   * @return the data without header, in a buffer whose array holds exactly
+   *         the data
+   */
   public static ByteBuffer removeHeader(byte[] data) {
     if (isValidHeaders(data)) {
       return ByteBuffer.wrap(Arrays.copyOfRange(data, HEADER_LENGTH,
@@ -0,0 +1,156 @@
+package com.inmobi.messaging.publisher;
+
+/*
+ * #%L
+ * messaging-client-core
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.messaging.publisher.AuditCounterAccumulator.Counters;
+
+public class TestAuditCounterAccumulator {
+
+  private long sum(Map<Long, Long> counts) {
+    long sum = 0;
+    for (Long count : counts.values()) {
+      sum += count;
+    }
+    return sum;
+  }
+
+  @Test
+  public void testWindows() {
+    AuditCounterAccumulator accumulator = new AuditCounterAccumulator(60, 3);
+    long window = System.currentTimeMillis() / 60000 * 60000;
+    accumulator.incrementReceived(window - 60000);
+    accumulator.incrementReceived(window);
+    accumulator.incrementReceived(window + 1000);
+    accumulator.incrementSent(window + 2000);
+    Counters counters = accumulator.getAndReset();
+    Assert.assertEquals(counters.getReceived().size(), 2);
+    Assert.assertEquals(counters.getReceived().get(window - 60000),
+        Long.valueOf(1));
+    Assert.assertEquals(counters.getReceived().get(window), Long.valueOf(2));
+    Assert.assertEquals(counters.getSent().get(window), Long.valueOf(1));
+
+    counters = accumulator.getAndReset();
+    Assert.assertTrue(counters.getReceived().isEmpty());
+    Assert.assertTrue(counters.getSent().isEmpty());
+  }
+
+  @Test
+  public void testSlotHeldByOlderWindow() {
+    AuditCounterAccumulator accumulator = new AuditCounterAccumulator(60, 3);
+    long window = System.currentTimeMillis() / 60000 * 60000;
+    // both the windows map to the same slot
+    accumulator.incrementReceived(window - 3 * 60000);
+    accumulator.incrementReceived(window);
+    Counters counters = accumulator.getAndReset();
+    Assert.assertEquals(counters.getReceived().get(window - 3 * 60000),
+        Long.valueOf(1));
+    Assert.assertEquals(counters.getReceived().get(window), Long.valueOf(1));
+  }
+
+  @Test
+  public void testConcurrentIncrementsAndReset() throws Exception {
+    final AuditCounterAccumulator accumulator =
+        new AuditCounterAccumulator(60, 3);
+    final int numThreads = 8;
+    final int numIncrements = 100000;
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          for (int j = 0; j < numIncrements; j++) {
+            accumulator.incrementReceived(System.currentTimeMillis());
+          }
+        }
+      };
+      threads[i].start();
+    }
+    long total = 0;
+    for (Thread t : threads) {
+      while (t.isAlive()) {
+        total += sum(accumulator.getAndReset().getReceived());
+        t.join(1);
+      }
+    }
+    total += sum(accumulator.getAndReset().getReceived());
+    Assert.assertEquals(total, (long) numThreads * numIncrements);
+  }
+
+  @Test
+  public void testConcurrentWindowTotals() throws Exception {
+    final long windowMillis = 10;
+    final int numWindows = 200;
+    final int numThreads = 8;
+    final int incrementsPerWindow = 1000;
+    final WindowedCounter counter = new WindowedCounter(windowMillis, 3);
+    // latest window reached by any thread, which drives the resets
+    final AtomicLong clock = new AtomicLong(0);
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          for (int w = 0; w < numWindows; w++) {
+            long window = w * windowMillis;
+            clock.set(Math.max(clock.get(), window));
+            for (int j = 0; j < incrementsPerWindow; j++) {
+              counter.increment(window + j % windowMillis);
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    Map<Long, Long> totals = new HashMap<Long, Long>();
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (Thread t : threads) {
+        running |= t.isAlive();
+      }
+      // slots are closed while threads still count late increments in them
+      addTo(totals, counter.getAndReset(clock.get() + windowMillis));
+      Thread.sleep(1);
+    }
+    long end = numWindows * windowMillis + windowMillis;
+    addTo(totals, counter.getAndReset(end));
+    addTo(totals, counter.getAndReset(end));
+    Assert.assertEquals(totals.size(), numWindows);
+    for (int w = 0; w < numWindows; w++) {
+      Assert.assertEquals(totals.get(w * windowMillis),
+          Long.valueOf((long) numThreads * incrementsPerWindow),
+          "count of window " + w);
+    }
+  }
+
+  private void addTo(Map<Long, Long> totals, Map<Long, Long> counts) {
+    for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+      Long total = totals.get(entry.getKey());
+      totals.put(entry.getKey(), total == null ? entry.getValue() : total
+          + entry.getValue());
+    }
+  }
+}
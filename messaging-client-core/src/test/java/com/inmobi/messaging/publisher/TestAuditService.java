@@ -51,9 +51,33 @@ public class TestAuditService {
     buffer.get(msg);
     assert (new String(msg).equals("test data"));
     buffer.rewind();
-    byte[] withoutHeaders = AuditUtil.removeHeader(buffer.array()).array();
-    assert (new String(withoutHeaders).equals("test data"));
+    ByteBuffer withoutHeaders = AuditUtil.removeHeader(buffer.array());
+    // array of the data without header holds exactly the data
+    assert (new String(withoutHeaders.array()).equals("test data"));
 
   }
 
+  @Test
+  public void testAttachHeadersWithoutCopy() {
+    byte[] payload = "test data".getBytes();
+    Message m = new Message(payload);
+    AuditUtil.attachHeaders(m, System.currentTimeMillis());
+    assert (m.getSize() == payload.length + AuditUtil.HEADER_LENGTH);
+    ByteBuffer[] segments = m.getSegments();
+    assert (segments.length == 2);
+    assert (segments[0].remaining() == AuditUtil.HEADER_LENGTH);
+    // data is sent as is, after the header
+    assert (segments[1].array() == payload);
+    assert (m.clone().getSegments().length == 2);
+    // getData copies header and data, and leaves the message as is
+    ByteBuffer data = m.getData();
+    assert (data.remaining() == m.getSize());
+    assert (m.getSegments().length == 2);
+    // a message is equal to one holding its header and data together
+    Message combined = new Message(data);
+    assert (m.equals(combined) && combined.equals(m));
+    assert (m.hashCode() == combined.hashCode());
+    assert (!m.equals(new Message(payload)));
+  }
+
 }
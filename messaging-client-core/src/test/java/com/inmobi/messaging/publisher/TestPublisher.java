@@ -311,6 +311,48 @@ public class TestPublisher {
     publisher.close();
   }
 
+  @Test
+  public void testAuditWithMultiplePublisherThreads() throws Exception {
+    ClientConfig conf = new ClientConfig();
+    conf.set(MessagePublisherFactory.PUBLISHER_CLASS_NAME_KEY,
+        MockPublisher.class.getName());
+    conf.set(AuditService.WINDOW_SIZE_KEY, "60");
+    conf.set(AuditService.AGGREGATE_WINDOW_KEY, "60");
+    conf.set(AbstractMessagePublisher.AUDIT_ENABLED_KEY, "true");
+    final AbstractMessagePublisher publisher =
+        (AbstractMessagePublisher) MessagePublisherFactory.create(conf);
+    final String topic = "auditThreads";
+    final int numThreads = 4;
+    final int numMsgsPerThread = 1000;
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          for (int j = 0; j < numMsgsPerThread; j++) {
+            publisher.publish(topic, new Message("msg".getBytes()));
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    publisher.close();
+    Assert.assertEquals(publisher.getStats(topic).getInvocationCount(),
+        numThreads * numMsgsPerThread);
+    AuditMessage audit = new AuditMessage();
+    new TDeserializer().deserialize(audit,
+        MockPublisher.getMsg(AuditUtil.AUDIT_STREAM_TOPIC_NAME).getData()
+            .array());
+    long received = 0;
+    for (Long count : audit.getReceived().values()) {
+      received += count;
+    }
+    Assert.assertEquals(audit.getTopic(), topic);
+    Assert.assertEquals(received, numThreads * numMsgsPerThread);
+  }
+
   class PublishThread extends Thread {
 
     private String topic;
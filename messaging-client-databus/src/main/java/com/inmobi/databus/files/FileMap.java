@@ -21,7 +21,6 @@ package com.inmobi.databus.files;
  */
 
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -34,7 +33,10 @@ public abstract class FileMap<T extends StreamFile> {
   private static final Log LOG = LogFactory.getLog(FileMap.class);
 
   protected TreeMap<T, FileStatus> files;
-  protected Iterator<T> fileNameIterator;
+  // last file returned by the iterator, null if it is before the first file
+  private T cursor;
+  // whether the iterator has gone past the last file
+  private boolean exhausted;
   protected PathFilter pathFilter;
 
   public FileMap() {
@@ -53,7 +55,8 @@ public abstract class FileMap<T extends StreamFile> {
 
 
   private void createIterator() {
-    fileNameIterator = files.navigableKeySet().iterator();
+    cursor = null;
+    exhausted = false;
   }
 
   public void addPath(FileStatus path) {
@@ -106,6 +109,20 @@ public abstract class FileMap<T extends StreamFile> {
     createIterator();
   }
 
+  /**
+   * Lists the stream again, adding the new files to the existing map. The
+   * iterator keeps its position, so that files added after the current one
+   * are returned next. Files which are no longer in the stream are kept
+   * until the next {@link #build()}.
+   */
+  public void buildIncremental() throws IOException {
+    if (files == null) {
+      build();
+      return;
+    }
+    buildList();
+  }
+
   public boolean isEmpty() {
     return files.isEmpty();
   }
@@ -134,16 +151,21 @@ public abstract class FileMap<T extends StreamFile> {
     return files.containsKey(getStreamFile(fileName));
   }
 
+  /**
+   * Positions the iterator just after the given file.
+   *
+   * @return false if the file is not in the map, leaving the iterator past
+   * the last file
+   */
   public boolean setIterator(FileStatus cfile) {
     if (cfile != null) {
       createIterator();
       T file = getStreamFile(cfile);
-      while (fileNameIterator.hasNext()) {
-        StreamFile nextfile = fileNameIterator.next();
-        if (nextfile.equals(file)) {
-          return true;
-        }
+      if (files.containsKey(file)) {
+        cursor = file;
+        return true;
       }
+      exhausted = true;
       LOG.info("Did not find file" + cfile.getPath());
     }
     return false;
@@ -172,17 +194,28 @@ public abstract class FileMap<T extends StreamFile> {
     return false;
   }
 
+  private T nextKey() {
+    if (exhausted) {
+      return null;
+    }
+    if (cursor == null) {
+      return files.isEmpty() ? null : files.firstKey();
+    }
+    return files.higherKey(cursor);
+  }
+
   public FileStatus getNext() {
-    if (fileNameIterator.hasNext()) {
-      StreamFile fileName = fileNameIterator.next();
+    T fileName = nextKey();
+    if (fileName != null) {
       LOG.debug("next file name:" + fileName);
+      cursor = fileName;
       return getValue(fileName);
     }
     return null;
   }
 
   public boolean hasNext() {
-    return fileNameIterator.hasNext();
+    return nextKey() != null;
   }
 
   public int getSize() {
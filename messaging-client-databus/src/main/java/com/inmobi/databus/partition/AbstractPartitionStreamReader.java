@@ -21,8 +21,11 @@ package com.inmobi.databus.partition;
  */
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 import com.inmobi.databus.files.StreamFile;
+import com.inmobi.databus.readers.CooperativeWaitException;
+import com.inmobi.databus.readers.DirectoryListingCache;
 import com.inmobi.databus.readers.StreamReader;
 import com.inmobi.messaging.Message;
 
@@ -31,6 +34,9 @@ public abstract class AbstractPartitionStreamReader implements
 
   protected StreamReader reader;
   protected boolean closed = false;
+  // whether checkpoints carry the byte offset of the line, see
+  // MessagingConsumerConfig.checkpointOffsetsConfig
+  protected boolean checkpointOffsets = false;
 
   protected StreamReader getReader() {
     return this.reader;
@@ -45,6 +51,17 @@ public abstract class AbstractPartitionStreamReader implements
     return reader.getCurrentLineNum();
   }
 
+  /**
+   * Returns the byte offset of the current line to store in the checkpoint,
+   * or -1 if checkpoints do not carry offsets.
+   */
+  protected long getCheckpointOffset() {
+    if (checkpointOffsets) {
+      return reader.getCurrentOffset();
+    }
+    return -1;
+  }
+
   @Override
   public boolean openStream() throws IOException {
     return reader.openStream();
@@ -65,8 +82,24 @@ public abstract class AbstractPartitionStreamReader implements
     }
   }
 
-  public Message readLine() throws IOException, InterruptedException {
+  public Message readLine()
+      throws IOException, InterruptedException, CooperativeWaitException {
     return reader.readLine();
   }
 
+  @Override
+  public void setListingCache(DirectoryListingCache listingCache) {
+    reader.setListingCache(listingCache);
+  }
+
+  @Override
+  public void setCooperativeWaits(boolean cooperativeWaits) {
+    reader.setCooperativeWaits(cooperativeWaits);
+  }
+
+  @Override
+  public void setReaderPool(ExecutorService readerPool) {
+    reader.setReaderPool(readerPool);
+  }
+
 }
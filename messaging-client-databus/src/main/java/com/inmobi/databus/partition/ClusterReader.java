@@ -30,8 +30,10 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
+import com.inmobi.databus.readers.CooperativeWaitException;
 import com.inmobi.databus.readers.DatabusStreamWaitingReader;
 import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
+import com.inmobi.messaging.consumer.databus.MessagingConsumerConfig;
 import com.inmobi.messaging.metrics.PartitionReaderStatsExposer;
 
 public class ClusterReader extends AbstractPartitionStreamReader {
@@ -51,6 +53,9 @@ public class ClusterReader extends AbstractPartitionStreamReader {
           throws IOException {
     this.startTime = startTime;
     this.streamDir = streamDir;
+    this.checkpointOffsets = conf.getBoolean(
+        MessagingConsumerConfig.checkpointOffsetsConfig,
+        MessagingConsumerConfig.DEFAULT_CHECKPOINT_OFFSETS);
 
     reader = new DatabusStreamWaitingReader(partitionId, fs, streamDir,
         inputFormatClass, conf, waitTimeForFileCreate, metrics, noNewFiles,
@@ -76,7 +81,8 @@ public class ClusterReader extends AbstractPartitionStreamReader {
     ((DatabusStreamWaitingReader) reader).initializeBuildTimeStamp(buildTimestamp);
   }
 
-  public void initializeCurrentFile() throws IOException, InterruptedException {
+  public void initializeCurrentFile()
+      throws IOException, InterruptedException, CooperativeWaitException {
     LOG.info("Initializing partition reader's current file");
 
     // Build the reader from buildTimestamp
@@ -116,7 +122,8 @@ public class ClusterReader extends AbstractPartitionStreamReader {
     }
     DeltaPartitionCheckPoint consumerPartitionCheckPoint =
         new DeltaPartitionCheckPoint(dataWaitingReader.getCurrentStreamFile(),
-            dataWaitingReader.getCurrentLineNum(), dataWaitingReader.
+            dataWaitingReader.getCurrentLineNum(),
+            getCheckpointOffset(), dataWaitingReader.
             getCurrentMin(), dataWaitingReader.getDeltaCheckpoint());
     dataWaitingReader.resetDeltaCheckpoint();
     return consumerPartitionCheckPoint;
@@ -22,6 +22,7 @@ package com.inmobi.databus.partition;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,9 +32,12 @@ import org.apache.hadoop.fs.Path;
 
 import com.inmobi.databus.files.DatabusStreamFile;
 import com.inmobi.databus.readers.CollectorStreamReader;
+import com.inmobi.databus.readers.CooperativeWaitException;
+import com.inmobi.databus.readers.DirectoryListingCache;
 import com.inmobi.databus.readers.LocalStreamCollectorReader;
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
+import com.inmobi.messaging.consumer.databus.MessagingConsumerConfig;
 import com.inmobi.messaging.metrics.CollectorReaderStatsExposer;
 
 public class CollectorReader extends AbstractPartitionStreamReader {
@@ -48,6 +52,9 @@ public class CollectorReader extends AbstractPartitionStreamReader {
   private CollectorStreamReader cReader;
   private final CollectorReaderStatsExposer metrics;
   private boolean isLocalStreamAvailable = false;
+  // collector file after which the collector reader is being positioned,
+  // while it waits cooperatively for the next file
+  private String pendingCollectorFile;
 
   CollectorReader(PartitionId partitionId,
       PartitionCheckpoint partitionCheckpoint, FileSystem fs,
@@ -63,6 +70,9 @@ public class CollectorReader extends AbstractPartitionStreamReader {
     this.streamName = streamName;
     this.partitionCheckpoint = partitionCheckpoint;
     this.metrics = metrics;
+    this.checkpointOffsets = conf.getBoolean(
+        MessagingConsumerConfig.checkpointOffsetsConfig,
+        MessagingConsumerConfig.DEFAULT_CHECKPOINT_OFFSETS);
     if (streamsLocalDir != null) {
       lReader = new LocalStreamCollectorReader(partitionId,  fs, streamName,
           streamsLocalDir, conf, waitTimeForFileCreate, metrics, stopTime);
@@ -85,7 +95,7 @@ public class CollectorReader extends AbstractPartitionStreamReader {
   }
 
   private void initializeCurrentFileFromTimeStamp(Date timestamp)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (lReader.initializeCurrentFile(timestamp)) {
       reader = lReader;
     } else {
@@ -99,7 +109,8 @@ public class CollectorReader extends AbstractPartitionStreamReader {
    * close the reader if given stopTime is beyond the checkpoint
    */
   private void initializeCurrentFileFromCheckpointLocalStream(
-      String localStreamFileName) throws IOException, InterruptedException {
+      String localStreamFileName)
+      throws IOException, InterruptedException, CooperativeWaitException {
     boolean useCReader = false;
     if (!lReader.isEmpty()) {
       if (!lReader.initializeCurrentFile(new PartitionCheckpoint(
@@ -130,7 +141,7 @@ public class CollectorReader extends AbstractPartitionStreamReader {
   }
 
   private void initializeCurrentFileFromCheckpoint()
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     String fileName = partitionCheckpoint.getFileName();
     if (CollectorStreamReader.isCollectorFile(fileName)) {
       if (cReader.initializeCurrentFile(partitionCheckpoint)) {
@@ -148,7 +159,7 @@ public class CollectorReader extends AbstractPartitionStreamReader {
   }
 
   private void initializeCurrentFileFromStartOfStream()
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (!lReader.isEmpty()) {
       reader = lReader;
     } else {
@@ -157,7 +168,8 @@ public class CollectorReader extends AbstractPartitionStreamReader {
     reader.startFromBegining();
   }
 
-  public void initializeCurrentFile() throws IOException, InterruptedException {
+  public void initializeCurrentFile()
+      throws IOException, InterruptedException, CooperativeWaitException {
     LOG.info("Initializing partition reader's current file");
     cReader.build();
 
@@ -181,7 +193,7 @@ public class CollectorReader extends AbstractPartitionStreamReader {
   }
 
   private void initializeCurrentFileFromCollectorStreamOnly()
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (partitionCheckpoint != null) {
       if (!reader.initializeCurrentFile(partitionCheckpoint)) {
         cReader.startFromNextHigher(partitionCheckpoint.getFileName());
@@ -193,29 +205,35 @@ public class CollectorReader extends AbstractPartitionStreamReader {
     }
   }
 
-  public Message readLine() throws IOException, InterruptedException {
+  public Message readLine()
+      throws IOException, InterruptedException, CooperativeWaitException {
     assert (reader != null);
-    Message line = super.readLine();
+    Message line = null;
+    if (pendingCollectorFile == null) {
+      line = super.readLine();
+    }
     while (line == null) {
       if (closed) {
         return line;
       }
 
-      // check whether readers are stopped
-      if (reader.isStopped()) {
+      if (pendingCollectorFile != null) {
+        LOG.debug("Resuming the wait for next file after "
+            + pendingCollectorFile);
+        startCollectorFromNextHigher(pendingCollectorFile);
+      } else if (reader.isStopped()) {
+        // check whether readers are stopped
         return null;
-      }
-      if (reader == lReader) {
+      } else if (reader == lReader) {
         lReader.closeStream();
         LOG.info("Switching to collector stream as we reached end of"
             + " stream on local stream");
         LOG.info("current file:" + reader.getCurrentFile());
-        cReader.startFromNextHigher(
-            CollectorStreamReader.getCollectorFileName(
-                streamName,
-                reader.getCurrentFile().getName()));
+        String collectorFileName = CollectorStreamReader.getCollectorFileName(
+            streamName, reader.getCurrentFile().getName());
         reader = cReader;
         metrics.incrementSwitchesFromLocalToCollector();
+        startCollectorFromNextHigher(collectorFileName);
       } else { // reader should be cReader
         assert (reader == cReader);
         cReader.closeStream();
@@ -228,8 +246,7 @@ public class CollectorReader extends AbstractPartitionStreamReader {
                 cReader.getCurrentFile().getName()),
                 cReader.getCurrentLineNum())) {
           LOG.info("Did not find current file in local stream as well");
-          cReader.startFromNextHigher(
-              reader.getCurrentFile().getName());
+          startCollectorFromNextHigher(reader.getCurrentFile().getName());
         } else {
           LOG.info("Switching to local stream as the file got moved");
           reader = lReader;
@@ -249,11 +266,22 @@ public class CollectorReader extends AbstractPartitionStreamReader {
     return line;
   }
 
+  /*
+   * A cooperative wait leaves the file recorded, so that the next readLine
+   * carries on waiting for the file after it.
+   */
+  private void startCollectorFromNextHigher(String collectorFileName)
+      throws IOException, InterruptedException, CooperativeWaitException {
+    pendingCollectorFile = collectorFileName;
+    cReader.startFromNextHigher(collectorFileName);
+    pendingCollectorFile = null;
+  }
+
   @Override
   public MessageCheckpoint getMessageCheckpoint() {
     if (reader != null && getCurrentFile() != null) {
       return new PartitionCheckpoint(reader.getCurrentStreamFile(),
-          reader.getCurrentLineNum());
+          reader.getCurrentLineNum(), getCheckpointOffset());
     }
     return null;
   }
@@ -262,4 +290,28 @@ public class CollectorReader extends AbstractPartitionStreamReader {
   public MessageCheckpoint buildStartPartitionCheckpoints() {
     return null;
   }
+
+  @Override
+  public void setListingCache(DirectoryListingCache listingCache) {
+    if (lReader != null) {
+      lReader.setListingCache(listingCache);
+    }
+    cReader.setListingCache(listingCache);
+  }
+
+  @Override
+  public void setCooperativeWaits(boolean cooperativeWaits) {
+    if (lReader != null) {
+      lReader.setCooperativeWaits(cooperativeWaits);
+    }
+    cReader.setCooperativeWaits(cooperativeWaits);
+  }
+
+  @Override
+  public void setReaderPool(ExecutorService readerPool) {
+    if (lReader != null) {
+      lReader.setReaderPool(readerPool);
+    }
+    cReader.setReaderPool(readerPool);
+  }
 }
@@ -26,28 +26,112 @@ import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Checkpoint of a message read from a partition of minute directories.
+ *
+ * It holds the position of the message in its minute and, only when the
+ * reader moved across minutes since the previous message, the checkpoints of
+ * the minutes it left behind. The stream file is shared by all the messages
+ * of a file, so a message costs no more than this object.
+ */
 public class DeltaPartitionCheckPoint implements MessageCheckpoint {
-  private final Map<Integer, PartitionCheckpoint> deltaCheckpoint =
-      new HashMap<Integer, PartitionCheckpoint>();
+  private final StreamFile streamFile;
+  private final long lineNum;
+  private final long offset;
+  private final Integer minId;
+  // checkpoints of other minutes, null if there are none
+  private final Map<Integer, PartitionCheckpoint> transitions;
 
   public DeltaPartitionCheckPoint(StreamFile streamFile, long lineNum,
       Integer minId, Map<Integer, PartitionCheckpoint> deltaCheckpoint) {
-    this.deltaCheckpoint.putAll(deltaCheckpoint);
-    this.deltaCheckpoint.put(minId,
-        new PartitionCheckpoint(streamFile, lineNum));
+    this(streamFile, lineNum, -1, minId, deltaCheckpoint);
+  }
+
+  public DeltaPartitionCheckPoint(StreamFile streamFile, long lineNum,
+      long offset, Integer minId,
+      Map<Integer, PartitionCheckpoint> deltaCheckpoint) {
+    this.streamFile = streamFile;
+    this.lineNum = lineNum;
+    this.offset = offset;
+    this.minId = minId;
+    if (deltaCheckpoint == null || deltaCheckpoint.isEmpty()) {
+      this.transitions = null;
+    } else {
+      this.transitions = new HashMap<Integer, PartitionCheckpoint>(
+          deltaCheckpoint);
+      this.transitions.remove(minId);
+    }
   }
 
   public DeltaPartitionCheckPoint(
       Map<Integer, PartitionCheckpoint> deltaCheckpoint) {
-    this.deltaCheckpoint.putAll(deltaCheckpoint);
+    this.streamFile = null;
+    this.lineNum = -1;
+    this.offset = -1;
+    this.minId = null;
+    this.transitions = new HashMap<Integer, PartitionCheckpoint>(
+        deltaCheckpoint);
+  }
+
+  private DeltaPartitionCheckPoint(DeltaPartitionCheckPoint position,
+      Map<Integer, PartitionCheckpoint> transitions) {
+    this.streamFile = position.streamFile;
+    this.lineNum = position.lineNum;
+    this.offset = position.offset;
+    this.minId = position.minId;
+    this.transitions = transitions;
+  }
+
+  /**
+   * Returns a checkpoint equivalent to applying the previous checkpoint of
+   * the partition and then this one.
+   */
+  public DeltaPartitionCheckPoint coalesce(DeltaPartitionCheckPoint previous) {
+    if (previous == null || (transitions == null && minId != null
+        && minId.equals(previous.minId))) {
+      // this position overrides the previous one
+      if (previous == null || previous.transitions == null) {
+        return this;
+      }
+      return new DeltaPartitionCheckPoint(this, previous.transitions);
+    }
+    Map<Integer, PartitionCheckpoint> merged = previous.getDeltaCheckpoint();
+    if (transitions != null) {
+      merged.putAll(transitions);
+    }
+    if (minId != null) {
+      merged.remove(minId);
+    }
+    return new DeltaPartitionCheckPoint(this, merged);
+  }
+
+  /**
+   * Returns the file of the message, null if the checkpoint has only the
+   * checkpoints of the left behind minutes.
+   */
+  public StreamFile getStreamFile() {
+    return streamFile;
   }
 
   @Override
   public String toString() {
-    return this.deltaCheckpoint.toString();
+    return getDeltaCheckpoint().toString();
   }
 
+  /**
+   * Returns a new map of minute to checkpoint, which has the checkpoints of
+   * the left behind minutes and the position of the message.
+   */
   public Map<Integer, PartitionCheckpoint> getDeltaCheckpoint() {
+    Map<Integer, PartitionCheckpoint> deltaCheckpoint =
+        new HashMap<Integer, PartitionCheckpoint>();
+    if (transitions != null) {
+      deltaCheckpoint.putAll(transitions);
+    }
+    if (minId != null) {
+      deltaCheckpoint.put(minId,
+          new PartitionCheckpoint(streamFile, lineNum, offset));
+    }
     return deltaCheckpoint;
   }
 
@@ -34,12 +34,21 @@ import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
 public class PartitionCheckpoint implements Writable, MessageCheckpoint {
   private StreamFile streamFile;
   private long lineNum;
+  // byte offset of line lineNum in the stream file, -1 if not known
+  private long offset = -1;
 
   public PartitionCheckpoint(StreamFile streamFile, long lineNum) {
     this.streamFile = streamFile;
     this.lineNum = lineNum;
   }
 
+  public PartitionCheckpoint(StreamFile streamFile, long lineNum,
+      long offset) {
+    this.streamFile = streamFile;
+    this.lineNum = lineNum;
+    this.offset = offset;
+  }
+
   public PartitionCheckpoint(DataInput in) throws IOException {
     readFields(in);
   }
@@ -63,6 +72,14 @@ public class PartitionCheckpoint implements Writable, MessageCheckpoint {
     return lineNum;
   }
 
+  /**
+   * Returns the byte offset in the stream file at which line
+   * {@link #getLineNum()} starts, or -1 if the offset is not known.
+   */
+  public long getOffset() {
+    return offset;
+  }
+
   @Override
   public boolean isNULL() {
     return false;
@@ -79,20 +96,39 @@ public class PartitionCheckpoint implements Writable, MessageCheckpoint {
       throw new InvalidCheckpointException("Invalid stream file class", e);
     }
     streamFile.readFields(in);
-    lineNum = in.readLong();
+    long value = in.readLong();
+    // line numbers are never less than -1, so any smaller value marks a
+    // checkpoint which is followed by a byte offset. Checkpoints written
+    // without an offset keep the old layout. Older clients can not read the
+    // layout with the offset, which the readers write only when
+    // MessagingConsumerConfig.checkpointOffsetsConfig is enabled.
+    if (value < -1) {
+      lineNum = -(value + 2);
+      offset = in.readLong();
+    } else {
+      lineNum = value;
+      offset = -1;
+    }
   }
 
   @Override
   public void write(DataOutput out) throws IOException {
     out.writeUTF(streamFile.getClass().getCanonicalName());
     streamFile.write(out);
-    out.writeLong(lineNum);
+    if (offset >= 0 && lineNum >= 0) {
+      out.writeLong(-(lineNum + 2));
+      out.writeLong(offset);
+    } else {
+      out.writeLong(lineNum);
+    }
   }
 
   public String toString() {
     return streamFile + "-" + lineNum;
   }
 
+  // offset is only a hint to locate lineNum faster, it is not part of the
+  // identity of the checkpoint
   @Override
   public int hashCode() {
     final int prime = 31;
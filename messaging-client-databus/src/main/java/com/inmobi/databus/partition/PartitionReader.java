@@ -24,6 +24,10 @@ import java.io.IOException;
 import java.util.Date;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,6 +36,8 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
 import com.inmobi.databus.files.StreamFile;
+import com.inmobi.databus.readers.CooperativeWaitException;
+import com.inmobi.databus.readers.DirectoryListingCache;
 import com.inmobi.messaging.EOFMessage;
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
@@ -42,6 +48,10 @@ import com.inmobi.messaging.metrics.PartitionReaderStatsExposer;
 public class PartitionReader {
 
   private static final Log LOG = LogFactory.getLog(PartitionReader.class);
+  // time for which a reader run by a shared pool reads before yielding
+  private static final long READ_SLICE_MILLIS = 100;
+  private static final long BUFFER_FULL_WAIT_MILLIS = 10;
+  private static final long ERROR_WAIT_MILLIS = 1000;
 
   private final PartitionId partitionId;
   private final BlockingQueue<QueueEntry> buffer;
@@ -52,6 +62,15 @@ public class PartitionReader {
   private boolean inited = false;
   private final PartitionReaderStatsExposer prMetrics;
 
+  // state of a reader run by a shared pool, guarded by stepLock
+  private final Object stepLock = new Object();
+  private ScheduledExecutorService pool;
+  private volatile ScheduledFuture<?> scheduledStep;
+  private boolean streamOpened = false;
+  // entry which could not be added to the full buffer
+  private QueueEntry pendingEntry;
+  private boolean eofQueued = false;
+
   public PartitionReader(PartitionId partitionId,
       PartitionCheckpoint partitionCheckpoint, Configuration conf,
       FileSystem fs, Path collectorDataDir,
@@ -169,7 +188,146 @@ public class PartitionReader {
     thread.start();
   }
 
-  void init() throws IOException, InterruptedException {
+  /**
+   * Runs the reader on the given pool, shared with other readers, instead of
+   * on a thread of its own. The reader reads for a short time on each run,
+   * and is run again when it has data to read, rather than holding a pool
+   * thread while it waits for new files, flushes or buffer space.
+   */
+  public synchronized void start(String readerNameSuffix,
+      ScheduledExecutorService pool) {
+    this.pool = pool;
+    reader.setCooperativeWaits(true);
+    reader.setReaderPool(pool);
+    LOG.info("Scheduling reader " + partitionId + "_" + readerNameSuffix);
+    scheduleStep(0);
+  }
+
+  private void scheduleStep(long delay) {
+    if (stopped) {
+      return;
+    }
+    try {
+      scheduledStep = pool.schedule(new Runnable() {
+        @Override
+        public void run() {
+          step();
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      LOG.info("Reader pool is shut down, not scheduling " + partitionId);
+    }
+  }
+
+  private void step() {
+    synchronized (stepLock) {
+      if (stopped) {
+        return;
+      }
+      long delay;
+      try {
+        delay = readSlice();
+      } catch (CooperativeWaitException e) {
+        delay = e.getWaitTime();
+      } catch (InterruptedException ie) {
+        // the pool is shutting down; the reader is not run again, so it is
+        // closed rather than left looking active
+        LOG.info("Interrupted while reading stream, closing reader "
+            + partitionId, ie);
+        Thread.currentThread().interrupt();
+        finishReading();
+        return;
+      } catch (Throwable e) {
+        LOG.warn("Error while reading stream", e);
+        prMetrics.incrementHandledExceptions();
+        closeOpenedStream();
+        delay = ERROR_WAIT_MILLIS;
+      }
+      if (delay >= 0) {
+        scheduleStep(delay);
+      }
+    }
+  }
+
+  /*
+   * Reads messages into the buffer for a time slice. Returns the delay after
+   * which the reader should read again, or -1 if it has read the stream.
+   */
+  private long readSlice()
+      throws IOException, InterruptedException, CooperativeWaitException {
+    if (!inited) {
+      init();
+      LOG.info("Started streaming the data from reader:" + reader);
+    }
+    if (pendingEntry != null && !offerPendingEntry()) {
+      return BUFFER_FULL_WAIT_MILLIS;
+    }
+    if (eofQueued) {
+      return finishReading();
+    }
+    if (!streamOpened) {
+      if (!reader.openStream()) {
+        return queueEOFMessage();
+      }
+      streamOpened = true;
+      LOG.info("Reading file " + reader.getCurrentFile()
+          + " and lineNum:" + reader.getCurrentLineNum());
+    }
+    long sliceEnd = System.currentTimeMillis() + READ_SLICE_MILLIS;
+    while (!stopped && System.currentTimeMillis() < sliceEnd) {
+      Message msg = reader.readLine();
+      if (msg == null) {
+        return queueEOFMessage();
+      }
+      pendingEntry = new QueueEntry(msg, partitionId,
+          reader.getMessageCheckpoint());
+      if (!offerPendingEntry()) {
+        return BUFFER_FULL_WAIT_MILLIS;
+      }
+    }
+    return 0;
+  }
+
+  private boolean offerPendingEntry() {
+    if (!buffer.offer(pendingEntry)) {
+      return false;
+    }
+    pendingEntry = null;
+    if (!eofQueued) {
+      prMetrics.incrementMessagesAddedToBuffer();
+    }
+    return true;
+  }
+
+  private long queueEOFMessage() {
+    LOG.info("No stream to read");
+    pendingEntry = new QueueEntry(new EOFMessage(), partitionId,
+        reader.getMessageCheckpoint());
+    eofQueued = true;
+    if (!offerPendingEntry()) {
+      return BUFFER_FULL_WAIT_MILLIS;
+    }
+    return finishReading();
+  }
+
+  private long finishReading() {
+    close();
+    closeOpenedStream();
+    return -1;
+  }
+
+  private void closeOpenedStream() {
+    streamOpened = false;
+    try {
+      reader.closeStream();
+    } catch (Exception e) {
+      LOG.warn("Error while closing stream", e);
+      prMetrics.incrementHandledExceptions();
+    }
+  }
+
+  void init()
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (!inited) {
       reader.initializeCurrentFile();
       inited = true;
@@ -189,6 +347,19 @@ public class PartitionReader {
   }
 
   public void join() {
+    if (pool != null) {
+      ScheduledFuture<?> step = scheduledStep;
+      if (step != null) {
+        step.cancel(false);
+      }
+      // waits for a running step, which does not schedule another once
+      // the reader is closed
+      synchronized (stepLock) {
+        if (streamOpened) {
+          closeOpenedStream();
+        }
+      }
+    }
     if (thread != null) {
       thread.interrupt();
       try {
@@ -208,6 +379,14 @@ public class PartitionReader {
     return reader;
   }
 
+  /**
+   * Shares the directory listings of this partition with the other
+   * partitions of the consumer.
+   */
+  public void setListingCache(DirectoryListingCache listingCache) {
+    reader.setListingCache(listingCache);
+  }
+
   /**
    * Execute reads messages from the stream and adds them to the consumer buffer,
    * until no more messages are present or any exception occurs while reading
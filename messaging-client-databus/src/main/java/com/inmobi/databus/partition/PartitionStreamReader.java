@@ -21,14 +21,18 @@ package com.inmobi.databus.partition;
  */
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 import com.inmobi.databus.files.StreamFile;
+import com.inmobi.databus.readers.CooperativeWaitException;
+import com.inmobi.databus.readers.DirectoryListingCache;
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.consumer.databus.MessageCheckpoint;
 
 public interface PartitionStreamReader {
 
-  void initializeCurrentFile() throws IOException, InterruptedException;
+  void initializeCurrentFile()
+      throws IOException, InterruptedException, CooperativeWaitException;
 
   StreamFile getCurrentFile();
 
@@ -36,7 +40,8 @@ public interface PartitionStreamReader {
 
   boolean openStream() throws IOException;
 
-  Message readLine() throws IOException, InterruptedException;
+  Message readLine()
+      throws IOException, InterruptedException, CooperativeWaitException;
 
   void closeStream() throws IOException;
 
@@ -45,4 +50,10 @@ public interface PartitionStreamReader {
   MessageCheckpoint getMessageCheckpoint();
 
   MessageCheckpoint buildStartPartitionCheckpoints();
+
+  void setListingCache(DirectoryListingCache listingCache);
+
+  void setCooperativeWaits(boolean cooperativeWaits);
+
+  void setReaderPool(ExecutorService readerPool);
 }
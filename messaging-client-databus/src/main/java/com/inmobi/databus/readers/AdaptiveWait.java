@@ -0,0 +1,57 @@
+package com.inmobi.databus.readers;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Wait between two polls for new data. It starts at a minimum and doubles
+ * on every wait while nothing changes, up to a maximum, and goes back to the
+ * minimum once new data is read. With no minimum, it always waits the
+ * maximum.
+ */
+class AdaptiveWait {
+
+  private final long minWait;
+  private final long maxWait;
+  private long nextWait;
+
+  AdaptiveWait(long minWait, long maxWait) {
+    this.minWait = (minWait > 0 && minWait < maxWait) ? minWait : maxWait;
+    this.maxWait = maxWait;
+    this.nextWait = this.minWait;
+  }
+
+  boolean isAdaptive() {
+    return minWait < maxWait;
+  }
+
+  /**
+   * Returns the time to wait now, and backs off the next wait.
+   */
+  long next() {
+    long wait = nextWait;
+    nextWait = Math.min(nextWait * 2, maxWait);
+    return wait;
+  }
+
+  void reset() {
+    nextWait = minWait;
+  }
+}
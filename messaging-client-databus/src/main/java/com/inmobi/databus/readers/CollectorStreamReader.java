@@ -20,10 +20,13 @@ package com.inmobi.databus.readers;
  * #L%
  */
 
-import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
@@ -40,6 +43,7 @@ import com.inmobi.databus.files.DatabusStreamFile;
 import com.inmobi.databus.files.FileMap;
 import com.inmobi.databus.partition.PartitionId;
 import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.databus.MessagingConsumerConfig;
 import com.inmobi.messaging.consumer.util.DatabusUtil;
 import com.inmobi.messaging.metrics.CollectorReaderStatsExposer;
 
@@ -47,17 +51,42 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
 
   private static final Log LOG = LogFactory.getLog(CollectorStreamReader.class);
 
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  // coarsest modification time granularity of the supported file systems
+  private static final long DIR_MTIME_GRANULARITY = 1000;
+
   private long waitTimeForFlush;
   protected long currentOffset = 0;
+  // byte offset just past the last complete line read from the current file
+  protected long currentLineOffset = 0;
   private boolean sameStream = false;
   protected FSDataInputStream inStream;
-  protected BufferedReader reader;
   protected final String streamName;
   private boolean moveToNext = false;
   private CollectorReaderStatsExposer collectorMetrics;
-  private StringBuilder builder = new StringBuilder();
+  // bytes read from inStream, of which readPos to readLimit are not consumed
+  private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+  private int readPos = 0;
+  private int readLimit = 0;
+  // bytes of the line whose line feed is not read yet
+  private byte[] partialLine = new byte[1024];
+  private int partialLength = 0;
   private boolean isS3Fs = false;
   private boolean isLocalStreamAvailable;
+  private final boolean incrementalListing;
+  private final AdaptiveWait flushWait;
+  // keeps the current file open while waiting for it to grow
+  private final boolean tailFollow;
+
+  // data flushed to the current file after the position of the open stream
+  private enum FileGrowth { NONE, VISIBLE, NEEDS_REOPEN }
+  // time at which the current file was last seen not grown, 0 if unknown
+  private long lastNoGrowthAt = 0;
+  // modification time of the collector directory at the last listing,
+  // -1 if it was not listed yet
+  private long listedDirMtime = -1;
+  // time at which the last listing started
+  private long listedAt;
 
   public CollectorStreamReader(PartitionId partitionId,
       FileSystem fs, String streamName, Path streamDir,
@@ -72,10 +101,22 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
     this.waitTimeForFlush = waitTimeForFlush;
     this.collectorMetrics = (CollectorReaderStatsExposer) (this.metrics);
     this.isLocalStreamAvailable = isLocalStreamAvailable;
+    this.incrementalListing = conf.getBoolean(
+        MessagingConsumerConfig.incrementalListingConfig,
+        MessagingConsumerConfig.DEFAULT_INCREMENTAL_LISTING);
+    long minWaitTime = conf.getLong(MessagingConsumerConfig.minWaitTimeConfig,
+        MessagingConsumerConfig.DEFAULT_MIN_WAIT_TIME);
+    this.flushWait = new AdaptiveWait(minWaitTime, waitTimeForFlush);
+    this.tailFollow = conf.getBoolean(
+        MessagingConsumerConfig.tailFollowConfig,
+        MessagingConsumerConfig.DEFAULT_TAIL_FOLLOW);
+    setMinWaitTime(minWaitTime);
     LOG.info("Collector reader initialized with partitionId:" + partitionId
         + " streamDir:" + streamDir
         + " waitTimeForFlush:" + waitTimeForFlush
-        + " waitTimeForCreate:" + waitTimeForCreate);
+        + " waitTimeForCreate:" + waitTimeForCreate
+        + " incrementalListing:" + incrementalListing
+        + " tailFollow:" + tailFollow);
     isS3Fs = isFileSystemS3();
   }
 
@@ -102,12 +143,18 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
       @Override
       protected void buildList() throws IOException {
         if (fsIsPathExists(streamDir)) {
-          FileStatus[] fileStatuses = fsListFileStatus(streamDir, pathFilter);
+          // only this reader lists the collector directory, and a shared
+          // listing could be older than the directory modification time
+          FileStatus[] fileStatuses = fsListFileStatusUncached(streamDir,
+              pathFilter);
           if (fileStatuses == null || fileStatuses.length == 0) {
             LOG.info("No files in directory:" + streamDir);
+            files.clear();
             return;
           }
-          if (stopTime == null) {
+          if (incrementalListing) {
+            mergeListing(fileStatuses);
+          } else if (stopTime == null) {
             for (FileStatus file : fileStatuses) {
               addPath(file);
             }
@@ -124,6 +171,47 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
           }
         } else {
           LOG.info("Collector directory does not exist");
+          files.clear();
+        }
+      }
+
+      /*
+       * adds the files after the last file in the map, and removes the ones
+       * moved out of the collector directory, which are the oldest ones
+       */
+      private void mergeListing(FileStatus[] fileStatuses) throws IOException {
+        List<FileStatus> listed = new ArrayList<FileStatus>();
+        for (FileStatus file : fileStatuses) {
+          if (stopTime != null && stopTime.before(getDateFromCollectorFile(
+              file.getPath().getName()))) {
+            stopListing();
+            continue;
+          }
+          listed.add(file);
+        }
+        if (listed.isEmpty()) {
+          files.clear();
+          return;
+        }
+        CollectorFile last = files.isEmpty() ? null : files.lastKey();
+        CollectorFile first = null;
+        for (FileStatus file : listed) {
+          CollectorFile fileKey = getStreamFile(file);
+          if (first == null || fileKey.compareTo(first) < 0) {
+            first = fileKey;
+          }
+          if (last == null || fileKey.compareTo(last) > 0) {
+            addPath(file);
+          }
+        }
+        files.headMap(first).clear();
+        if (files.size() != listed.size()) {
+          LOG.info("Collector directory changed before its last file,"
+              + " taking the whole listing");
+          files.clear();
+          for (FileStatus file : listed) {
+            addPath(file);
+          }
         }
       }
 
@@ -144,6 +232,43 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
     };
   }
 
+  /**
+   * In incremental listing mode, the collector directory is listed again only
+   * if its modification time changed since the last listing, and the files
+   * map is updated in place.
+   */
+  @Override
+  public void build() throws IOException {
+    if (!incrementalListing) {
+      super.build();
+      return;
+    }
+    long listingStart = System.currentTimeMillis();
+    long dirMtime = getCollectorDirMtime();
+    if (listedDirMtime != -1 && dirMtime == listedDirMtime
+        && dirMtime < listedAt - DIR_MTIME_GRANULARITY) {
+      // a change after the last listing would have moved the mtime
+      LOG.debug("Collector directory not modified since the last listing");
+      metrics.incrementSavedFsOps();
+      return;
+    }
+    if (listedDirMtime == -1) {
+      super.build();
+    } else {
+      buildIncremental();
+    }
+    listedDirMtime = dirMtime;
+    listedAt = listingStart;
+  }
+
+  private long getCollectorDirMtime() throws IOException {
+    try {
+      return fsGetFileStatus(streamDir).getModificationTime();
+    } catch (FileNotFoundException e) {
+      return -1;
+    }
+  }
+
   protected void initCurrentFile() {
     super.initCurrentFile();
     sameStream = false;
@@ -156,13 +281,13 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
     }
     if (next) {
       resetCurrentFileSettings();
+      lastNoGrowthAt = 0;
     }
     LOG.info("Opening file:" + getCurrentFile() + " NumLinesTobeSkipped when"
         + " opening:" + currentLineNum);
     if (fsIsPathExists(getCurrentFile())) {
 
       inStream = fsOpen(getCurrentFile());
-      reader = new BufferedReader(new InputStreamReader(inStream));
       skipOldData();
     } else {
       LOG.info("CurrentFile:" + getCurrentFile() + " does not exist");
@@ -171,10 +296,9 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
   }
 
   protected synchronized void closeCurrentFile() throws IOException {
-    if (reader != null) {
-      reader.close();
-      reader = null;
-    }
+    // unconsumed bytes are read again after seeking to currentOffset
+    readPos = 0;
+    readLimit = 0;
     if (inStream != null) {
       inStream.close();
       inStream = null;
@@ -182,22 +306,45 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
   }
 
   protected Message readRawLine() throws IOException {
-    int next = reader.read();
-    while ((char) next != '\n') {
-      if (next == -1) {
-        LOG.info("reading EOF before a line feed ");
-        return null;
+    while (true) {
+      if (readPos == readLimit) {
+        int len = inStream.read(readBuffer, 0, readBuffer.length);
+        if (len == -1) {
+          LOG.info("reading EOF before a line feed ");
+          return null;
+        }
+        readPos = 0;
+        readLimit = len;
+      }
+      int start = readPos;
+      int end = start;
+      while (end < readLimit && readBuffer[end] != '\n') {
+        end++;
+      }
+      if (end == readLimit) {
+        appendPartialLine(start, end - start);
+        readPos = readLimit;
+        continue;
+      }
+      readPos = end + 1;
+      currentLineOffset += partialLength + (end - start) + 1;
+      if (partialLength == 0) {
+        return DatabusUtil.decodeMessage(readBuffer, start, end - start);
       }
-      builder.append((char) next);
-      next = reader.read();
+      appendPartialLine(start, end - start);
+      Message msg = DatabusUtil.decodeMessage(partialLine, 0, partialLength);
+      partialLength = 0;
+      return msg;
     }
-    String line = builder.toString();
-    builder.setLength(0);
-    if (line != null) {
-      return DatabusUtil.decodeMessage(line.getBytes());
-    } else {
-      return null;
+  }
+
+  private void appendPartialLine(int start, int length) {
+    if (partialLength + length > partialLine.length) {
+      partialLine = Arrays.copyOf(partialLine,
+          Math.max(partialLine.length * 2, partialLength + length));
     }
+    System.arraycopy(readBuffer, start, partialLine, partialLength, length);
+    partialLength += length;
   }
 
   @Override
@@ -216,7 +363,10 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
     Message line = null;
     if (inStream != null) {
       line = super.readNextLine();
-      currentOffset = inStream.getPos();
+      currentOffset = inStream.getPos() - (readLimit - readPos);
+    }
+    if (line != null) {
+      flushWait.reset();
     }
     return line;
   }
@@ -224,10 +374,12 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
   protected void resetCurrentFileSettings() {
     super.resetCurrentFileSettings();
     currentOffset = 0;
+    currentLineOffset = 0;
     moveToNext = false;
-    if (builder.length() != 0) {
-      LOG.warn("Discarding partial message " + builder.toString());
-      builder.setLength(0);
+    if (partialLength != 0) {
+      LOG.warn("Discarding partial message "
+          + new String(partialLine, 0, partialLength));
+      partialLength = 0;
     }
   }
 
@@ -236,14 +388,41 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
     if (sameStream && !isS3Fs) {
       LOG.info("Seeking to offset:" + currentOffset);
       inStream.seek(currentOffset);
+    } else if (startOffset >= 0 && !isS3Fs && seekToStartOffset()) {
+      sameStream = true;
+      currentOffset = startOffset;
+      currentLineOffset = startOffset;
+      startOffset = -1;
     } else {
+      currentLineOffset = 0;
       skipLines(currentLineNum);
       sameStream = true;
-      currentOffset = inStream.getPos();
+      currentOffset = inStream.getPos() - (readLimit - readPos);
     }
   }
 
-  public Message readLine() throws IOException, InterruptedException {
+  private boolean seekToStartOffset() throws IOException {
+    LOG.info("Seeking to checkpointed offset:" + startOffset + " for lineNum:"
+        + currentLineNum);
+    try {
+      inStream.seek(startOffset);
+      return true;
+    } catch (IOException e) {
+      LOG.warn("Could not seek to checkpointed offset:" + startOffset
+          + ", skipping " + currentLineNum + " lines instead", e);
+      startOffset = -1;
+      inStream.seek(0);
+      return false;
+    }
+  }
+
+  @Override
+  public long getCurrentOffset() {
+    return currentLineOffset;
+  }
+
+  public Message readLine()
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (closed) {
       LOG.info("Stream closed");
       return null;
@@ -292,8 +471,12 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
           LOG.info("Reading from next file: " + getCurrentFile());
         } else {
           LOG.info("Reading from same file before moving to next");
-          // open the same file
-          reOpen();
+          // open the same file, unless the open stream is known to have
+          // read all of it
+          if (!tailFollow || inStream == null
+              || checkGrowth() == FileGrowth.NEEDS_REOPEN) {
+            reOpen();
+          }
           moveToNext = true;
         }
       }
@@ -307,17 +490,70 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
   }
 
   private void waitForFlushAndReOpen()
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (!closed) {
       LOG.info("Waiting for flush");
-      Thread.sleep(waitTimeForFlush);
+      waitFor(flushWait);
       collectorMetrics.incrementWaitTimeUnitsInSameFile();
+      if ((tailFollow || flushWait.isAdaptive()) && inStream != null) {
+        FileGrowth growth = checkGrowth();
+        if (growth == FileGrowth.NONE) {
+          LOG.debug("Nothing flushed to " + getCurrentFile());
+          return;
+        } else if (growth == FileGrowth.VISIBLE) {
+          LOG.debug("Reading the flushed data without reopening");
+          return;
+        }
+      }
       reOpen();
     }
   }
 
+  /*
+   * The open stream sees the bytes available when it was opened. On HDFS,
+   * neither it nor the length in the file status, which leaves out the block
+   * being written, see the data flushed after that. A stream opened afresh
+   * gets the length of that block from the datanodes, so the file is probed
+   * with one before it is reopened.
+   */
+  private FileGrowth checkGrowth() throws IOException {
+    if (inStream.available() > 0) {
+      return FileGrowth.VISIBLE;
+    }
+    long now = System.currentTimeMillis();
+    FileGrowth growth = probeGrowth(inStream.getPos());
+    if (growth == FileGrowth.NONE) {
+      lastNoGrowthAt = now;
+    } else if (lastNoGrowthAt > 0) {
+      // the modification time of a file being written is not updated on
+      // flush, the data was flushed after the file was last seen not grown
+      updateFreshnessLag(lastNoGrowthAt);
+    }
+    return growth;
+  }
+
+  private FileGrowth probeGrowth(long pos) throws IOException {
+    FSDataInputStream probe;
+    try {
+      probe = fsOpen(getCurrentFile());
+    } catch (FileNotFoundException e) {
+      // moved out of the collector directory, reopening finds it missing
+      return FileGrowth.NEEDS_REOPEN;
+    }
+    try {
+      probe.seek(pos);
+      return probe.available() > 0 ? FileGrowth.NEEDS_REOPEN
+          : FileGrowth.NONE;
+    } catch (EOFException e) {
+      // shorter than the position read, reopening starts it over
+      return FileGrowth.NEEDS_REOPEN;
+    } finally {
+      probe.close();
+    }
+  }
+
   private void startFromNextHigherAndOpen(String fileName)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     boolean ret = startFromNextHigher(fileName);
     if (ret) {
       openCurrentFile(true);
@@ -325,7 +561,7 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
   }
 
   public boolean startFromNextHigher(String fileName)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (!setNextHigher(fileName)) {
       waitForNextFileCreation(fileName);
     }
@@ -333,7 +569,7 @@ public class CollectorStreamReader extends StreamReader<CollectorFile> {
   }
 
   private void waitForNextFileCreation(String fileName)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     while (!closed && !setNextHigher(fileName) && !hasReadFully()) {
       waitForFileCreate();
       build();
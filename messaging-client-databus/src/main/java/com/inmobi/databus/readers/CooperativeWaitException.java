@@ -0,0 +1,59 @@
+package com.inmobi.databus.readers;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Thrown by a reader with cooperative waits instead of sleeping, so that
+ * the thread running it can run other readers in the meantime. Calling the
+ * reader again after the wait time continues from where it waited. It is not
+ * an interruption, and callers must not treat it as one.
+ */
+public class CooperativeWaitException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long waitTime;
+
+  public CooperativeWaitException(long waitTime) {
+    this.waitTime = waitTime;
+  }
+
+  /*
+   * Thrown on every wait as part of the normal flow, so the message is built
+   * only when asked for and no stack trace is filled in.
+   */
+  @Override
+  public String getMessage() {
+    return "Wait for " + waitTime + " ms";
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+
+  /**
+   * Returns the time in millis after which the reader should be called again.
+   */
+  public long getWaitTime() {
+    return waitTime;
+  }
+}
@@ -20,16 +20,27 @@ package com.inmobi.databus.readers;
  * #L%
  */
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -38,12 +49,18 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.InputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextInputFormat;
 import org.apache.hadoop.util.ReflectionUtils;
 
 import com.inmobi.databus.files.FileMap;
@@ -51,21 +68,43 @@ import com.inmobi.databus.files.StreamFile;
 import com.inmobi.databus.partition.PartitionId;
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.consumer.InvalidCheckpointException;
+import com.inmobi.messaging.consumer.databus.MessagingConsumerConfig;
+import com.inmobi.messaging.consumer.databus.mapred.DatabusInputFormat;
 import com.inmobi.messaging.metrics.PartitionReaderStatsExposer;
 
 public abstract class DatabusStreamReader<T extends StreamFile>
     extends StreamReader<T> {
 
   private static final Log LOG = LogFactory.getLog(DatabusStreamReader.class);
+  // time after which a reader waiting for a prefetch checks it again
+  private static final long PREFETCH_POLL_TIME = 10;
 
   private final InputFormat<Object, Object> input;
   private final Configuration conf;
-  private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+  private final CompressionCodecFactory codecFactory;
+  // whether the input format reads lines through a LineRecordReader
+  private final boolean lineInput;
+  // reused for serializing the values
+  private final DataOutputBuffer serializeBuffer = new DataOutputBuffer();
   private FileSplit currentFileSplit;
   private RecordReader<Object, Object> recordReader;
   private Object msgKey;
   private Object msgValue;
   private boolean needsSerialize;
+  private boolean offsetKnown;
+  private long currentOffset = -1;
+  private final int prefetchDepth;
+  private final int prefetchBufferSize;
+  // files after the current one being opened ahead, in the stream order
+  private final Map<Path, Prefetch> prefetched =
+      new LinkedHashMap<Path, Prefetch>();
+  // runs the prefetches when the reader is not given the shared reader pool
+  private ExecutorService prefetcher;
+  // messages of the current file read by the prefetcher
+  private PrefetchedFile readAhead;
+
+  // listings of the stream directories kept across the builds
+  protected final StreamDirListing dirListing = new StreamDirListing();
 
   protected Date buildTimestamp;
   protected Date startTimestamp;
@@ -85,6 +124,17 @@ public abstract class DatabusStreamReader<T extends StreamFile>
       throw new IllegalArgumentException("Input format class"
           + inputFormatClass + " not found", e);
     }
+    this.codecFactory = new CompressionCodecFactory(conf);
+    this.lineInput = (input instanceof TextInputFormat)
+        || (input instanceof DatabusInputFormat);
+    this.prefetchDepth = conf.getInt(
+        MessagingConsumerConfig.prefetchDepthConfig,
+        MessagingConsumerConfig.DEFAULT_PREFETCH_DEPTH);
+    this.prefetchBufferSize = conf.getInt(
+        MessagingConsumerConfig.prefetchBufferSizeConfig,
+        MessagingConsumerConfig.DEFAULT_PREFETCH_BUFFER_SIZE);
+    setMinWaitTime(conf.getLong(MessagingConsumerConfig.minWaitTimeConfig,
+        MessagingConsumerConfig.DEFAULT_MIN_WAIT_TIME));
   }
 
   public void build(Date date) throws IOException {
@@ -92,6 +142,12 @@ public abstract class DatabusStreamReader<T extends StreamFile>
     build();
   }
 
+  @Override
+  public void build() throws IOException {
+    dirListing.newGeneration();
+    super.build();
+  }
+
   public void initializeBuildTimeStamp(Date buildTimestamp)
       throws IOException {
     this.buildTimestamp = buildTimestamp;
@@ -117,6 +173,34 @@ public abstract class DatabusStreamReader<T extends StreamFile>
     }
   }
 
+  /**
+   * Same as doRecursiveListing for a directory to which no more files are
+   * added, whose listing is then served from the cache on later builds.
+   */
+  protected void doCompleteDirListing(Path dir, PathFilter pathFilter,
+      FileMap<T> fmap) throws IOException {
+    FileStatus[] fileStatuses = dirListing.list(this, dir, pathFilter, true);
+    if (fileStatuses == null || fileStatuses.length == 0) {
+      LOG.debug("No files in directory:" + dir);
+    } else {
+      for (FileStatus file : fileStatuses) {
+        if (file.isDir()) {
+          doRecursiveListing(file.getPath(), pathFilter, fmap);
+        } else {
+          fmap.addPath(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks the existence of a stream directory from the listing of its
+   * parent.
+   */
+  protected boolean isStreamDirExists(Path dir) throws IOException {
+    return dirListing.exists(this, dir);
+  }
+
   protected boolean openCurrentFile(boolean next) throws IOException {
     closeCurrentFile();
     if (getCurrentFile() == null) {
@@ -127,11 +211,28 @@ public abstract class DatabusStreamReader<T extends StreamFile>
     }
     LOG.info("Opening file:" + getCurrentFile() + " NumLinesTobeSkipped when"
         + " opening:" + currentLineNum);
+    if (openPrefetchedFile()) {
+      prefetchNextFiles();
+      return true;
+    }
     try {
       FileStatus status = fsGetFileStatus(getCurrentFile());
       if (status != null) {
-        currentFileSplit = new FileSplit(getCurrentFile(), 0L,
-            status.getLen(), new String[0]);
+        // byte offsets are positions in the file only for uncompressed lines
+        offsetKnown = lineInput
+            && codecFactory.getCodec(getCurrentFile()) == null;
+        long start = 0L;
+        if (offsetKnown && startOffset > 0
+            && startOffset <= status.getLen()) {
+          // LineRecordReader skips the partial line before the split start,
+          // which is none when the split starts right after a line feed.
+          LOG.info("Seeking to checkpointed offset:" + startOffset
+              + " for lineNum:" + currentLineNum);
+          start = startOffset;
+        }
+        startOffset = -1;
+        currentFileSplit = new FileSplit(getCurrentFile(), start,
+            status.getLen() - start, new String[0]);
         recordReader = input.getRecordReader(currentFileSplit, new JobConf(conf),
             Reporter.NULL);
         metrics.incrementNumberRecordReaders();
@@ -143,35 +244,285 @@ public abstract class DatabusStreamReader<T extends StreamFile>
           assert (msgValue instanceof Message);
           needsSerialize = false;
         }
-        skipLines(currentLineNum);
+        currentOffset = start;
+        if (start == 0) {
+          skipLines(currentLineNum);
+        }
       } else {
         LOG.info("CurrentFile:" + getCurrentFile() + " does not exist");
       }
     } catch (FileNotFoundException fnfe) {
       LOG.info("CurrentFile:" + getCurrentFile() + " does not exist");
     }
+    prefetchNextFiles();
     return true;
   }
 
+  /*
+   * With cooperative waits, waits for the prefetch of the next file before
+   * moving to it, polling it instead of blocking the pool thread.
+   */
+  @Override
+  protected boolean nextFile()
+      throws IOException, InterruptedException, CooperativeWaitException {
+    if (hasCooperativeWaits() && !prefetched.isEmpty()) {
+      Prefetch next = prefetched.values().iterator().next();
+      if (!next.future.isDone()) {
+        throw new CooperativeWaitException(PREFETCH_POLL_TIME);
+      }
+    }
+    return super.nextFile();
+  }
+
+  /*
+   * Takes over the record reader and the messages read ahead for the current
+   * file, if it was prefetched. Returns false if the file has to be opened.
+   */
+  private boolean openPrefetchedFile() throws IOException {
+    Prefetch prefetch = prefetched.remove(getCurrentFile());
+    if (prefetch == null) {
+      return false;
+    }
+    if (hasCooperativeWaits() && !prefetch.future.isDone()) {
+      // opening the file is cheaper than holding a pool thread for it
+      prefetch.drop();
+      return false;
+    }
+    PrefetchedFile file;
+    try {
+      file = prefetch.future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      prefetch.drop();
+      return false;
+    } catch (ExecutionException e) {
+      LOG.info("Could not prefetch " + getCurrentFile(), e.getCause());
+      return false;
+    }
+    if (startOffset > 0) {
+      // seeking to the offset is cheaper than skipping the lines
+      file.close();
+      return false;
+    }
+    LOG.info("Using prefetched file:" + getCurrentFile() + " with "
+        + file.messages.size() + " messages read ahead");
+    offsetKnown = lineInput && codecFactory.getCodec(getCurrentFile()) == null;
+    startOffset = -1;
+    currentFileSplit = file.split;
+    recordReader = file.reader;
+    msgKey = recordReader.createKey();
+    msgValue = recordReader.createValue();
+    needsSerialize = msgValue instanceof Writable;
+    currentOffset = 0;
+    readAhead = file;
+    skipLines(currentLineNum);
+    return true;
+  }
+
+  /*
+   * Starts opening the files following the current file, up to the prefetch
+   * depth, and drops the prefetched files which are not among them.
+   */
+  private void prefetchNextFiles() throws IOException {
+    if (prefetchDepth <= 0 || closed) {
+      return;
+    }
+    Set<Path> nextFiles = new HashSet<Path>();
+    FileStatus file = currentFile;
+    while (file != null && nextFiles.size() < prefetchDepth) {
+      file = getHigherValue(file);
+      if (file != null) {
+        nextFiles.add(file.getPath());
+        if (!prefetched.containsKey(file.getPath())) {
+          Prefetch prefetch = new Prefetch(file.getPath());
+          prefetch.future = getPrefetcher().submit(prefetch);
+          prefetched.put(file.getPath(), prefetch);
+        }
+      }
+    }
+    Iterator<Map.Entry<Path, Prefetch>> it = prefetched.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Path, Prefetch> entry = it.next();
+      if (!nextFiles.contains(entry.getKey())) {
+        entry.getValue().drop();
+        it.remove();
+      }
+    }
+  }
+
+  private ExecutorService getPrefetcher() {
+    ExecutorService readerPool = getReaderPool();
+    if (readerPool != null) {
+      return readerPool;
+    }
+    if (prefetcher == null) {
+      final String name = "Prefetcher-" + streamDir.getName();
+      prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, name);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return prefetcher;
+  }
+
+  private void stopPrefetching() {
+    for (Prefetch prefetch : prefetched.values()) {
+      prefetch.drop();
+    }
+    prefetched.clear();
+    if (prefetcher != null) {
+      prefetcher.shutdown();
+      prefetcher = null;
+    }
+  }
+
+  @Override
+  public void closeStream() throws IOException {
+    super.closeStream();
+    stopPrefetching();
+  }
+
+  private static class PrefetchedFile {
+    private final FileSplit split;
+    private final RecordReader<Object, Object> reader;
+    private final List<Message> messages = new ArrayList<Message>();
+    private final List<Long> positions = new ArrayList<Long>();
+    private int next = 0;
+
+    PrefetchedFile(FileSplit split, RecordReader<Object, Object> reader) {
+      this.split = split;
+      this.reader = reader;
+    }
+
+    void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  /*
+   * Opens a file and reads its first messages. Runs on the prefetcher thread
+   * or the reader pool and touches only the file system, not the state of
+   * the reader.
+   */
+  private class Prefetch implements Callable<PrefetchedFile> {
+    private final Path path;
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    private Future<PrefetchedFile> future;
+    // the file is closed by whichever of drop and call comes last
+    private boolean dropped = false;
+    private PrefetchedFile file;
+
+    Prefetch(Path path) {
+      this.path = path;
+    }
+
+    /*
+     * Closes the prefetched file without waiting for the prefetch to finish.
+     */
+    void drop() {
+      PrefetchedFile toClose;
+      synchronized (this) {
+        dropped = true;
+        toClose = file;
+        file = null;
+      }
+      future.cancel(false);
+      if (toClose != null) {
+        try {
+          toClose.close();
+        } catch (IOException e) {
+          LOG.debug("Could not close prefetched file " + path, e);
+        }
+      }
+    }
+
+    @Override
+    public PrefetchedFile call() throws IOException {
+      FileStatus status = fsGetFileStatus(path);
+      FileSplit split = new FileSplit(path, 0, status.getLen(), new String[0]);
+      PrefetchedFile file = new PrefetchedFile(split, input.getRecordReader(
+          split, new JobConf(conf), Reporter.NULL));
+      metrics.incrementNumberRecordReaders();
+      metrics.incrementPrefetchedFiles();
+      try {
+        Object key = file.reader.createKey();
+        Object value = file.reader.createValue();
+        while (file.messages.size() < prefetchBufferSize) {
+          if (!(value instanceof Writable)) {
+            // messages are handed out as they are, so they can not be reused
+            value = file.reader.createValue();
+          }
+          if (!file.reader.next(key, value)) {
+            break;
+          }
+          file.messages.add(value instanceof Writable
+              ? serialize(value, buffer) : (Message) value);
+          file.positions.add(file.reader.getPos());
+        }
+      } catch (IOException e) {
+        closeFailed(file);
+        throw e;
+      } catch (RuntimeException e) {
+        closeFailed(file);
+        throw e;
+      }
+      synchronized (this) {
+        if (!dropped) {
+          this.file = file;
+          return file;
+        }
+      }
+      file.close();
+      return null;
+    }
+
+    /*
+     * Closes a file the prefetch failed to read, keeping the failure of the
+     * read as the one reported.
+     */
+    private void closeFailed(PrefetchedFile file) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        LOG.debug("Could not close prefetched file " + path, e);
+      }
+    }
+  }
+
   protected synchronized void closeCurrentFile() throws IOException {
     if (recordReader != null) {
       recordReader.close();
       recordReader = null;
     }
     currentFileSplit = null;
+    readAhead = null;
   }
 
   protected Message readRawLine() throws IOException {
+    if (readAhead != null) {
+      if (readAhead.next < readAhead.messages.size()) {
+        if (offsetKnown) {
+          currentOffset = readAhead.positions.get(readAhead.next);
+        }
+        return readAhead.messages.get(readAhead.next++);
+      }
+      readAhead = null;
+    }
     if (recordReader != null) {
       if (!needsSerialize) {
         msgValue = recordReader.createValue();
       }
       boolean ret = recordReader.next(msgKey, msgValue);
       if (ret) {
+        if (offsetKnown) {
+          currentOffset = recordReader.getPos();
+        }
         if (needsSerialize) {
-          baos.reset();
-          ((Writable) msgValue).write(new DataOutputStream(baos));
-          return new Message(baos.toByteArray());
+          return serialize(msgValue, serializeBuffer);
         } else {
           return ((Message) msgValue);
         }
@@ -180,22 +531,70 @@ public abstract class DatabusStreamReader<T extends StreamFile>
     return null;
   }
 
+  /**
+   * Returns a message with the bytes written by the write method of the
+   * value. Text and BytesWritable values are copied from their backing
+   * array straight into the message; other values go through the passed
+   * buffer.
+   */
+  static Message serialize(Object value, DataOutputBuffer buffer)
+      throws IOException {
+    buffer.reset();
+    byte[] payload = null;
+    int payloadLength = 0;
+    if (value instanceof Text) {
+      Text text = (Text) value;
+      payload = text.getBytes();
+      payloadLength = text.getLength();
+      WritableUtils.writeVInt(buffer, payloadLength);
+    } else if (value instanceof BytesWritable) {
+      BytesWritable bytes = (BytesWritable) value;
+      payload = bytes.getBytes();
+      payloadLength = bytes.getLength();
+      buffer.writeInt(payloadLength);
+    } else {
+      ((Writable) value).write(buffer);
+    }
+    int headerLength = buffer.getLength();
+    byte[] data = new byte[headerLength + payloadLength];
+    System.arraycopy(buffer.getData(), 0, data, 0, headerLength);
+    if (payload != null) {
+      System.arraycopy(payload, 0, data, headerLength, payloadLength);
+    }
+    return new Message(data);
+  }
+
+  @Override
+  public long getCurrentOffset() {
+    if (offsetKnown) {
+      return currentOffset;
+    }
+    return -1;
+  }
+
+  @Override
+  protected void resetCurrentFileSettings() {
+    super.resetCurrentFileSettings();
+    offsetKnown = false;
+    currentOffset = -1;
+  }
+
   protected boolean setNextHigherAndOpen(FileStatus currentFile)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     LOG.debug("finding next higher for " + getCurrentFile());
     FileStatus nextHigherFile  = getHigherValue(currentFile);
     return setNextAndOpen(currentFile, nextHigherFile);
   }
 
   protected boolean setNextHigherAndOpen(T file)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     LOG.debug("finding next higher for " + file);
     FileStatus nextHigherFile  = getHigherValue(file);
     return setNextAndOpen(null, nextHigherFile);
   }
 
   private boolean setNextAndOpen(FileStatus currentFile, FileStatus nextHigherFile)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     boolean next = true;
     if (nextHigherFile != null) {
       next = prepareMoveToNext(currentFile, nextHigherFile);
@@ -264,7 +663,7 @@ public abstract class DatabusStreamReader<T extends StreamFile>
     current.setTime(buildTimestamp);
     while (current.getTime().before(now)) {
       Path hhDir =  getHourDirPath(streamDir, current.getTime());
-      if (fsIsPathExists(hhDir)) {
+      if (isStreamDirExists(hhDir)) {
         startHour = current.get(Calendar.HOUR_OF_DAY);;
         break;
       } else {
@@ -162,11 +162,12 @@ public class DatabusStreamWaitingReader
       if (partitionMinList.contains(Integer.valueOf(min))
           && !isRead(currenTimestamp, min)) {
         Path dir = getMinuteDirPath(streamDir, currenTimestamp);
-        if (fsIsPathExists(dir)) {
+        if (isStreamDirExists(dir)) {
           Path nextMinDir = getMinuteDirPath(streamDir, current.getTime());
-          if (fsIsPathExists(nextMinDir)) {
+          if (isStreamDirExists(nextMinDir)) {
             int numFilesInFileMap = fmap.getSize();
-            doRecursiveListing(dir, pathFilter, fmap);
+            // the minute is complete once the next minute directory exists
+            doCompleteDirListing(dir, pathFilter, fmap);
             if (numFilesInFileMap != 0 &&
                 numFilesInFileMap != fmap.getSize()) {
               // stopping after listing two non empty directories
@@ -224,7 +225,7 @@ public class DatabusStreamWaitingReader
    */
   @Override
   public boolean prepareMoveToNext(FileStatus currentFile, FileStatus nextFile)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     Calendar next = Calendar.getInstance();
     Date nextFileTimeStamp = getDateFromStreamDir(streamDir,
         nextFile.getPath().getParent());
@@ -252,7 +253,7 @@ public class DatabusStreamWaitingReader
   }
 
   private boolean moveToCheckpoint(FileStatus fileToRead)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     boolean ret = false;
     CheckpointInfo cpi = pChkpoints.get(currentMin);
     if (!cpi.processed) {
@@ -267,6 +268,7 @@ public class DatabusStreamWaitingReader
           if (fsIsPathExists(checkPointedFileName)) {
             fileToRead = fsGetFileStatus(checkPointedFileName);
             currentLineNum = partitionCheckpoint.getLineNum();
+            startOffset = partitionCheckpoint.getOffset();
           } else {
             LOG.info("Checkpointed file " + partitionCheckpoint.getFileName()
                 + " does not exist");
@@ -276,6 +278,7 @@ public class DatabusStreamWaitingReader
           }
         } else {
           currentLineNum = partitionCheckpoint.getLineNum();
+          startOffset = partitionCheckpoint.getOffset();
         }
         ret = true;
       }
@@ -325,14 +328,14 @@ public class DatabusStreamWaitingReader
   }
 
   protected void startFromNextHigher(HadoopStreamFile file)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (!setNextHigherAndOpen(file)) {
       waitForNextFileCreation(file);
     }
   }
 
   private void waitForNextFileCreation(HadoopStreamFile file)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     while (!closed && !setNextHigherAndOpen(file) && !hasReadFully()) {
       waitForFileCreate();
       build();
@@ -340,14 +343,14 @@ public class DatabusStreamWaitingReader
   }
 
   protected void startFromNextHigher(FileStatus file)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (!setNextHigherAndOpen(file)) {
       waitForNextFileCreation(file);
     }
   }
 
   private void waitForNextFileCreation(FileStatus file)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     while (!closed && !setNextHigherAndOpen(file) && !hasReadFully()) {
       waitForFileCreate();
       build();
@@ -355,7 +358,8 @@ public class DatabusStreamWaitingReader
   }
 
   @Override
-  public Message readLine() throws IOException, InterruptedException {
+  public Message readLine()
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (closed) {
       LOG.info("Stream closed");
       return null;
@@ -493,6 +497,21 @@ public class DatabusStreamWaitingReader
     return 0;
   }
 
+  @Override
+  protected long getOffsetForFirstFile(FileStatus firstFile) {
+    int minute = getMinuteFromFile(firstFile);
+    PartitionCheckpoint partitionChkPoint = pChkpoints.get(
+        Integer.valueOf(minute)).pck;
+    if (partitionChkPoint != null) {
+      Path checkPointedFileName = new Path(streamDir, partitionChkPoint.
+          getFileName());
+      if (checkPointedFileName.equals(firstFile.getPath())) {
+        return partitionChkPoint.getOffset();
+      }
+    }
+    return -1;
+  }
+
   private int getMinuteFromFile(FileStatus firstFile) {
     Date currentTimeStamp = getDateFromStreamDir(streamDir, firstFile.
         getPath().getParent());
@@ -533,7 +552,8 @@ public class DatabusStreamWaitingReader
     return fullPartitionChkMap;
   }
 
-  public void startFromCheckPoint() throws IOException, InterruptedException {
+  public void startFromCheckPoint()
+      throws IOException, InterruptedException, CooperativeWaitException {
     initCurrentFile();
     moveToCheckpoint(getFirstFileInStream());
     if (currentFile != null) {
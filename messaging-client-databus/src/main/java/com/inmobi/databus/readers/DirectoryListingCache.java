@@ -0,0 +1,165 @@
+package com.inmobi.databus.readers;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+/**
+ * Directory listings shared by the stream readers of a consumer.
+ *
+ * A listing is kept for a time to live, during which the readers listing the
+ * same directory get it without going to the file system. Readers which ask
+ * for a directory while it is being listed wait for that listing instead of
+ * issuing their own, except the readers with cooperative waits, which list
+ * it themselves rather than hold a thread of the shared reader pool. Listings
+ * are kept unfiltered, so that readers with different path filters share
+ * them.
+ */
+public class DirectoryListingCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+  private final long ttl;
+  private final Map<Path, Entry> entries;
+
+  private static class Entry {
+    // null if the directory did not exist
+    FileStatus[] statuses;
+    volatile long listedAt;
+    // set after the listing, checked without waiting for a listing in flight
+    volatile boolean loaded = false;
+    // whether a reader is listing the directory
+    volatile boolean listing = false;
+  }
+
+  /**
+   * @param ttl time in milliseconds for which a listing is reused
+   * @param maxEntries number of directories whose listings are kept
+   */
+  public DirectoryListingCache(long ttl, final int maxEntries) {
+    this.ttl = ttl;
+    this.entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  public DirectoryListingCache(long ttl) {
+    this(ttl, DEFAULT_MAX_ENTRIES);
+  }
+
+  public long getTtl() {
+    return ttl;
+  }
+
+  FileStatus[] list(StreamReader<?> reader, Path dir, PathFilter pathFilter)
+      throws IOException {
+    Entry entry;
+    boolean lister = false;
+    long now = System.currentTimeMillis();
+    synchronized (entries) {
+      entry = entries.get(dir);
+      if (entry == null || isExpired(entry, now)) {
+        entry = new Entry();
+        entries.put(dir, entry);
+      }
+      if (!entry.loaded && !entry.listing) {
+        entry.listing = true;
+        lister = true;
+      }
+    }
+    if (lister) {
+      return filter(load(reader, dir, entry), pathFilter);
+    }
+    if (!entry.loaded
+        && (reader.hasCooperativeWaits() || !awaitListing(entry))) {
+      return reader.fsListFileStatusUncached(dir, pathFilter);
+    }
+    reader.metrics.incrementSavedFsOps();
+    return filter(entry.statuses, pathFilter);
+  }
+
+  private FileStatus[] load(StreamReader<?> reader, Path dir, Entry entry)
+      throws IOException {
+    boolean listed = false;
+    try {
+      entry.statuses = reader.fsListAllFileStatus(dir);
+      entry.listedAt = System.currentTimeMillis();
+      listed = true;
+    } finally {
+      synchronized (entry) {
+        // a failed listing is retried by the next reader
+        entry.loaded = listed;
+        entry.listing = false;
+        entry.notifyAll();
+      }
+    }
+    return entry.statuses;
+  }
+
+  /*
+   * Waits for the listing in flight. Returns false if it failed or the wait
+   * was interrupted.
+   */
+  private boolean awaitListing(Entry entry) {
+    synchronized (entry) {
+      while (entry.listing) {
+        try {
+          entry.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return entry.loaded;
+    }
+  }
+
+  private boolean isExpired(Entry entry, long now) {
+    return entry.loaded && now - entry.listedAt >= ttl;
+  }
+
+  private static FileStatus[] filter(FileStatus[] statuses,
+      PathFilter pathFilter) {
+    if (statuses == null || pathFilter == null) {
+      return statuses;
+    }
+    List<FileStatus> accepted = new ArrayList<FileStatus>(statuses.length);
+    for (FileStatus status : statuses) {
+      if (pathFilter.accept(status.getPath())) {
+        accepted.add(status);
+      }
+    }
+    return accepted.toArray(new FileStatus[accepted.size()]);
+  }
+}
@@ -156,7 +156,8 @@ public class LocalStreamCollectorReader extends
     };
   }
 
-  public Message readLine() throws IOException, InterruptedException {
+  public Message readLine()
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (closed) {
       LOG.info("Stream closed");
       return null;
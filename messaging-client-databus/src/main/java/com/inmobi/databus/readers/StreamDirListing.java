@@ -0,0 +1,130 @@
+package com.inmobi.databus.readers;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+/**
+ * Keeps the directory listings of a stream across the builds of a reader.
+ *
+ * The existence of a directory is derived from the listing of its parent, so
+ * that walking the minute directories of an hour costs one listStatus of the
+ * hour instead of an exists call per minute. A directory found in a cached
+ * listing is taken to exist; a directory missing from it is looked up again
+ * unless the listing was taken during the current build, because new
+ * directories keep being added to the latest hour.
+ *
+ * The files of a directory are cached only once the caller knows that no more
+ * files are added to it. All the listings of one cache are expected to be
+ * done with the same path filter.
+ */
+class StreamDirListing {
+
+  static final int MAX_CACHED_DIRS = 128;
+
+  private final Map<Path, Listing> children =
+      new LruMap<Path, Listing>(MAX_CACHED_DIRS);
+  private final Map<Path, FileStatus[]> files =
+      new LruMap<Path, FileStatus[]>(MAX_CACHED_DIRS);
+  private long generation = 0;
+
+  private static class Listing {
+    final Set<String> names = new HashSet<String>();
+    final long generation;
+
+    Listing(FileStatus[] statuses, long generation) {
+      for (FileStatus status : statuses) {
+        names.add(status.getPath().getName());
+      }
+      this.generation = generation;
+    }
+  }
+
+  private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+    private static final long serialVersionUID = 1L;
+    private final int maxEntries;
+
+    LruMap(int maxEntries) {
+      super(16, 0.75f, true);
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > maxEntries;
+    }
+  }
+
+  /**
+   * Starts a new build; listings taken before it are no longer trusted for
+   * the directories missing from them.
+   */
+  synchronized void newGeneration() {
+    generation++;
+  }
+
+  synchronized boolean exists(StreamReader<?> reader, Path dir)
+      throws IOException {
+    Path parent = dir.getParent();
+    Listing listing = children.get(parent);
+    if (listing != null && (listing.names.contains(dir.getName())
+        || listing.generation == generation)) {
+      reader.metrics.incrementSavedFsOps();
+      return listing.names.contains(dir.getName());
+    }
+    FileStatus[] statuses = reader.fsListFileStatus(parent, null);
+    if (statuses == null) {
+      // parent itself does not exist yet, none of its children exist either
+      statuses = new FileStatus[0];
+    }
+    listing = new Listing(statuses, generation);
+    children.put(parent, listing);
+    return listing.names.contains(dir.getName());
+  }
+
+  /**
+   * Lists the given directory, answering from the cache if it was listed
+   * before with complete set to true.
+   *
+   * @param complete whether no more files can be added to the directory
+   */
+  synchronized FileStatus[] list(StreamReader<?> reader, Path dir,
+      PathFilter pathFilter, boolean complete) throws IOException {
+    FileStatus[] statuses = files.get(dir);
+    if (statuses != null) {
+      reader.metrics.incrementSavedFsOps();
+      return statuses;
+    }
+    statuses = reader.fsListFileStatus(dir, pathFilter);
+    if (complete && statuses != null) {
+      files.put(dir, statuses);
+    }
+    return statuses;
+  }
+}
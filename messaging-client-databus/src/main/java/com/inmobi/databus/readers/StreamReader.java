@@ -24,6 +24,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -59,6 +60,20 @@ public abstract class StreamReader<T extends StreamFile> {
   protected boolean noNewFiles = false; // this is purely for tests
   protected FileStatus currentFile;
   protected long currentLineNum = 0;
+  // byte offset of currentLineNum to seek to when opening the current file,
+  // -1 if the reader has to skip the lines instead
+  protected long startOffset = -1;
+  private FileStatus streamFileStatus;
+  private T currentStreamFile;
+  private volatile DirectoryListingCache listingCache;
+  private AdaptiveWait createWait;
+  // whether the reader waited for a file since it last read a line
+  private boolean waitedForFile = false;
+  private volatile boolean cooperativeWaits = false;
+  // time until which the reader waits cooperatively, 0 if it is not waiting
+  private long waitDeadline = 0;
+  // pool shared with the other readers for background tasks, if any
+  private volatile ExecutorService readerPool;
 
   protected StreamReader(PartitionId partitionId, FileSystem fs,
       Path streamDir, long waitTimeForCreate,
@@ -71,10 +86,67 @@ public abstract class StreamReader<T extends StreamFile> {
     this.noNewFiles = noNewFiles;
     this.stopTime = stopTime;
     this.fileMap = createFileMap();
+    this.createWait = new AdaptiveWait(0, waitTimeForCreate);
+  }
+
+  /**
+   * Makes the waits for new files start at the given time and back off up to
+   * the wait time for file creation.
+   */
+  protected void setMinWaitTime(long minWaitTime) {
+    createWait = new AdaptiveWait(minWaitTime, waitTimeForCreate);
+  }
+
+  /**
+   * Makes the reader throw {@link CooperativeWaitException} instead of
+   * sleeping when it has to wait for data.
+   */
+  public void setCooperativeWaits(boolean cooperativeWaits) {
+    this.cooperativeWaits = cooperativeWaits;
+  }
+
+  boolean hasCooperativeWaits() {
+    return cooperativeWaits;
+  }
+
+  /**
+   * Makes the reader run its background tasks on the given pool, shared with
+   * the other readers, instead of on threads of its own.
+   */
+  public void setReaderPool(ExecutorService readerPool) {
+    this.readerPool = readerPool;
+  }
+
+  protected ExecutorService getReaderPool() {
+    return readerPool;
+  }
+
+  /**
+   * Waits for the next time of the given wait. With cooperative waits, the
+   * first call throws {@link CooperativeWaitException} and the call made
+   * again after the wait time returns.
+   */
+  protected void waitFor(AdaptiveWait wait) throws InterruptedException,
+      CooperativeWaitException {
+    if (!cooperativeWaits) {
+      Thread.sleep(wait.next());
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (waitDeadline == 0) {
+      long waitTime = wait.next();
+      waitDeadline = now + waitTime;
+      throw new CooperativeWaitException(waitTime);
+    }
+    if (now >= waitDeadline) {
+      waitDeadline = 0;
+      return;
+    }
+    throw new CooperativeWaitException(waitDeadline - now);
   }
 
   public boolean prepareMoveToNext(FileStatus currentFile, FileStatus nextFile)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     this.currentFile = nextFile;
     return true;
   }
@@ -99,6 +171,10 @@ public abstract class StreamReader<T extends StreamFile> {
     fileMap.build();
   }
 
+  protected void buildIncremental() throws IOException {
+    fileMap.buildIncremental();
+  }
+
   protected boolean setIterator() {
     return fileMap.setIterator(currentFile);
   }
@@ -134,8 +210,9 @@ public abstract class StreamReader<T extends StreamFile> {
     currentFile = fileMap.getValue(checkpoint.getStreamFile());
     if (currentFile != null) {
       currentLineNum = checkpoint.getLineNum();
+      startOffset = checkpoint.getOffset();
       LOG.debug("CurrentFile:" + getCurrentFile() + " currentLineNum:"
-          + currentLineNum);
+          + currentLineNum + " startOffset:" + startOffset);
       setIterator();
     }
     return currentFile != null;
@@ -147,6 +224,7 @@ public abstract class StreamReader<T extends StreamFile> {
 
     if (currentFile != null) {
       currentLineNum = getLineNumberForFirstFile(currentFile);
+      startOffset = getOffsetForFirstFile(currentFile);
       LOG.debug("CurrentFile:" + getCurrentFile() + " currentLineNum:"
           + currentLineNum);
       setIterator();
@@ -158,6 +236,10 @@ public abstract class StreamReader<T extends StreamFile> {
     return 0;
   }
 
+  protected long getOffsetForFirstFile(FileStatus currentFile) {
+    return -1;
+  }
+
   protected void resetCurrentFile() {
     currentFile = null;
     resetCurrentFileSettings();
@@ -208,16 +290,31 @@ public abstract class StreamReader<T extends StreamFile> {
   }
 
   public T getCurrentStreamFile() {
-    if (currentFile == null) {
+    FileStatus file = currentFile;
+    if (file == null) {
       return null;
     }
-    return getStreamFile(currentFile);
+    // resolved once per file, so that the checkpoints of its messages share it
+    if (file != streamFileStatus) {
+      currentStreamFile = getStreamFile(file);
+      streamFileStatus = file;
+    }
+    return currentStreamFile;
   }
 
   public long getCurrentLineNum() {
     return currentLineNum;
   }
 
+  /**
+   * Returns the byte offset in the current file at which the line
+   * {@link #getCurrentLineNum()} starts, or -1 if the reader can not seek
+   * to it.
+   */
+  public long getCurrentOffset() {
+    return -1;
+  }
+
   protected abstract T getStreamFile(Date timestamp);
 
   protected abstract T getStreamFile(FileStatus status);
@@ -225,7 +322,8 @@ public abstract class StreamReader<T extends StreamFile> {
   /**
    * Returns null when reached end of stream
    */
-  public abstract Message readLine() throws IOException, InterruptedException;
+  public abstract Message readLine()
+      throws IOException, InterruptedException, CooperativeWaitException;
 
   protected abstract Message readRawLine() throws IOException;
 
@@ -266,6 +364,12 @@ public abstract class StreamReader<T extends StreamFile> {
       currentLineNum++;
       metrics.incrementMessagesReadFromSource();
       metrics.addCumulativeNanosFetchMessage(end - start);
+      createWait.reset();
+      waitDeadline = 0;
+      if (waitedForFile) {
+        waitedForFile = false;
+        updateFreshnessLag(currentFile.getModificationTime());
+      }
     }
     return line;
   }
@@ -273,9 +377,11 @@ public abstract class StreamReader<T extends StreamFile> {
 
   protected void resetCurrentFileSettings() {
     currentLineNum = 0;
+    startOffset = -1;
   }
 
-  protected boolean nextFile() throws IOException, InterruptedException {
+  protected boolean nextFile()
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (hasNextFile()) {
       setNextFile();
       return true;
@@ -283,7 +389,8 @@ public abstract class StreamReader<T extends StreamFile> {
     return false;
   }
 
-  protected void setNextFile() throws IOException, InterruptedException {
+  protected void setNextFile()
+      throws IOException, InterruptedException, CooperativeWaitException {
     FileStatus nextFile = fileMap.getNext();
     if (nextFile != null) {
       boolean next = prepareMoveToNext(currentFile, nextFile);
@@ -310,6 +417,7 @@ public abstract class StreamReader<T extends StreamFile> {
       currentFile = fileMap.getValue(streamFileName);
       setIterator();
       this.currentLineNum = currentLineNum;
+      this.startOffset = -1;
       LOG.info("Set current file:" + getCurrentFile()
           + "currentLineNum:" + currentLineNum);
       return true;
@@ -321,27 +429,30 @@ public abstract class StreamReader<T extends StreamFile> {
   }
 
   public void startFromTimestmp(Date timestamp)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (!initializeCurrentFile(timestamp)) {
       waitForNextFileCreation(timestamp);
     }
   }
 
-  public void startFromBegining() throws IOException, InterruptedException {
+  public void startFromBegining()
+      throws IOException, InterruptedException, CooperativeWaitException {
     if (!initFromStart()) {
       waitForNextFileCreation();
     }
   }
 
-  protected void waitForFileCreate() throws InterruptedException {
+  protected void waitForFileCreate()
+      throws InterruptedException, CooperativeWaitException {
     LOG.info("Waiting for next file creation");
-    Thread.sleep(waitTimeForCreate);
+    waitFor(createWait);
+    waitedForFile = true;
     metrics.incrementWaitTimeUnitsNewFile();
     metrics.setLastWaitTimeForNewFile(System.currentTimeMillis());
   }
 
   private void waitForNextFileCreation() throws IOException,
-  InterruptedException {
+  InterruptedException, CooperativeWaitException {
     while (!closed && !initFromStart() && !hasReadFully()) {
       waitForFileCreate();
       build();
@@ -349,7 +460,7 @@ public abstract class StreamReader<T extends StreamFile> {
   }
 
   private void waitForNextFileCreation(Date timestamp)
-      throws IOException, InterruptedException {
+      throws IOException, InterruptedException, CooperativeWaitException {
     while (!closed && !initializeCurrentFile(timestamp) && !hasReadFully()) {
       waitForFileCreate();
       build();
@@ -416,8 +527,32 @@ public abstract class StreamReader<T extends StreamFile> {
     return false;
   }
 
+  /**
+   * Shares the directory listings of this reader with the other readers of
+   * the consumer.
+   */
+  public void setListingCache(DirectoryListingCache listingCache) {
+    this.listingCache = listingCache;
+  }
+
   protected FileStatus[] fsListFileStatus(Path baseDir, PathFilter pathFilter)
       throws IOException {
+    DirectoryListingCache cache = listingCache;
+    if (cache != null) {
+      return cache.list(this, fs.makeQualified(baseDir), pathFilter);
+    }
+    return fsListFileStatusUncached(baseDir, pathFilter);
+  }
+
+  FileStatus[] fsListAllFileStatus(Path baseDir) throws IOException {
+    return fsListFileStatusUncached(baseDir, null);
+  }
+
+  /**
+   * Lists the directory on the file system even if the listings are shared.
+   */
+  protected FileStatus[] fsListFileStatusUncached(Path baseDir,
+      PathFilter pathFilter) throws IOException {
     FileStatus[] fileStatusList = null;
     try {
         if (pathFilter != null) {
@@ -458,6 +593,15 @@ public abstract class StreamReader<T extends StreamFile> {
     return false;
   }
 
+  /**
+   * Records the time for which data written at the given time waited to be
+   * read.
+   */
+  protected void updateFreshnessLag(long modificationTime) {
+    metrics.setFreshnessLag(
+        Math.max(0, System.currentTimeMillis() - modificationTime));
+  }
+
   protected void setLatestMinuteAlreadyRead(Date currentMinBeingRead) {
     metrics.setLatestMinuteAlreadyRead(currentMinBeingRead);
   }
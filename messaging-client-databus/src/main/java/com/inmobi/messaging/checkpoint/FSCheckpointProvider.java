@@ -21,8 +21,11 @@ package com.inmobi.messaging.checkpoint;
  */
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,12 +33,19 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
 
 /**
- * Stores the Checkpoint in the filesystem
+ * Stores the Checkpoint in the filesystem. A checkpoint is written to a .ck.new
+ * file, followed by a trailer holding its checksum and length, and then
+ * renamed over the .ck file. Files written without the trailer are read as
+ * is.
  */
 public class FSCheckpointProvider implements CheckpointProvider {
   private static final Log LOG = LogFactory.getLog(FSCheckpointProvider.class);
+  // checksum, length and magic of the checkpoint, written after it
+  static final int TRAILER_LENGTH = 16;
+  private static final int TRAILER_MAGIC = 0x434b5054;
 
   private final FileSystem fs;
   private final Path baseDir;
@@ -57,41 +67,87 @@ public class FSCheckpointProvider implements CheckpointProvider {
   @Override
   public byte[] read(String key) {
     Path currentCheckpoint = getCheckpointPath(key);
-    BufferedInputStream in=null;
-    byte[] buffer = null;
     try {
       LOG.info("checkpoint path:" + currentCheckpoint);
       if (!fs.exists(currentCheckpoint)) {
-        LOG.info("No checkpoint to read");
-        return null;
-      }
-      in = new BufferedInputStream(
-      fs.open(currentCheckpoint));
-      ArrayList<Byte> tempList = new ArrayList<Byte>();
-      int next = in.read();
-      while(next!=-1){
-        tempList.add((byte)next);
-        next = in.read();
-      }
-      Byte[] bytes = tempList.toArray(new Byte[tempList.size()]);
-      buffer = new byte[tempList.size()];
-      for (int i = 0; i < buffer.length; i++) {
-        buffer[i] = bytes[i].byteValue();
+        // the new checkpoint is the latest one once the current one is
+        // deleted, so a failure before the rename leaves it to be recovered,
+        // if it was completely written
+        Path newCheckpoint = getNewCheckpointPath(key);
+        if (!fs.exists(newCheckpoint)) {
+          LOG.info("No checkpoint to read");
+          return null;
+        }
+        byte[] checkpoint = removeTrailer(readFile(newCheckpoint));
+        if (checkpoint == null) {
+          LOG.warn("Deleting incomplete checkpoint [" + newCheckpoint + "]");
+          fs.delete(newCheckpoint, true);
+          return null;
+        }
+        LOG.info("Recovering checkpoint from [" + newCheckpoint + "]");
+        if (!fs.rename(newCheckpoint, currentCheckpoint)) {
+          throw new IOException("Could not rename [" + newCheckpoint
+              + "] to [" + currentCheckpoint + "]");
+        }
+        return checkpoint;
       }
+      byte[] buffer = readFile(currentCheckpoint);
+      byte[] checkpoint = removeTrailer(buffer);
+      return checkpoint != null ? checkpoint : buffer;
     } catch (IOException e) {
       LOG.warn("Could not read checkpoint ", e);
       throw new RuntimeException(e);
     }
-    finally {
+  }
+
+  private byte[] readFile(Path path) throws IOException {
+    BufferedInputStream in = null;
+    try {
+      in = new BufferedInputStream(fs.open(path));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      IOUtils.copyBytes(in, out, 4096, false);
+      return out.toByteArray();
+    } finally {
       try {
         if (in != null)
           in.close();
       } catch(IOException e) {
-        LOG.error("Error in closing [" + currentCheckpoint + "]");
+        LOG.error("Error in closing [" + path + "]");
         throw new RuntimeException(e);
       }
     }
-    return buffer;
+  }
+
+  static byte[] getTrailer(byte[] checkpoint) {
+    CRC32 crc = new CRC32();
+    crc.update(checkpoint);
+    ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+    trailer.putLong(crc.getValue());
+    trailer.putInt(checkpoint.length);
+    trailer.putInt(TRAILER_MAGIC);
+    return trailer.array();
+  }
+
+  /**
+   * @return the checkpoint without the trailer, or null if the buffer does
+   *         not end with the trailer of the checkpoint before it
+   */
+  static byte[] removeTrailer(byte[] buffer) {
+    if (buffer.length < TRAILER_LENGTH) {
+      return null;
+    }
+    int length = buffer.length - TRAILER_LENGTH;
+    ByteBuffer trailer = ByteBuffer.wrap(buffer, length, TRAILER_LENGTH);
+    long checksum = trailer.getLong();
+    if (trailer.getInt() != length || trailer.getInt() != TRAILER_MAGIC) {
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buffer, 0, length);
+    if (crc.getValue() != checksum) {
+      return null;
+    }
+    return Arrays.copyOf(buffer, length);
   }
 
   private Path getCheckpointPath(String key) {
@@ -115,6 +171,7 @@ public class FSCheckpointProvider implements CheckpointProvider {
       FSDataOutputStream out = fs.create(newCheckpoint);
       try {
         out.write(checkpoint);
+        out.write(getTrailer(checkpoint));
       }
       finally {
         out.close();
@@ -0,0 +1,402 @@
+package com.inmobi.messaging.checkpoint;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.consumer.databus.MessagingConsumerConfig;
+
+/**
+ * Stores the checkpoints of all the keys in a single memory mapped file on
+ * the local file system.
+ *
+ * The file has two slots. Each write puts all the checkpoints along with a
+ * generation number and a checksum into the slot not holding the latest
+ * generation, so a torn write leaves the previous generation readable.
+ *
+ * When the checkpoints are written to the file depends on the fsync mode:
+ * <ul>
+ * <li>always: each {@link #checkpoint(String, byte[])} is written and forced
+ * to the disk.</li>
+ * <li>batch: checkpoints are kept in memory till {@link #flush()}, which
+ * writes them and forces them to the disk. The consumer flushes once per
+ * mark.</li>
+ * <li>none: same as batch, but the disk writes are left to the operating
+ * system. Checkpoints survive a crash of the process, but not of the
+ * host.</li>
+ * </ul>
+ * Pending checkpoints are flushed on {@link #close()} in all the modes.
+ *
+ * Only one provider can use a directory at a time. The provider holds a lock
+ * on a lock file next to the checkpoint file till it is closed, and fails to
+ * initialize if another provider, in this or another process, holds it.
+ */
+public class LocalCheckpointProvider implements CheckpointProvider,
+    Flushable {
+  private static final Log LOG =
+      LogFactory.getLog(LocalCheckpointProvider.class);
+
+  public enum FsyncMode {
+    ALWAYS, BATCH, NONE
+  }
+
+  static final String FILE_NAME = "checkpoints.mmap";
+  static final String LOCK_FILE_NAME = FILE_NAME + ".lock";
+  // lock files held in this process. Closing any channel on a file drops the
+  // locks of the process on it, so a file locked here is not opened again.
+  private static final Set<String> LOCKED_FILES = new HashSet<String>();
+  private static final int MAGIC = 0x43484b50; // CHKP
+  private static final int VERSION = 1;
+  private static final int FILE_HEADER_SIZE = 16;
+  // generation, length and checksum of the slot
+  private static final int SLOT_HEADER_SIZE = 20;
+  private static final int INITIAL_SLOT_SIZE = 64 * 1024;
+
+  private final File file;
+  private final File lockFile;
+  private final FsyncMode fsyncMode;
+  private final Map<String, byte[]> checkpoints =
+      new HashMap<String, byte[]>();
+  private final CRC32 crc = new CRC32();
+  private RandomAccessFile raf;
+  private String lockedPath;
+  private RandomAccessFile lockRaf;
+  private FileLock lock;
+  private MappedByteBuffer mapped;
+  private int slotSize;
+  private int activeSlot = -1;
+  private long generation = 0;
+  private boolean dirty = false;
+
+  public LocalCheckpointProvider(String dir) {
+    this(dir, FsyncMode.BATCH);
+  }
+
+  public LocalCheckpointProvider(String dir, ClientConfig config) {
+    this(dir, FsyncMode.valueOf(config.getString(
+        MessagingConsumerConfig.checkpointFsyncConfig,
+        MessagingConsumerConfig.DEFAULT_CHECKPOINT_FSYNC).toUpperCase()));
+  }
+
+  public LocalCheckpointProvider(String dir, FsyncMode fsyncMode) {
+    this.fsyncMode = fsyncMode;
+    File baseDir = new File(dir);
+    if (!baseDir.isDirectory() && !baseDir.mkdirs()) {
+      throw new RuntimeException("Could not create checkpoint dir " + dir);
+    }
+    this.file = new File(baseDir, FILE_NAME);
+    this.lockFile = new File(baseDir, LOCK_FILE_NAME);
+    try {
+      lock();
+      open();
+    } catch (IOException e) {
+      LOG.warn("Could not initialize checkpoint provider", e);
+      unlock();
+      throw new RuntimeException(e);
+    }
+    LOG.info("CheckPoint provider initialized with file: " + file
+        + " fsync mode: " + fsyncMode);
+  }
+
+  /*
+   * The checkpoint file itself is replaced when it grows, so the lock is
+   * taken on a separate file which is never replaced.
+   */
+  private void lock() throws IOException {
+    String path = lockFile.getCanonicalPath();
+    synchronized (LOCKED_FILES) {
+      if (!LOCKED_FILES.add(path)) {
+        throw new IOException("Checkpoint dir " + lockFile.getParent()
+            + " is in use by another consumer");
+      }
+    }
+    lockedPath = path;
+    lockRaf = new RandomAccessFile(lockFile, "rw");
+    lock = lockRaf.getChannel().tryLock();
+    if (lock == null) {
+      throw new IOException("Checkpoint dir " + lockFile.getParent()
+          + " is in use by another process");
+    }
+  }
+
+  private void unlock() {
+    try {
+      if (lock != null) {
+        lock.release();
+      }
+      if (lockRaf != null) {
+        lockRaf.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not release the lock on " + lockFile, e);
+    } finally {
+      lock = null;
+      lockRaf = null;
+      if (lockedPath != null) {
+        synchronized (LOCKED_FILES) {
+          LOCKED_FILES.remove(lockedPath);
+        }
+        lockedPath = null;
+      }
+    }
+  }
+
+  private void open() throws IOException {
+    boolean exists = file.exists() && file.length() >= FILE_HEADER_SIZE;
+    raf = new RandomAccessFile(file, "rw");
+    if (!exists) {
+      slotSize = INITIAL_SLOT_SIZE;
+      map();
+      mapped.putInt(0, MAGIC);
+      mapped.putInt(4, VERSION);
+      mapped.putInt(8, slotSize);
+      mapped.force();
+      return;
+    }
+    mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+        FILE_HEADER_SIZE);
+    if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+      throw new IOException("Not a checkpoint file " + file);
+    }
+    slotSize = mapped.getInt(8);
+    map();
+    // pick the valid slot with the latest generation
+    for (int slot = 0; slot < 2; slot++) {
+      long slotGeneration = mapped.getLong(slotOffset(slot));
+      if (slotGeneration > generation && readSlot(slot, false)) {
+        generation = slotGeneration;
+        activeSlot = slot;
+      }
+    }
+    if (activeSlot >= 0) {
+      readSlot(activeSlot, true);
+    }
+    LOG.info("Read " + checkpoints.size() + " checkpoints of generation "
+        + generation + " from " + file);
+  }
+
+  private void map() throws IOException {
+    long size = FILE_HEADER_SIZE + 2L * slotSize;
+    raf.setLength(size);
+    mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  private int slotOffset(int slot) {
+    return FILE_HEADER_SIZE + slot * slotSize;
+  }
+
+  /*
+   * Verifies the checksum of the slot and loads its checkpoints if load is
+   * set. Returns false if the slot is not valid.
+   */
+  private boolean readSlot(int slot, boolean load) {
+    int offset = slotOffset(slot);
+    int length = mapped.getInt(offset + 8);
+    if (length < 4 || length > slotSize - SLOT_HEADER_SIZE) {
+      return false;
+    }
+    byte[] payload = new byte[length];
+    mapped.position(offset + SLOT_HEADER_SIZE);
+    mapped.get(payload);
+    if (checksum(mapped.getLong(offset), payload, length)
+        != mapped.getLong(offset + 12)) {
+      LOG.warn("Checksum mismatch for slot " + slot + " of " + file);
+      return false;
+    }
+    if (!load) {
+      return true;
+    }
+    ByteBuffer in = ByteBuffer.wrap(payload);
+    try {
+      int count = in.getInt();
+      for (int i = 0; i < count; i++) {
+        byte[] key = new byte[in.getInt()];
+        in.get(key);
+        byte[] value = new byte[in.getInt()];
+        in.get(value);
+        checkpoints.put(new String(key, "UTF-8"), value);
+      }
+    } catch (BufferUnderflowException e) {
+      LOG.warn("Invalid checkpoints in slot " + slot + " of " + file);
+      checkpoints.clear();
+      return false;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return true;
+  }
+
+  private long checksum(long slotGeneration, byte[] payload, int length) {
+    crc.reset();
+    for (int i = 0; i < 8; i++) {
+      crc.update((int) (slotGeneration >>> (i * 8)));
+    }
+    for (int i = 0; i < 4; i++) {
+      crc.update(length >>> (i * 8));
+    }
+    crc.update(payload, 0, length);
+    return crc.getValue();
+  }
+
+  @Override
+  public synchronized byte[] read(String key) {
+    byte[] checkpoint = checkpoints.get(key);
+    return checkpoint == null ? null : checkpoint.clone();
+  }
+
+  @Override
+  public synchronized void checkpoint(String key, byte[] checkpoint) {
+    checkpoints.put(key, checkpoint.clone());
+    dirty = true;
+    if (fsyncMode == FsyncMode.ALWAYS) {
+      try {
+        flush();
+      } catch (IOException e) {
+        LOG.warn("Could not checkpoint ", e);
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Writes the checkpoints given since the last flush into the inactive slot
+   * and makes it the active one.
+   */
+  @Override
+  public synchronized void flush() throws IOException {
+    if (!dirty) {
+      return;
+    }
+    byte[] payload = serialize();
+    if (payload.length > slotSize - SLOT_HEADER_SIZE) {
+      grow(payload.length + SLOT_HEADER_SIZE);
+    }
+    int slot = activeSlot == 0 ? 1 : 0;
+    int offset = slotOffset(slot);
+    long nextGeneration = generation + 1;
+    mapped.position(offset + SLOT_HEADER_SIZE);
+    mapped.put(payload);
+    mapped.putInt(offset + 8, payload.length);
+    mapped.putLong(offset + 12,
+        checksum(nextGeneration, payload, payload.length));
+    mapped.putLong(offset, nextGeneration);
+    if (fsyncMode != FsyncMode.NONE) {
+      mapped.force();
+    }
+    generation = nextGeneration;
+    activeSlot = slot;
+    dirty = false;
+  }
+
+  private byte[] serialize() throws IOException {
+    ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bOut);
+    out.writeInt(checkpoints.size());
+    for (Map.Entry<String, byte[]> entry : checkpoints.entrySet()) {
+      byte[] key = entry.getKey().getBytes("UTF-8");
+      out.writeInt(key.length);
+      out.write(key);
+      out.writeInt(entry.getValue().length);
+      out.write(entry.getValue());
+    }
+    out.close();
+    return bOut.toByteArray();
+  }
+
+  /*
+   * Slots can not be resized in place, so the file is rewritten with bigger
+   * slots holding the active generation and renamed over the old one.
+   */
+  private void grow(int minSlotSize) throws IOException {
+    int newSlotSize = slotSize;
+    while (newSlotSize < minSlotSize) {
+      newSlotSize *= 2;
+    }
+    LOG.info("Growing checkpoint slots of " + file + " to " + newSlotSize);
+    int oldActiveSlot = activeSlot;
+    byte[] active = null;
+    if (oldActiveSlot >= 0) {
+      active = new byte[slotSize];
+      mapped.position(slotOffset(oldActiveSlot));
+      mapped.get(active);
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    RandomAccessFile tmpFile = new RandomAccessFile(tmp, "rw");
+    try {
+      tmpFile.setLength(FILE_HEADER_SIZE + 2L * newSlotSize);
+      tmpFile.writeInt(MAGIC);
+      tmpFile.writeInt(VERSION);
+      tmpFile.writeInt(newSlotSize);
+      if (active != null) {
+        tmpFile.seek(FILE_HEADER_SIZE);
+        tmpFile.write(active);
+      }
+      tmpFile.getFD().sync();
+    } finally {
+      tmpFile.close();
+    }
+    raf.close();
+    if (!tmp.renameTo(file)) {
+      throw new IOException("Could not rename " + tmp + " to " + file);
+    }
+    raf = new RandomAccessFile(file, "rw");
+    slotSize = newSlotSize;
+    map();
+    activeSlot = active == null ? -1 : 0;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (raf == null) {
+      return;
+    }
+    try {
+      flush();
+      mapped.force();
+      raf.close();
+    } catch (IOException e) {
+      LOG.warn("Could not close checkpoint provider", e);
+      throw new RuntimeException(e);
+    } finally {
+      raf = null;
+      unlock();
+    }
+  }
+}
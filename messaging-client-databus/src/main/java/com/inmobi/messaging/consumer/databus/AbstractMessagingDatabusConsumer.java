@@ -20,15 +20,23 @@ package com.inmobi.messaging.consumer.databus;
  * #L%
  */
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
@@ -37,13 +45,17 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.security.SecurityUtil;
 import org.apache.hadoop.security.UserGroupInformation;
 
+import com.inmobi.databus.partition.DeltaPartitionCheckPoint;
 import com.inmobi.databus.partition.PartitionId;
 import com.inmobi.databus.partition.PartitionReader;
+import com.inmobi.databus.readers.DirectoryListingCache;
 import com.inmobi.messaging.ClientConfig;
 import com.inmobi.messaging.Message;
 import com.inmobi.messaging.checkpoint.CheckpointProvider;
 import com.inmobi.messaging.consumer.AbstractMessageConsumer;
+import com.inmobi.messaging.consumer.BaseMessageConsumerStatsExposer;
 import com.inmobi.messaging.consumer.EndOfStreamException;
+import com.inmobi.messaging.consumer.MessageHandler;
 import com.inmobi.messaging.instrumentation.AbstractMessagingClientStatsExposer;
 import com.inmobi.messaging.metrics.DatabusConsumerStatsExposer;
 
@@ -63,12 +75,22 @@ public abstract class AbstractMessagingDatabusConsumer
 
   protected CheckpointProvider checkpointProvider;
   protected ConsumerCheckpoint currentCheckpoint;
+  protected boolean singleCheckpointFile;
   protected long waitTimeForFileCreate;
+  // directory listings shared by the partition readers, null if not shared
+  protected DirectoryListingCache listingCache;
+  // threads shared by the partition readers, 0 for a thread per reader
+  protected int readerPoolSize;
+  private ScheduledExecutorService readerPool;
   protected int bufferSize;
+  // decides the order of the partitions in the buffer, null for read order
+  protected MergePolicy mergePolicy;
+  protected int partitionQueueSize;
   protected String retentionInHours;
   protected int consumerNumber;
   protected int totalConsumers;
   protected Set<Integer> partitionMinList;
+  private ParallelMessageDispatcher dispatcher;
   protected String relativeStartTimeStr;
   protected Date stopTime;
   protected Boolean startOfStream;
@@ -88,14 +110,67 @@ public abstract class AbstractMessagingDatabusConsumer
     }
   }
 
+  /**
+   * Creates the merge policy through its (ClientConfig) constructor if it
+   * has one, otherwise through its no argument constructor.
+   */
+  public static MergePolicy createMergePolicy(String mergePolicyClassName,
+      ClientConfig config) {
+    try {
+      Class<?> clazz = Class.forName(mergePolicyClassName);
+      try {
+        return (MergePolicy) clazz.getConstructor(ClientConfig.class)
+            .newInstance(config);
+      } catch (NoSuchMethodException e) {
+        return (MergePolicy) clazz.newInstance();
+      }
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Could not create merge policy "
+          + mergePolicyClassName, e);
+    }
+  }
+
+  protected BlockingQueue<QueueEntry> createBuffer() {
+    if (mergePolicy != null) {
+      return new PartitionMergeBuffer(partitionQueueSize, mergePolicy);
+    }
+    return new LinkedBlockingQueue<QueueEntry>(bufferSize);
+  }
+
   public static CheckpointProvider createCheckpointProvider(
       String checkpointProviderClassName, String chkpointDir) {
+    return createCheckpointProvider(checkpointProviderClassName, chkpointDir,
+        null);
+  }
+
+  /**
+   * Creates the checkpoint provider through its (String, ClientConfig)
+   * constructor if it has one and config is passed, otherwise through its
+   * (String) constructor.
+   */
+  public static CheckpointProvider createCheckpointProvider(
+      String checkpointProviderClassName, String chkpointDir,
+      ClientConfig config) {
     CheckpointProvider chkProvider = null;
     try {
       Class<?> clazz = Class.forName(checkpointProviderClassName);
-      Constructor<?> constructor = clazz.getConstructor(String.class);
-      chkProvider = (CheckpointProvider) constructor.newInstance(new Object[]
-          {chkpointDir});
+      Constructor<?> configConstructor = null;
+      if (config != null) {
+        try {
+          configConstructor = clazz.getConstructor(String.class,
+              ClientConfig.class);
+        } catch (NoSuchMethodException e) {
+          configConstructor = null;
+        }
+      }
+      if (configConstructor != null) {
+        chkProvider = (CheckpointProvider) configConstructor.newInstance(
+            new Object[] {chkpointDir, config});
+      } else {
+        Constructor<?> constructor = clazz.getConstructor(String.class);
+        chkProvider = (CheckpointProvider) constructor.newInstance(
+            new Object[] {chkpointDir});
+      }
     } catch (Exception e) {
       throw new IllegalArgumentException("Could not create checkpoint provider "
           + checkpointProviderClassName, e);
@@ -109,6 +184,20 @@ public abstract class AbstractMessagingDatabusConsumer
       Configuration.addDefaultResource(hadoopConfFileName);
     }
     conf = new Configuration();
+    // the stream readers get the prefetch, listing, wait and checkpoint
+    // settings through the hadoop conf
+    conf.setInt(prefetchDepthConfig, config.getInteger(prefetchDepthConfig,
+        DEFAULT_PREFETCH_DEPTH));
+    conf.setInt(prefetchBufferSizeConfig, config.getInteger(
+        prefetchBufferSizeConfig, DEFAULT_PREFETCH_BUFFER_SIZE));
+    conf.setBoolean(incrementalListingConfig, config.getBoolean(
+        incrementalListingConfig, DEFAULT_INCREMENTAL_LISTING));
+    conf.setBoolean(tailFollowConfig, config.getBoolean(tailFollowConfig,
+        DEFAULT_TAIL_FOLLOW));
+    conf.setBoolean(checkpointOffsetsConfig, config.getBoolean(
+        checkpointOffsetsConfig, DEFAULT_CHECKPOINT_OFFSETS));
+    conf.setLong(minWaitTimeConfig, config.getLong(minWaitTimeConfig,
+        DEFAULT_MIN_WAIT_TIME));
     super.init(config);
     // verify authentication
     if (UserGroupInformation.isSecurityEnabled()) {
@@ -153,18 +242,33 @@ public abstract class AbstractMessagingDatabusConsumer
     String databusCheckpointDir = config.getString(checkpointDirConfig,
         DEFAULT_CHECKPOINT_DIR);
     this.checkpointProvider = createCheckpointProvider(
-        chkpointProviderClassName, databusCheckpointDir);
+        chkpointProviderClassName, databusCheckpointDir, config);
+    singleCheckpointFile = config.getBoolean(singleCheckpointFileConfig,
+        DEFAULT_SINGLE_CHECKPOINT_FILE);
 
     createCheckpoint();
     currentCheckpoint.read(checkpointProvider, getChkpointKey());
 
     //create buffer
     bufferSize = config.getInteger(queueSizeConfig, DEFAULT_QUEUE_SIZE);
-    buffer = new LinkedBlockingQueue<QueueEntry>(bufferSize);
+    String mergePolicyClassName = config.getString(mergePolicyConfig);
+    if (mergePolicyClassName != null) {
+      mergePolicy = createMergePolicy(mergePolicyClassName, config);
+      partitionQueueSize = config.getInteger(partitionQueueSizeConfig,
+          DEFAULT_PARTITION_QUEUE_SIZE);
+    }
+    buffer = createBuffer();
 
     // initialize other common configuration
     waitTimeForFileCreate = config.getLong(waitTimeForFileCreateConfig,
         DEFAULT_WAIT_TIME_FOR_FILE_CREATE);
+    long listingCacheTtl = config.getLong(listingCacheTtlConfig,
+        DEFAULT_LISTING_CACHE_TTL);
+    if (listingCacheTtl > 0) {
+      listingCache = new DirectoryListingCache(listingCacheTtl);
+    }
+    readerPoolSize = config.getInteger(readerPoolSizeConfig,
+        DEFAULT_READER_POOL_SIZE);
 
     // get the retention period of the topic
     retentionInHours = config.getString(retentionConfig);
@@ -251,6 +355,7 @@ public abstract class AbstractMessagingDatabusConsumer
 
   private Message getMessage(long timeout, TimeUnit timeunit)
       throws EndOfStreamException, InterruptedException {
+    checkNotParallel();
     // check whether it consumed all messages till stopTime
     checkClosedReaders();
     QueueEntry entry = null;
@@ -274,6 +379,176 @@ public abstract class AbstractMessagingDatabusConsumer
     return (Message) entry.getMessage();
   }
 
+  /**
+   * Drains upto maxMessages entries from the buffer in one go and updates
+   * the current checkpoint once per partition for the whole batch.
+   *
+   * @throws throws an EndOfStreamException When consumer consumed all messages
+   *  till stopTime
+   * @return Messages available on the stream, waiting for the first one for
+   *         the given timeout. Empty list if none is available.
+   */
+  @Override
+  protected List<Message> getNextBatch(int maxMessages, long timeout,
+      TimeUnit timeunit) throws InterruptedException, EndOfStreamException {
+    checkNotParallel();
+    List<Message> batch = new ArrayList<Message>();
+    List<QueueEntry> entries = new ArrayList<QueueEntry>(
+        Math.min(maxMessages, bufferSize));
+    Map<PartitionId, MessageCheckpoint> batchCheckpoints =
+        new LinkedHashMap<PartitionId, MessageCheckpoint>();
+    while (batch.isEmpty()) {
+      // check whether it consumed all messages till stopTime
+      checkClosedReaders();
+      QueueEntry first = buffer.poll(timeout, timeunit);
+      if (first == null) {
+        break;
+      }
+      entries.add(first);
+      buffer.drainTo(entries, maxMessages - 1);
+      for (QueueEntry entry : entries) {
+        PartitionId id = entry.getPartitionId();
+        messageConsumedMap.put(id, true);
+        MessageCheckpoint msgchk = entry.getMessageChkpoint();
+        if (msgchk != null) {
+          batchCheckpoints.put(id,
+              mergeCheckpoint(batchCheckpoints.get(id), msgchk));
+        }
+        if (entry.getMessage() instanceof Message) {
+          batch.add((Message) entry.getMessage());
+        } else { // if (entry.getMessage() instanceof EOFMessage)
+          closedReadercount++;
+        }
+      }
+      entries.clear();
+      for (Map.Entry<PartitionId, MessageCheckpoint> entry
+          : batchCheckpoints.entrySet()) {
+        setMessageCheckpoint(entry.getKey(), entry.getValue());
+      }
+      batchCheckpoints.clear();
+    }
+    if (batch.isEmpty()) {
+      checkClosedReaders();
+    }
+    return batch;
+  }
+
+  /*
+   * Delta checkpoints carry only the minutes changed since the previous
+   * message of the partition, so they are accumulated. Otherwise the later
+   * checkpoint replaces the earlier one.
+   */
+  static MessageCheckpoint mergeCheckpoint(MessageCheckpoint previous,
+      MessageCheckpoint next) {
+    if (next == null) {
+      return previous;
+    }
+    if (previous instanceof DeltaPartitionCheckPoint
+        && next instanceof DeltaPartitionCheckPoint) {
+      return ((DeltaPartitionCheckPoint) next).coalesce(
+          (DeltaPartitionCheckPoint) previous);
+    }
+    return next;
+  }
+
+  private void checkNotParallel() {
+    if (dispatcher != null) {
+      throw new IllegalStateException("Messages are being consumed in"
+          + " parallel by the message handler");
+    }
+  }
+
+  /**
+   * Starts consuming the messages in parallel. The passed handler is called
+   * for every message from a pool of numWorkers threads; messages of a
+   * partition are handled by the same thread in the order of the stream.
+   *
+   * next calls are not allowed till the parallel consumption is stopped.
+   * mark commits the checkpoint up to the messages the handler finished.
+   * If the handler throws, the parallel consumption stops without the
+   * checkpoint of the partition moving past the failed message, and the
+   * error is thrown from {@link #awaitParallelConsumption} and
+   * {@link #stopParallelConsumption}. Reset then reads again from the last
+   * mark.
+   */
+  public synchronized void startParallelConsumption(MessageHandler handler,
+      int numWorkers) {
+    if (numWorkers <= 0) {
+      throw new IllegalArgumentException("numWorkers should be positive");
+    }
+    if (dispatcher != null) {
+      throw new IllegalStateException("Parallel consumption already started");
+    }
+    dispatcher = new ParallelMessageDispatcher(buffer, readers.size(),
+        handler, numWorkers, Math.max(1, bufferSize / numWorkers),
+        (BaseMessageConsumerStatsExposer) getMetrics(),
+        getReaderNameSuffix());
+    dispatcher.start();
+    LOG.info("Started parallel consumption with " + numWorkers + " workers");
+  }
+
+  /**
+   * Waits for the parallel consumption to finish, which happens once all
+   * the messages till stopTime are handled or the handler fails.
+   *
+   * @return true if it finished within timeout, false otherwise
+   * @throws ExecutionException if the handler failed, with its error as
+   * the cause
+   */
+  public boolean awaitParallelConsumption(long timeout, TimeUnit timeunit)
+      throws InterruptedException, ExecutionException {
+    ParallelMessageDispatcher current;
+    synchronized (this) {
+      current = dispatcher;
+    }
+    if (current == null) {
+      return true;
+    }
+    boolean finished = current.awaitTermination(timeout, timeunit);
+    checkHandlerFailure(current);
+    return finished;
+  }
+
+  private static void checkHandlerFailure(ParallelMessageDispatcher current)
+      throws ExecutionException {
+    Throwable failure = current.getFailure();
+    if (failure != null) {
+      throw new ExecutionException("Message handler failed", failure);
+    }
+  }
+
+  /**
+   * Stops the parallel consumption after the messages already given to the
+   * workers are handled. Messages left in the buffer can be read with next.
+   *
+   * @throws ExecutionException if the handler failed, with its error as
+   * the cause. The parallel consumption is stopped all the same.
+   */
+  public synchronized void stopParallelConsumption()
+      throws InterruptedException, ExecutionException {
+    if (dispatcher != null) {
+      ParallelMessageDispatcher stopped = dispatcher;
+      stopped.stop();
+      collectHandledCheckpoints();
+      closedReadercount += stopped.getClosedReaders();
+      dispatcher = null;
+      LOG.info("Stopped parallel consumption");
+      checkHandlerFailure(stopped);
+    }
+  }
+
+  private void collectHandledCheckpoints() {
+    Map<PartitionId, MessageCheckpoint> handled =
+        new HashMap<PartitionId, MessageCheckpoint>();
+    dispatcher.drainFinishedCheckpoints(handled);
+    for (Map.Entry<PartitionId, MessageCheckpoint> entry : handled.entrySet()) {
+      messageConsumedMap.put(entry.getKey(), true);
+      if (entry.getValue() != null) {
+        setMessageCheckpoint(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
   private void checkClosedReaders() throws EndOfStreamException {
     if (closedReadercount == readers.size()) {
       throw new EndOfStreamException();
@@ -282,11 +557,39 @@ public abstract class AbstractMessagingDatabusConsumer
 
   protected synchronized void start() throws IOException {
     createPartitionReaders();
+    if (buffer instanceof PartitionMergeBuffer) {
+      ((PartitionMergeBuffer) buffer).setPartitions(readers.keySet());
+    }
+    if (readerPoolSize > 0) {
+      readerPool = createReaderPool();
+    }
     for (PartitionReader reader : readers.values()) {
-      reader.start(getReaderNameSuffix());
+      if (listingCache != null) {
+        reader.setListingCache(listingCache);
+      }
+      if (readerPool != null) {
+        reader.start(getReaderNameSuffix(), readerPool);
+      } else {
+        reader.start(getReaderNameSuffix());
+      }
     }
   }
 
+  private ScheduledExecutorService createReaderPool() {
+    final String name = "ReaderPool-" + getReaderNameSuffix() + "-";
+    return new ScheduledThreadPoolExecutor(readerPoolSize,
+        new ThreadFactory() {
+      private int count = 0;
+
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name + count++);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
   private String getReaderNameSuffix() {
     StringBuilder str = new StringBuilder();
     str.append(topicName);
@@ -350,20 +653,43 @@ public abstract class AbstractMessagingDatabusConsumer
 
   @Override
   protected void doReset() throws IOException {
+    if (dispatcher != null) {
+      throw new IllegalStateException("Stop the parallel consumption before"
+          + " reset");
+    }
     // restart the service, consumer will start streaming from the last saved
     // checkpoint
-    close();
+    stopReaders();
     currentCheckpoint.read(checkpointProvider, getChkpointKey());
     LOG.info("Resetting to checkpoint:" + currentCheckpoint);
-    buffer = new LinkedBlockingQueue<QueueEntry>(bufferSize);
+    buffer = createBuffer();
     start();
   }
 
   @Override
   protected void doMark() throws IOException {
+    commitMark(snapshotMark());
+  }
+
+  @Override
+  protected Object snapshotMark() {
+    if (dispatcher != null) {
+      collectHandledCheckpoints();
+    }
     checkAndCreateCheckpoint();
-    currentCheckpoint.write(checkpointProvider, getChkpointKey());
-    LOG.info("Committed checkpoint:" + currentCheckpoint);
+    return currentCheckpoint.snapshot();
+  }
+
+  @Override
+  protected void commitMark(Object snapshot) throws IOException {
+    ConsumerCheckpoint checkpoint = (ConsumerCheckpoint) snapshot;
+    checkpoint.write(checkpointProvider, getChkpointKey());
+    if (checkpointProvider instanceof Flushable) {
+      // commit the checkpoints of all the keys together
+      ((Flushable) checkpointProvider).flush();
+    }
+    currentCheckpoint.committed(checkpoint);
+    LOG.info("Committed checkpoint:" + checkpoint);
   }
 
   private void checkAndCreateCheckpoint() {
@@ -382,13 +708,37 @@ public abstract class AbstractMessagingDatabusConsumer
 
   @Override
   public synchronized void close() {
+    stopReaders();
+    if (checkpointProvider != null) {
+      // flushes the pending checkpoints and releases the checkpoint dir
+      checkpointProvider.close();
+    }
+  }
+
+  /*
+   * Stops reading, keeping the checkpoint provider open for a reset.
+   */
+  private void stopReaders() {
     for (PartitionReader reader : readers.values()) {
       reader.close();
     }
+    if (dispatcher != null) {
+      try {
+        dispatcher.stop();
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted while stopping parallel consumption", e);
+        Thread.currentThread().interrupt();
+      }
+      dispatcher = null;
+    }
     for (PartitionReader reader : readers.values()) {
       reader.join();
       removeStatsExposer(reader.getStatsExposer());
     }
+    if (readerPool != null) {
+      readerPool.shutdownNow();
+      readerPool = null;
+    }
     readers.clear();
     if (buffer != null) {
       buffer.clear();
@@ -408,8 +758,12 @@ public abstract class AbstractMessagingDatabusConsumer
 
   @Override
   protected AbstractMessagingClientStatsExposer getMetricsImpl() {
-    return new DatabusConsumerStatsExposer(topicName, consumerName,
-        consumerNumber);
+    DatabusConsumerStatsExposer metrics = new DatabusConsumerStatsExposer(
+        topicName, consumerName, consumerNumber);
+    if (mergePolicy instanceof TimeOrderedMergePolicy) {
+      ((TimeOrderedMergePolicy) mergePolicy).setMetrics(metrics);
+    }
+    return metrics;
   }
 
   protected void parseClusterNamesAndMigrateCheckpoint(ClientConfig config,
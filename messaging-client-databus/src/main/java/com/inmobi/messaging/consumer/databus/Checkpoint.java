@@ -180,6 +180,18 @@ public class Checkpoint implements Writable, ConsumerCheckpoint {
     partitionsChkPoint.clear();
   }
 
+  @Override
+  public Checkpoint snapshot() {
+    Checkpoint snapshot = new Checkpoint();
+    // partition checkpoints are not modified once created
+    snapshot.partitionsChkPoint.putAll(partitionsChkPoint);
+    return snapshot;
+  }
+
+  @Override
+  public void committed(ConsumerCheckpoint snapshot) {
+  }
+
   public void migrateCheckpoint(PartitionCheckpoint pck,
       PartitionId defaultPid, PartitionId newPid) {
     /*
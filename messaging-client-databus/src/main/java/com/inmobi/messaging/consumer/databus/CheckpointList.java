@@ -20,10 +20,17 @@ package com.inmobi.messaging.consumer.databus;
  * #L%
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 import com.inmobi.databus.partition.DeltaPartitionCheckPoint;
 import com.inmobi.databus.partition.PartitionCheckpoint;
@@ -37,29 +44,63 @@ import com.inmobi.messaging.checkpoint.CheckpointProvider;
  * set of segment ids and respective checkpoints.
  * This class also implements methods for writing the consumer checkpoint to the
  * file system and to read the consumer checkpoint from the file system.
+ *
+ * Only the checkpoints of the minutes which changed since the last read or
+ * write are written. If singleFile is set, the checkpoints of all the minutes
+ * are stored together under one key, which the checkpoint provider replaces
+ * as a whole.
  */
 public class CheckpointList implements ConsumerCheckpoint {
+  static final int SINGLE_FILE_VERSION = 1;
 
   // map of static id to its checkpoint
   private final Map<Integer, Checkpoint> chkpoints =
       new TreeMap<Integer, Checkpoint>();
   private final Set<Integer> idList;
+  // checkpoints set since the last materialization of chkpoints
+  private final Map<PartitionId, DeltaPartitionCheckPoint> pending =
+      new HashMap<PartitionId, DeltaPartitionCheckPoint>();
+  // minutes whose checkpoints are not written yet
+  private final Set<Integer> dirtyIds = new TreeSet<Integer>();
+  private final boolean singleFile;
 
   public CheckpointList(Set<Integer> idList) {
+    this(idList, false);
+  }
+
+  public CheckpointList(Set<Integer> idList, boolean singleFile) {
     this.idList = idList;
+    this.singleFile = singleFile;
   }
 
-  public Map<Integer, Checkpoint> getCheckpoints() {
+  public synchronized Map<Integer, Checkpoint> getCheckpoints() {
+    materialize();
     return chkpoints;
   }
 
+  /**
+   * The checkpoint is only kept against the partition here; the minute
+   * checkpoints are built from it when they are needed.
+   */
   @Override
   public void set(PartitionId pid, MessageCheckpoint msgCkp) {
     DeltaPartitionCheckPoint checkPoint = (DeltaPartitionCheckPoint) msgCkp;
-    for (Map.Entry<Integer, PartitionCheckpoint> entry :
-      checkPoint.getDeltaCheckpoint().entrySet()) {
-      setConsumerCheckpoint(pid, entry.getKey(), entry.getValue());
+    pending.put(pid, checkPoint.coalesce(pending.get(pid)));
+  }
+
+  private void materialize() {
+    if (pending.isEmpty()) {
+      return;
     }
+    for (Map.Entry<PartitionId, DeltaPartitionCheckPoint> pendingEntry :
+      pending.entrySet()) {
+      for (Map.Entry<Integer, PartitionCheckpoint> entry :
+        pendingEntry.getValue().getDeltaCheckpoint().entrySet()) {
+        setConsumerCheckpoint(pendingEntry.getKey(), entry.getKey(),
+            entry.getValue());
+      }
+    }
+    pending.clear();
   }
 
   private void setConsumerCheckpoint(PartitionId pid, Integer minute,
@@ -67,12 +108,25 @@ public class CheckpointList implements ConsumerCheckpoint {
     Checkpoint tmpChkPoint = chkpoints.get(minute);
     if (tmpChkPoint == null) {
       tmpChkPoint = new Checkpoint();
+      chkpoints.put(minute, tmpChkPoint);
+    }
+    Map<PartitionId, PartitionCheckpoint> partitionsChkPoint =
+        tmpChkPoint.getPartitionsCheckpoint();
+    PartitionCheckpoint old = partitionsChkPoint.get(pid);
+    if (!partitionsChkPoint.containsKey(pid)
+        || (old == null ? pck != null : !old.equals(pck))) {
+      dirtyIds.add(minute);
     }
     tmpChkPoint.set(pid, pck);
-    chkpoints.put(minute, tmpChkPoint);
   }
 
-  public String toString() {
+  synchronized Set<Integer> getDirtyIds() {
+    materialize();
+    return dirtyIds;
+  }
+
+  public synchronized String toString() {
+    materialize();
     StringBuffer buf = new StringBuffer();
     for (Map.Entry<Integer, Checkpoint> entry : chkpoints
         .entrySet()) {
@@ -92,11 +146,59 @@ public class CheckpointList implements ConsumerCheckpoint {
     return superKey + "_" + id;
   }
 
-  public void write(CheckpointProvider checkpointProvider, String superKey)
-      throws IOException {
+  public static String getSingleChkpointKey(String superKey) {
+    return superKey + "_all";
+  }
+
+  public synchronized void write(CheckpointProvider checkpointProvider,
+      String superKey) throws IOException {
+    materialize();
+    if (dirtyIds.isEmpty()) {
+      return;
+    }
+    if (singleFile) {
+      try {
+        checkpointProvider.checkpoint(getSingleChkpointKey(superKey),
+            toBytes());
+      } catch (Exception e) {
+        throw new IOException("Could not checkpoint. ", e);
+      }
+      dirtyIds.clear();
+      return;
+    }
+    for (Integer id : dirtyIds.toArray(new Integer[dirtyIds.size()])) {
+      chkpoints.get(id).write(checkpointProvider, getChkpointKey(superKey, id));
+      dirtyIds.remove(id);
+    }
+  }
+
+  byte[] toBytes() throws IOException {
+    ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bOut);
+    out.writeInt(SINGLE_FILE_VERSION);
+    out.writeInt(chkpoints.size());
     for (Map.Entry<Integer, Checkpoint> entry : chkpoints.entrySet()) {
-      entry.getValue().write(checkpointProvider,
-          getChkpointKey(superKey, entry.getKey()));
+      out.writeInt(entry.getKey());
+      entry.getValue().write(out);
+    }
+    out.close();
+    return bOut.toByteArray();
+  }
+
+  private void readFields(byte[] bytes) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    int version = in.readInt();
+    if (version != SINGLE_FILE_VERSION) {
+      throw new IOException("Unknown checkpoint version " + version);
+    }
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      Integer id = in.readInt();
+      Checkpoint checkpoint = new Checkpoint();
+      checkpoint.readFields(in);
+      if (idList.contains(id)) {
+        chkpoints.put(id, checkpoint);
+      }
     }
   }
 
@@ -114,21 +216,80 @@ public class CheckpointList implements ConsumerCheckpoint {
     return partitionCheckpointList;
   }
 
-  public void read(CheckpointProvider checkpointProvider, String superKey)
-      throws IOException {
+  public synchronized void read(CheckpointProvider checkpointProvider,
+      String superKey) throws IOException {
+    pending.clear();
+    dirtyIds.clear();
+    if (singleFile) {
+      byte[] chkpointData;
+      try {
+        chkpointData = checkpointProvider.read(getSingleChkpointKey(superKey));
+      } catch (Exception e) {
+        throw new IOException("Could not read checkpoint.", e);
+      }
+      if (chkpointData != null) {
+        readFields(chkpointData);
+        for (Integer id : idList) {
+          if (!chkpoints.containsKey(id)) {
+            chkpoints.put(id, new Checkpoint());
+          }
+        }
+        return;
+      }
+    }
     for (Integer id : idList) {
       Checkpoint checkpoint = new Checkpoint();
       checkpoint.read(checkpointProvider, getChkpointKey(superKey, id));
       chkpoints.put(id, checkpoint);
+      if (singleFile && !checkpoint.getPartitionsCheckpoint().isEmpty()) {
+        // carry the checkpoints of the minute files over to the single file
+        dirtyIds.add(id);
+      }
     }
   }
 
   @Override
-  public void clear() {
+  public synchronized void clear() {
+    pending.clear();
+    dirtyIds.clear();
     chkpoints.clear();
   }
 
-  public void migrateCheckpoint(Map<PartitionId, PartitionId> defaultAndNewPidMap) {
+  /**
+   * The snapshot holds the pending checkpoints, and the minutes to be written
+   * by it.
+   */
+  @Override
+  public synchronized CheckpointList snapshot() {
+    materialize();
+    CheckpointList snapshot = new CheckpointList(idList, singleFile);
+    for (Map.Entry<Integer, Checkpoint> entry : chkpoints.entrySet()) {
+      snapshot.chkpoints.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    snapshot.dirtyIds.addAll(dirtyIds);
+    return snapshot;
+  }
+
+  /**
+   * Minutes written by the snapshot are not written again, unless they
+   * changed after the snapshot was taken.
+   */
+  @Override
+  public synchronized void committed(ConsumerCheckpoint snapshot) {
+    CheckpointList written = (CheckpointList) snapshot;
+    Iterator<Integer> it = dirtyIds.iterator();
+    while (it.hasNext()) {
+      Integer id = it.next();
+      if (!written.dirtyIds.contains(id) && chkpoints.get(id) != null
+          && chkpoints.get(id).equals(written.chkpoints.get(id))) {
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized void migrateCheckpoint(
+      Map<PartitionId, PartitionId> defaultAndNewPidMap) {
+    materialize();
     boolean migrateRequired = false;
     for (Map.Entry<Integer, Checkpoint> entry : chkpoints.entrySet()) {
       Checkpoint checkpoint = chkpoints.get(entry.getKey());
@@ -154,6 +315,7 @@ public class CheckpointList implements ConsumerCheckpoint {
         }
       }
       chkpoints.put(entry.getKey(), newCheckpoint);
+      dirtyIds.add(entry.getKey());
     }
   }
 }
@@ -35,4 +35,15 @@ public interface ConsumerCheckpoint {
       throws IOException;
 
   public void clear();
+
+  /**
+   * Returns a copy which can be written while this checkpoint keeps
+   * changing.
+   */
+  public ConsumerCheckpoint snapshot();
+
+  /**
+   * Called after a snapshot of this checkpoint is written.
+   */
+  public void committed(ConsumerCheckpoint snapshot);
 }
@@ -252,7 +252,8 @@ public class DatabusConsumer extends AbstractMessagingDatabusConsumer
     if (streamType.equals(StreamType.COLLECTOR)) {
       currentCheckpoint = new Checkpoint();
     } else {
-      currentCheckpoint = new CheckpointList(partitionMinList);
+      currentCheckpoint = new CheckpointList(partitionMinList,
+          singleCheckpointFile);
     }
   }
 }
@@ -0,0 +1,96 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.inmobi.databus.files.CollectorFile;
+import com.inmobi.databus.files.DatabusStreamFile;
+import com.inmobi.databus.files.HadoopStreamFile;
+import com.inmobi.databus.files.StreamFile;
+import com.inmobi.databus.partition.DeltaPartitionCheckPoint;
+import com.inmobi.databus.partition.PartitionCheckpoint;
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.databus.readers.DatabusStreamReader;
+
+/**
+ * Gives the minute of the file each queue entry was read from. The minute
+ * is computed once per file of a partition, as the entries read from a file
+ * share its stream file.
+ */
+class EntryTimestamps {
+
+  /**
+   * Time of the entries whose file is not known. They are taken first.
+   */
+  static final long UNKNOWN = Long.MIN_VALUE;
+
+  private final Map<PartitionId, StreamFile> files =
+      new HashMap<PartitionId, StreamFile>();
+  private final Map<PartitionId, Long> minutes =
+      new HashMap<PartitionId, Long>();
+
+  /**
+   * Returns the minute of the file of the entry in millis, or
+   * {@link #UNKNOWN}.
+   */
+  long get(QueueEntry entry) {
+    StreamFile file = getStreamFile(entry.getMessageChkpoint());
+    if (file == null) {
+      return UNKNOWN;
+    }
+    PartitionId id = entry.getPartitionId();
+    if (files.get(id) != file) {
+      files.put(id, file);
+      minutes.put(id, getMinute(file));
+    }
+    return minutes.get(id);
+  }
+
+
+  private static StreamFile getStreamFile(MessageCheckpoint checkpoint) {
+    if (checkpoint instanceof PartitionCheckpoint) {
+      return ((PartitionCheckpoint) checkpoint).getStreamFile();
+    } else if (checkpoint instanceof DeltaPartitionCheckPoint) {
+      return ((DeltaPartitionCheckPoint) checkpoint).getStreamFile();
+    }
+    return null;
+  }
+
+  static long getMinute(StreamFile file) {
+    Date minute = null;
+    try {
+      if (file instanceof CollectorFile) {
+        minute = ((CollectorFile) file).getTimestamp();
+      } else if (file instanceof DatabusStreamFile) {
+        minute = ((DatabusStreamFile) file).getCollectorFile().getTimestamp();
+      } else if (file instanceof HadoopStreamFile) {
+        minute = DatabusStreamReader.getDateFromCheckpointPath(
+            ((HadoopStreamFile) file).getCheckpointPath());
+      }
+    } catch (RuntimeException e) {
+      minute = null;
+    }
+    return minute == null ? UNKNOWN : minute.getTime();
+  }
+}
@@ -0,0 +1,68 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Set;
+
+import com.inmobi.databus.partition.PartitionId;
+
+/**
+ * Decides the partition whose message the consumer gets next, when the
+ * consumer buffer keeps the messages of each partition apart.
+ *
+ * The policy is told the first entry, or head, of each partition as it
+ * changes, so that it can keep the partitions in a heap or a list rather
+ * than look at all of them for every entry. Calls to a policy are
+ * serialized by the buffer.
+ */
+public interface MergePolicy {
+
+  /**
+   * Called when the entry becomes the head of its partition, that is when
+   * it is added to an empty partition or the entry before it is taken.
+   */
+  void added(QueueEntry head);
+
+  /**
+   * Returns the partition whose head is taken next, or null to hold back
+   * all the heads for now. Called only when some partition has a head.
+   */
+  PartitionId select();
+
+  /**
+   * Called after the head of the partition selected is taken out of the
+   * buffer, before the next entry of the partition is added as its head.
+   */
+  void taken(QueueEntry entry);
+
+  /**
+   * Called when the head of a partition is removed from the buffer without
+   * being selected, before the next entry of the partition is added as its
+   * head.
+   */
+  void removed(QueueEntry head);
+
+  /**
+   * Drops all the heads. Called when the buffer is emptied and when the
+   * consumer starts reading the given partitions.
+   */
+  void reset(Set<PartitionId> partitions);
+}
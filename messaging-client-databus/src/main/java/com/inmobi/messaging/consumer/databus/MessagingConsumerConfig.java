@@ -39,6 +39,23 @@ public interface MessagingConsumerConfig {
       "messaging.consumer.checkpoint.dir";
   public static final String DEFAULT_CHECKPOINT_DIR = ".";
 
+  /**
+   * Whether the checkpoints of all the minutes of the stream are stored as
+   * a single file instead of a file per minute. Applies to the local, merged
+   * and hadoop streams.
+   */
+  public static final String singleCheckpointFileConfig =
+      "messaging.consumer.checkpoint.singlefile";
+  public static final boolean DEFAULT_SINGLE_CHECKPOINT_FILE = false;
+
+  /**
+   * When com.inmobi.messaging.checkpoint.LocalCheckpointProvider forces the
+   * checkpoints to the disk. One of always, batch or none.
+   */
+  public static final String checkpointFsyncConfig =
+      "messaging.consumer.checkpoint.fsync";
+  public static final String DEFAULT_CHECKPOINT_FSYNC = "batch";
+
   public static final String consumerPrincipal =
       "messaging.consumer.principal.name";
   public static final String consumerKeytab =
@@ -48,6 +65,106 @@ public interface MessagingConsumerConfig {
       "messaging.consumer.waittime.forfilecreate";
   public static final long DEFAULT_WAIT_TIME_FOR_FILE_CREATE = 1000; //1 second
 
+  /**
+   * Time in milliseconds of the first wait for a new file or a flush. It is
+   * doubled on each wait in which nothing changed, up to the configured wait
+   * times. Zero makes every wait the configured wait time.
+   */
+  public static final String minWaitTimeConfig =
+      "messaging.consumer.waittime.min";
+  public static final long DEFAULT_MIN_WAIT_TIME = 0;
+
+  /**
+   * Number of files after the current one which are opened ahead of reading
+   * them, for local, merged and hadoop streams. Zero disables prefetching.
+   */
+  public static final String prefetchDepthConfig =
+      "messaging.consumer.prefetch.depth";
+  public static final int DEFAULT_PREFETCH_DEPTH = 0;
+
+  /**
+   * Maximum number of messages read ahead from each prefetched file.
+   */
+  public static final String prefetchBufferSizeConfig =
+      "messaging.consumer.prefetch.buffer.size";
+  public static final int DEFAULT_PREFETCH_BUFFER_SIZE = 1000;
+
+  /**
+   * Whether the collector directory is listed again only when its
+   * modification time changed, adding just the new files to the listing.
+   */
+  public static final String incrementalListingConfig =
+      "messaging.consumer.collector.listing.incremental";
+  public static final boolean DEFAULT_INCREMENTAL_LISTING = false;
+
+  /**
+   * Whether the collector reader keeps the file being written open while
+   * waiting for it to grow, reopening it only when the open stream can not
+   * see the flushed data.
+   */
+  public static final String tailFollowConfig =
+      "messaging.consumer.collector.tailfollow";
+  public static final boolean DEFAULT_TAIL_FOLLOW = false;
+
+  /**
+   * Whether checkpoints carry the byte offset of the checkpointed line, so
+   * that a restarted reader seeks to it instead of skipping lines. Older
+   * clients can not read such checkpoints, so enable it only once every
+   * consumer of the checkpoint directory is upgraded.
+   */
+  public static final String checkpointOffsetsConfig =
+      "messaging.consumer.checkpoint.offsets";
+  public static final boolean DEFAULT_CHECKPOINT_OFFSETS = false;
+
+  /**
+   * Time in milliseconds for which a directory listing is shared by the
+   * partition readers of the consumer. Zero disables sharing.
+   */
+  public static final String listingCacheTtlConfig =
+      "messaging.consumer.listing.cache.ttl";
+  public static final long DEFAULT_LISTING_CACHE_TTL = 0;
+
+  /**
+   * Number of threads shared by the partition readers of the consumer. The
+   * readers yield the threads while they wait for data. Zero runs each
+   * partition reader on a thread of its own.
+   */
+  public static final String readerPoolSizeConfig =
+      "messaging.consumer.reader.pool.size";
+  public static final int DEFAULT_READER_POOL_SIZE = 0;
+
+  /**
+   * Class name of the {@link MergePolicy} deciding the partition whose
+   * message is consumed next. When set, the buffer keeps a bounded queue for
+   * each partition. When not set, the partitions share one queue in the
+   * order the messages are read.
+   */
+  public static final String mergePolicyConfig =
+      "messaging.consumer.merge.policy.classname";
+
+  /**
+   * Size of the queue of each partition, when a merge policy is configured.
+   */
+  public static final String partitionQueueSizeConfig =
+      "messaging.consumer.merge.partition.buffer.size";
+  public static final int DEFAULT_PARTITION_QUEUE_SIZE = 1000;
+
+  /**
+   * Comma separated name:weight pairs for the {@link WeightedMergePolicy},
+   * where the name is a partition or a cluster.
+   */
+  public static final String mergeWeightsConfig =
+      "messaging.consumer.merge.weights";
+
+  /**
+   * Time in milliseconds for which the {@link TimeOrderedMergePolicy} waits
+   * for a lagging partition before giving out the messages of later minutes
+   * of the other partitions.
+   */
+  public static final String reorderWindowConfig =
+      "messaging.consumer.merge.reorder.window";
+  public static final long DEFAULT_REORDER_WINDOW = 60000;
+
   public static final String inputFormatClassNameConfig =
       "messaging.consumer.inputformat.classname";
   public static final String DEFAULT_INPUT_FORMAT_CLASSNAME =
@@ -0,0 +1,132 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.inmobi.databus.partition.PartitionId;
+
+/**
+ * Takes the entry read from the oldest minute among the partitions having
+ * entries, which is a k-way merge of the partitions by minute over a heap of
+ * their heads. The partition which is furthest behind is read first, so that
+ * the lag of the partitions stays close. Heads of the same minute are taken
+ * in the order they were added.
+ */
+public class OldestFirstMergePolicy implements MergePolicy {
+
+  /**
+   * Head of a partition in the heap.
+   */
+  protected static class Head implements Comparable<Head> {
+    private final PartitionId partitionId;
+    private final long time;
+    private final long seq;
+    private final long addedAt;
+
+    Head(PartitionId partitionId, long time, long seq, long addedAt) {
+      this.partitionId = partitionId;
+      this.time = time;
+      this.seq = seq;
+      this.addedAt = addedAt;
+    }
+
+    public PartitionId getPartitionId() {
+      return partitionId;
+    }
+
+    /**
+     * Returns the minute of the file of the entry, in millis.
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Returns the time in millis at which the entry became the head.
+     */
+    public long getAddedAt() {
+      return addedAt;
+    }
+
+    @Override
+    public int compareTo(Head other) {
+      if (time != other.time) {
+        return time < other.time ? -1 : 1;
+      }
+      return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+    }
+  }
+
+  private final EntryTimestamps timestamps = new EntryTimestamps();
+  private final PriorityQueue<Head> heads = new PriorityQueue<Head>();
+  private long seq = 0;
+
+  /**
+   * Returns the minute of the file of the entry in millis, or
+   * {@link EntryTimestamps#UNKNOWN}.
+   */
+  protected long getTime(QueueEntry entry) {
+    return timestamps.get(entry);
+  }
+
+  @Override
+  public void added(QueueEntry head) {
+    heads.add(new Head(head.getPartitionId(), getTime(head), seq++,
+        System.currentTimeMillis()));
+  }
+
+  @Override
+  public PartitionId select() {
+    Head oldest = heads.peek();
+    return oldest == null ? null : oldest.getPartitionId();
+  }
+
+  /**
+   * Returns the oldest head, null if no partition has a head.
+   */
+  protected Head getOldest() {
+    return heads.peek();
+  }
+
+  @Override
+  public void taken(QueueEntry entry) {
+    heads.poll();
+  }
+
+  @Override
+  public void removed(QueueEntry head) {
+    Iterator<Head> it = heads.iterator();
+    while (it.hasNext()) {
+      if (it.next().getPartitionId().equals(head.getPartitionId())) {
+        it.remove();
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void reset(Set<PartitionId> partitions) {
+    heads.clear();
+  }
+}
@@ -0,0 +1,261 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.BaseMessageConsumerStatsExposer;
+import com.inmobi.messaging.consumer.MessageHandler;
+
+/**
+ * Dispatches the entries of the consumer buffer to a pool of workers which
+ * run the {@link MessageHandler}.
+ *
+ * All entries of a partition go to the same worker, so messages of a
+ * partition are handled in order. Each worker remembers the checkpoint of
+ * the last entry it finished for every partition, which is what mark commits.
+ *
+ * If the handler fails on a message, the checkpoint of its partition stays
+ * before that message, the later entries of the partition are dropped, and
+ * the dispatcher stops as if {@link #stop()} were called.
+ */
+class ParallelMessageDispatcher {
+
+  private static final Log LOG = LogFactory.getLog(
+      ParallelMessageDispatcher.class);
+  private static final long POLL_INTERVAL_MILLIS = 100;
+  // tells a worker that no more entries would be dispatched
+  private static final QueueEntry STOP_ENTRY = new QueueEntry(null, null,
+      null);
+
+  private final BlockingQueue<QueueEntry> buffer;
+  private final int numReaders;
+  private final MessageHandler handler;
+  private final BaseMessageConsumerStatsExposer metrics;
+  private final Worker[] workers;
+  private final Thread dispatcherThread;
+  private volatile boolean stopped = false;
+  private volatile int closedReaders = 0;
+  // first error thrown by the handler
+  private volatile Throwable failure;
+
+  ParallelMessageDispatcher(BlockingQueue<QueueEntry> buffer, int numReaders,
+      MessageHandler handler, int numWorkers, int workerQueueSize,
+      BaseMessageConsumerStatsExposer metrics, String threadNamePrefix) {
+    this.buffer = buffer;
+    this.numReaders = numReaders;
+    this.handler = handler;
+    this.metrics = metrics;
+    this.workers = new Worker[numWorkers];
+    for (int i = 0; i < numWorkers; i++) {
+      workers[i] = new Worker(workerQueueSize, threadNamePrefix + "-worker-"
+          + i);
+    }
+    this.dispatcherThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        dispatch();
+      }
+    }, threadNamePrefix + "-dispatcher");
+  }
+
+  void start() {
+    for (Worker worker : workers) {
+      worker.thread.start();
+    }
+    dispatcherThread.start();
+  }
+
+  private void dispatch() {
+    try {
+      while (!stopped && closedReaders < numReaders) {
+        QueueEntry entry = buffer.poll(POLL_INTERVAL_MILLIS,
+            TimeUnit.MILLISECONDS);
+        if (entry == null) {
+          continue;
+        }
+        if (!(entry.getMessage() instanceof Message)) {
+          // EOFMessage, the reader of the partition is closed
+          closedReaders++;
+        }
+        getWorker(entry.getPartitionId()).queue.put(entry);
+      }
+      if (closedReaders == numReaders) {
+        LOG.info("All partition readers are closed");
+      }
+    } catch (InterruptedException e) {
+      LOG.info("Dispatcher interrupted");
+    } finally {
+      for (Worker worker : workers) {
+        worker.stop();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of partition readers whose EOF was dispatched.
+   */
+  int getClosedReaders() {
+    return closedReaders;
+  }
+
+  /**
+   * Returns the first error thrown by the handler, null if it did not fail.
+   */
+  Throwable getFailure() {
+    return failure;
+  }
+
+  private synchronized void fail(Throwable th) {
+    if (failure == null) {
+      failure = th;
+    }
+    stopped = true;
+  }
+
+  private Worker getWorker(PartitionId id) {
+    return workers[(id.hashCode() & Integer.MAX_VALUE) % workers.length];
+  }
+
+  /**
+   * Stops dispatching and waits for the workers to handle the entries
+   * already dispatched to them.
+   */
+  void stop() throws InterruptedException {
+    stopped = true;
+    dispatcherThread.join();
+    for (Worker worker : workers) {
+      worker.thread.join();
+    }
+  }
+
+  /**
+   * Waits for all the workers to finish, which happens once all the partition
+   * readers are closed or the dispatcher is stopped.
+   *
+   * @return true if the workers finished within timeout
+   */
+  boolean awaitTermination(long timeout, TimeUnit timeunit)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeunit.toMillis(timeout);
+    for (Worker worker : workers) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return !worker.thread.isAlive();
+      }
+      worker.thread.join(remaining);
+    }
+    for (Worker worker : workers) {
+      if (worker.thread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Moves the checkpoints of the entries handled since the previous call
+   * into the passed map, keyed by partition. The value is null for a
+   * partition whose handled entries did not carry a checkpoint.
+   */
+  void drainFinishedCheckpoints(
+      Map<PartitionId, MessageCheckpoint> checkpoints) {
+    for (Worker worker : workers) {
+      synchronized (worker.finished) {
+        checkpoints.putAll(worker.finished);
+        worker.finished.clear();
+      }
+    }
+  }
+
+  private class Worker implements Runnable {
+    private final BlockingQueue<QueueEntry> queue;
+    private final Map<PartitionId, MessageCheckpoint> finished =
+        new HashMap<PartitionId, MessageCheckpoint>();
+    // partitions whose message the handler failed on
+    private final Set<PartitionId> failed = new HashSet<PartitionId>();
+    private final Thread thread;
+
+    Worker(int queueSize, String name) {
+      this.queue = new LinkedBlockingQueue<QueueEntry>(queueSize);
+      this.thread = new Thread(this, name);
+    }
+
+    void stop() {
+      // the queue is never full for long as the worker keeps draining it
+      while (true) {
+        try {
+          queue.put(STOP_ENTRY);
+          return;
+        } catch (InterruptedException e) {
+          LOG.warn("Interrupted while stopping worker " + thread.getName());
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        QueueEntry entry;
+        try {
+          entry = queue.take();
+        } catch (InterruptedException e) {
+          LOG.warn("Worker " + thread.getName() + " interrupted");
+          return;
+        }
+        if (entry == STOP_ENTRY) {
+          return;
+        }
+        PartitionId id = entry.getPartitionId();
+        if (failed.contains(id)) {
+          continue;
+        }
+        if (entry.getMessage() instanceof Message) {
+          try {
+            handler.handle((Message) entry.getMessage());
+          } catch (Throwable th) {
+            LOG.error("Error while handling message of partition " + id
+                + ", stopping parallel consumption", th);
+            failed.add(id);
+            fail(th);
+            continue;
+          }
+          metrics.incrementMessagesConsumed();
+        }
+        synchronized (finished) {
+          finished.put(id, AbstractMessagingDatabusConsumer.mergeCheckpoint(
+              finished.get(id), entry.getMessageChkpoint()));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,433 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.inmobi.databus.partition.PartitionId;
+
+/**
+ * Consumer buffer which keeps a bounded queue for each partition, and hands
+ * out the entries in the order decided by a {@link MergePolicy}.
+ *
+ * A partition reader blocks only on its own queue, so a fast partition can
+ * not fill the buffer and starve the others. The policy may hold back the
+ * entries for a while, in which case the buffer has entries but none can be
+ * taken.
+ */
+public class PartitionMergeBuffer extends AbstractQueue<QueueEntry>
+    implements BlockingQueue<QueueEntry> {
+
+  // time after which a held back entry is offered to the policy again
+  private static final long HOLD_RECHECK_MILLIS = 100;
+
+  private final int partitionCapacity;
+  private final MergePolicy policy;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  // guarded by lock
+  private final Map<PartitionId, LinkedList<QueueEntry>> queues =
+      new LinkedHashMap<PartitionId, LinkedList<QueueEntry>>();
+  private int count = 0;
+
+  public PartitionMergeBuffer(int partitionCapacity, MergePolicy policy) {
+    if (partitionCapacity <= 0) {
+      throw new IllegalArgumentException("Partition capacity should be"
+          + " positive");
+    }
+    this.partitionCapacity = partitionCapacity;
+    this.policy = policy;
+  }
+
+  public MergePolicy getPolicy() {
+    return policy;
+  }
+
+  private LinkedList<QueueEntry> getQueue(PartitionId id) {
+    LinkedList<QueueEntry> queue = queues.get(id);
+    if (queue == null) {
+      queue = new LinkedList<QueueEntry>();
+      queues.put(id, queue);
+    }
+    return queue;
+  }
+
+  /**
+   * Tells the policy the partitions which are going to add entries.
+   */
+  public void setPartitions(Set<PartitionId> partitions) {
+    lock.lock();
+    try {
+      policy.reset(partitions);
+      for (LinkedList<QueueEntry> queue : queues.values()) {
+        if (!queue.isEmpty()) {
+          policy.added(queue.getFirst());
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void enqueue(LinkedList<QueueEntry> queue, QueueEntry entry) {
+    queue.add(entry);
+    count++;
+    if (queue.size() == 1) {
+      policy.added(entry);
+    }
+    // the policy may take this entry, or an entry held back for it
+    notEmpty.signalAll();
+  }
+
+  /*
+   * Takes out the entry selected by the policy, null if the policy holds
+   * back the entries. Called with the lock held.
+   */
+  private QueueEntry dequeue() {
+    if (count == 0) {
+      return null;
+    }
+    PartitionId selected = policy.select();
+    if (selected == null) {
+      return null;
+    }
+    LinkedList<QueueEntry> queue = queues.get(selected);
+    if (queue == null || queue.isEmpty()) {
+      throw new IllegalStateException("Merge policy selected " + selected
+          + " which has no entries");
+    }
+    QueueEntry entry = queue.removeFirst();
+    count--;
+    policy.taken(entry);
+    if (!queue.isEmpty()) {
+      policy.added(queue.getFirst());
+    }
+    // readers of all the partitions wait on the same condition
+    notFull.signalAll();
+    return entry;
+  }
+
+  @Override
+  public void put(QueueEntry entry) throws InterruptedException {
+    checkEntry(entry);
+    lock.lockInterruptibly();
+    try {
+      LinkedList<QueueEntry> queue = getQueue(entry.getPartitionId());
+      while (queue.size() >= partitionCapacity) {
+        notFull.await();
+      }
+      enqueue(queue, entry);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(QueueEntry entry) {
+    checkEntry(entry);
+    lock.lock();
+    try {
+      LinkedList<QueueEntry> queue = getQueue(entry.getPartitionId());
+      if (queue.size() >= partitionCapacity) {
+        return false;
+      }
+      enqueue(queue, entry);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(QueueEntry entry, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    checkEntry(entry);
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      LinkedList<QueueEntry> queue = getQueue(entry.getPartitionId());
+      while (queue.size() >= partitionCapacity) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = notFull.awaitNanos(nanos);
+      }
+      enqueue(queue, entry);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public QueueEntry take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      QueueEntry entry;
+      while ((entry = dequeue()) == null) {
+        if (count == 0) {
+          notEmpty.await();
+        } else {
+          notEmpty.await(HOLD_RECHECK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+      }
+      return entry;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public QueueEntry poll(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      QueueEntry entry;
+      while ((entry = dequeue()) == null) {
+        if (nanos <= 0) {
+          return null;
+        }
+        if (count == 0) {
+          nanos = notEmpty.awaitNanos(nanos);
+        } else {
+          long recheck = Math.min(nanos,
+              TimeUnit.MILLISECONDS.toNanos(HOLD_RECHECK_MILLIS));
+          nanos -= recheck - notEmpty.awaitNanos(recheck);
+        }
+      }
+      return entry;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public QueueEntry poll() {
+    lock.lock();
+    try {
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the first entry of the first partition having entries, which
+   * need not be the entry taken next.
+   */
+  @Override
+  public QueueEntry peek() {
+    lock.lock();
+    try {
+      for (LinkedList<QueueEntry> queue : queues.values()) {
+        if (!queue.isEmpty()) {
+          return queue.getFirst();
+        }
+      }
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    lock.lock();
+    try {
+      return partitionCapacity * Math.max(1, queues.size()) - count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int drainTo(Collection<? super QueueEntry> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super QueueEntry> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    lock.lock();
+    try {
+      int n = 0;
+      QueueEntry entry;
+      while (n < maxElements && (entry = dequeue()) != null) {
+        c.add(entry);
+        n++;
+      }
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    lock.lock();
+    try {
+      queues.clear();
+      count = 0;
+      policy.reset(Collections.<PartitionId>emptySet());
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (!(o instanceof QueueEntry)) {
+      return false;
+    }
+    lock.lock();
+    try {
+      LinkedList<QueueEntry> queue =
+          queues.get(((QueueEntry) o).getPartitionId());
+      int index = queue == null ? -1 : queue.indexOf(o);
+      if (index < 0) {
+        return false;
+      }
+      QueueEntry entry = queue.remove(index);
+      count--;
+      if (index == 0) {
+        headRemoved(queue, entry);
+      }
+      notFull.signalAll();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    return removeEntries(c, true);
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    return removeEntries(c, false);
+  }
+
+  /*
+   * Removes the entries which are in the collection, or which are not.
+   */
+  private boolean removeEntries(Collection<?> c, boolean inCollection) {
+    if (c == null) {
+      throw new NullPointerException();
+    }
+    lock.lock();
+    try {
+      boolean changed = false;
+      for (LinkedList<QueueEntry> queue : queues.values()) {
+        if (queue.isEmpty()) {
+          continue;
+        }
+        QueueEntry head = queue.getFirst();
+        boolean headGone = false;
+        Iterator<QueueEntry> it = queue.iterator();
+        while (it.hasNext()) {
+          QueueEntry entry = it.next();
+          if (c.contains(entry) == inCollection) {
+            it.remove();
+            count--;
+            changed = true;
+            headGone |= entry == head;
+          }
+        }
+        if (headGone) {
+          headRemoved(queue, head);
+        }
+      }
+      if (changed) {
+        notFull.signalAll();
+      }
+      return changed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * Tells the policy that the head of the queue was removed, and about the
+   * entry which replaces it. Called with the lock held.
+   */
+  private void headRemoved(LinkedList<QueueEntry> queue, QueueEntry head) {
+    policy.removed(head);
+    if (!queue.isEmpty()) {
+      policy.added(queue.getFirst());
+    }
+  }
+
+  /**
+   * Returns an iterator over a snapshot of the entries, partition by
+   * partition. The iterator does not support remove, which is done with
+   * {@link #remove(Object)}, {@link #removeAll} or {@link #retainAll}
+   * instead.
+   */
+  @Override
+  public Iterator<QueueEntry> iterator() {
+    lock.lock();
+    try {
+      List<QueueEntry> entries = new ArrayList<QueueEntry>(count);
+      for (LinkedList<QueueEntry> queue : queues.values()) {
+        entries.addAll(queue);
+      }
+      return Collections.unmodifiableList(entries).iterator();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static void checkEntry(QueueEntry entry) {
+    if (entry == null) {
+      throw new NullPointerException();
+    }
+  }
+}
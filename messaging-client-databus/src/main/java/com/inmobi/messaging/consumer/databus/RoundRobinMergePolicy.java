@@ -0,0 +1,61 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.LinkedList;
+import java.util.Set;
+
+import com.inmobi.databus.partition.PartitionId;
+
+/**
+ * Takes one entry from each partition in turn, so that a partition with a
+ * lot of data available does not hold back the others.
+ */
+public class RoundRobinMergePolicy implements MergePolicy {
+
+  // partitions having a head, in turn
+  private final LinkedList<PartitionId> turns = new LinkedList<PartitionId>();
+
+  @Override
+  public void added(QueueEntry head) {
+    turns.add(head.getPartitionId());
+  }
+
+  @Override
+  public PartitionId select() {
+    return turns.peek();
+  }
+
+  @Override
+  public void taken(QueueEntry entry) {
+    turns.remove(entry.getPartitionId());
+  }
+
+  @Override
+  public void removed(QueueEntry head) {
+    turns.remove(head.getPartitionId());
+  }
+
+  @Override
+  public void reset(Set<PartitionId> partitions) {
+    turns.clear();
+  }
+}
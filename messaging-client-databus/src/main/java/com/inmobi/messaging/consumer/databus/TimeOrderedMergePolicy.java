@@ -0,0 +1,183 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.EOFMessage;
+import com.inmobi.messaging.metrics.DatabusConsumerStatsExposer;
+
+/**
+ * Merges the partitions in time order of the minute of their files, for
+ * consumers reading several collectors, root directories or clusters.
+ *
+ * Unlike {@link OldestFirstMergePolicy}, the oldest head is held back while
+ * a partition without entries may still add an older one, that is while
+ * the partition last added an entry of an older minute. A partition which
+ * added nothing for the reorder window does not hold back the others, and a
+ * head is not held back for longer than the reorder window. The entries are
+ * in time order as long as no partition lags by more than the window.
+ *
+ * The watermark is the minute up to which all the partitions have been
+ * read. It is exposed with {@link DatabusConsumerStatsExposer}, along with
+ * the number of entries given out after an entry of a later minute.
+ */
+public class TimeOrderedMergePolicy extends OldestFirstMergePolicy {
+
+  private final long reorderWindow;
+  // latest minute added by each partition being read
+  private final Map<PartitionId, Long> latestTimes =
+      new HashMap<PartitionId, Long>();
+  // time at which each partition being read last added an entry
+  private final Map<PartitionId, Long> lastAddedAt =
+      new HashMap<PartitionId, Long>();
+  // partitions being read which have no head
+  private final Set<PartitionId> waiting = new HashSet<PartitionId>();
+  private long lastTakenTime = EntryTimestamps.UNKNOWN;
+  private volatile long watermark = EntryTimestamps.UNKNOWN;
+  private volatile DatabusConsumerStatsExposer metrics;
+
+  public TimeOrderedMergePolicy(ClientConfig config) {
+    this(config.getLong(MessagingConsumerConfig.reorderWindowConfig,
+        MessagingConsumerConfig.DEFAULT_REORDER_WINDOW));
+  }
+
+  public TimeOrderedMergePolicy(long reorderWindow) {
+    this.reorderWindow = reorderWindow;
+  }
+
+  public void setMetrics(DatabusConsumerStatsExposer metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the minute in millis up to which all the partitions have been
+   * read, or Long.MIN_VALUE if it is not known.
+   */
+  public long getWatermark() {
+    return watermark;
+  }
+
+  @Override
+  public void added(QueueEntry head) {
+    super.added(head);
+    PartitionId id = head.getPartitionId();
+    long time = getTime(head);
+    Long latest = latestTimes.get(id);
+    if (latest == null || time > latest) {
+      latestTimes.put(id, time);
+    }
+    lastAddedAt.put(id, System.currentTimeMillis());
+    waiting.remove(id);
+  }
+
+  @Override
+  public PartitionId select() {
+    Head oldest = getOldest();
+    if (oldest == null) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    long mark = oldest.getTime();
+    for (PartitionId id : waiting) {
+      if (now - lastAddedAt.get(id) < reorderWindow) {
+        mark = Math.min(mark, latestTimes.get(id));
+      }
+    }
+    updateWatermark(mark);
+    if (oldest.getTime() <= mark
+        || now - oldest.getAddedAt() >= reorderWindow) {
+      return oldest.getPartitionId();
+    }
+    return null;
+  }
+
+  private void updateWatermark(long mark) {
+    if (mark > watermark) {
+      watermark = mark;
+      DatabusConsumerStatsExposer m = metrics;
+      if (m != null) {
+        m.setMergeWatermark(mark);
+      }
+    }
+  }
+
+  @Override
+  public void taken(QueueEntry entry) {
+    super.taken(entry);
+    if (!headGone(entry)) {
+      return;
+    }
+    long time = getTime(entry);
+    if (time < lastTakenTime) {
+      DatabusConsumerStatsExposer m = metrics;
+      if (m != null) {
+        m.incrementMessagesOutOfOrder();
+      }
+    } else {
+      lastTakenTime = time;
+    }
+  }
+
+  @Override
+  public void removed(QueueEntry head) {
+    super.removed(head);
+    headGone(head);
+  }
+
+  /*
+   * Marks the partition of the head as waiting for its next head. Returns
+   * false if the head was the end of the partition.
+   */
+  private boolean headGone(QueueEntry head) {
+    PartitionId id = head.getPartitionId();
+    if (head.getMessage() instanceof EOFMessage) {
+      // the partition would not add any more entries
+      latestTimes.remove(id);
+      lastAddedAt.remove(id);
+      waiting.remove(id);
+      return false;
+    }
+    waiting.add(id);
+    return true;
+  }
+
+  @Override
+  public void reset(Set<PartitionId> partitions) {
+    super.reset(partitions);
+    latestTimes.clear();
+    lastAddedAt.clear();
+    waiting.clear();
+    lastTakenTime = EntryTimestamps.UNKNOWN;
+    watermark = EntryTimestamps.UNKNOWN;
+    long now = System.currentTimeMillis();
+    for (PartitionId id : partitions) {
+      latestTimes.put(id, EntryTimestamps.UNKNOWN);
+      lastAddedAt.put(id, now);
+      waiting.add(id);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.messaging.ClientConfig;
+
+/**
+ * Takes entries from the partitions in proportion to their weights, with
+ * start-time fair queuing. A partition which had no entries for a while does
+ * not get a burst of turns when its entries arrive.
+ *
+ * The weights are configured with
+ * {@link MessagingConsumerConfig#mergeWeightsConfig} as comma separated
+ * name:weight pairs, where the name is the partition, such as
+ * cluster-collector, or its cluster. Other partitions have the weight 1.
+ */
+public class WeightedMergePolicy implements MergePolicy {
+
+  private final Map<String, Integer> weights;
+  // start tag of the entry taken last
+  private double virtualTime = 0;
+  // finish tag of the last head of each partition
+  private final Map<PartitionId, Double> finishTags =
+      new HashMap<PartitionId, Double>();
+  // heads by start tag, and in the order they were added for equal tags
+  private final PriorityQueue<TaggedHead> heads =
+      new PriorityQueue<TaggedHead>();
+  private long seq = 0;
+
+  private static class TaggedHead implements Comparable<TaggedHead> {
+    private final PartitionId partitionId;
+    private final double startTag;
+    private final long seq;
+
+    TaggedHead(PartitionId partitionId, double startTag, long seq) {
+      this.partitionId = partitionId;
+      this.startTag = startTag;
+      this.seq = seq;
+    }
+
+    @Override
+    public int compareTo(TaggedHead other) {
+      if (startTag != other.startTag) {
+        return startTag < other.startTag ? -1 : 1;
+      }
+      return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+    }
+  }
+
+  public WeightedMergePolicy(ClientConfig config) {
+    this(parseWeights(config.getString(
+        MessagingConsumerConfig.mergeWeightsConfig)));
+  }
+
+  public WeightedMergePolicy(Map<String, Integer> weights) {
+    this.weights = weights;
+  }
+
+  static Map<String, Integer> parseWeights(String weightsStr) {
+    Map<String, Integer> weights = new HashMap<String, Integer>();
+    if (weightsStr == null) {
+      return weights;
+    }
+    for (String pair : weightsStr.split(",")) {
+      pair = pair.trim();
+      if (pair.isEmpty()) {
+        continue;
+      }
+      int index = pair.lastIndexOf(':');
+      if (index <= 0) {
+        throw new IllegalArgumentException("Invalid weight " + pair + " in "
+            + MessagingConsumerConfig.mergeWeightsConfig);
+      }
+      int weight = Integer.parseInt(pair.substring(index + 1).trim());
+      if (weight <= 0) {
+        throw new IllegalArgumentException("Weight should be positive in "
+            + pair);
+      }
+      weights.put(pair.substring(0, index).trim(), weight);
+    }
+    return weights;
+  }
+
+  int getWeight(PartitionId id) {
+    Integer weight = weights.get(id.toString());
+    if (weight == null) {
+      weight = weights.get(id.getCluster());
+    }
+    return weight == null ? 1 : weight;
+  }
+
+  @Override
+  public void added(QueueEntry head) {
+    PartitionId id = head.getPartitionId();
+    Double finishTag = finishTags.get(id);
+    double startTag = finishTag == null ? virtualTime
+        : Math.max(virtualTime, finishTag);
+    finishTags.put(id, startTag + 1.0 / getWeight(id));
+    heads.add(new TaggedHead(id, startTag, seq++));
+  }
+
+  @Override
+  public PartitionId select() {
+    TaggedHead first = heads.peek();
+    return first == null ? null : first.partitionId;
+  }
+
+  @Override
+  public void taken(QueueEntry entry) {
+    TaggedHead first = heads.poll();
+    if (first != null) {
+      virtualTime = first.startTag;
+    }
+  }
+
+  @Override
+  public void removed(QueueEntry head) {
+    Iterator<TaggedHead> it = heads.iterator();
+    while (it.hasNext()) {
+      TaggedHead tagged = it.next();
+      if (tagged.partitionId.equals(head.getPartitionId())) {
+        it.remove();
+        // the partition gets back the turn of the removed head
+        finishTags.put(tagged.partitionId, tagged.startTag);
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void reset(Set<PartitionId> partitions) {
+    heads.clear();
+    finishTags.clear();
+    virtualTime = 0;
+  }
+}
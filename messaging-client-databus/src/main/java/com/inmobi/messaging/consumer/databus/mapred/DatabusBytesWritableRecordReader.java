@@ -21,6 +21,7 @@ package com.inmobi.messaging.consumer.databus.mapred;
  */
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.LongWritable;
@@ -57,12 +58,12 @@ public class DatabusBytesWritableRecordReader implements RecordReader<LongWritab
     messageValue.clear();
     boolean ret = databusReader.next(key, messageValue);
     if (ret) {
-      // Get the byte array corresponding to the value read. Note that ByteBuffer.array()
-      // should only be called when we know that the underlying array exactly contains 
-      // data payload (ie. no other leading/trailing characters). Here, databusReader.next()
-      // will set a new ByteBuffer wrapped with a new byte[] each time, hence it is safe.
-      byte[] data = messageValue.getData().array();
-      value.set(data, 0, data.length);
+      // Get the bytes corresponding to the value read. The array offset and
+      // position are honoured, so that the ByteBuffer set by
+      // databusReader.next() need not exactly fit its array.
+      ByteBuffer data = messageValue.getData();
+      value.set(data.array(), data.arrayOffset() + data.position(),
+          data.remaining());
     }
     return ret;
   }
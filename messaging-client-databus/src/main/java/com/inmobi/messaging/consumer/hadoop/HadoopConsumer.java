@@ -109,7 +109,8 @@ public class HadoopConsumer extends AbstractMessagingDatabusConsumer
 
   @Override
   protected void createCheckpoint() {
-    currentCheckpoint = new CheckpointList(partitionMinList);
+    currentCheckpoint = new CheckpointList(partitionMinList,
+        singleCheckpointFile);
   }
 
 }
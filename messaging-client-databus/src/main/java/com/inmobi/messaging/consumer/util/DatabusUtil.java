@@ -21,6 +21,7 @@ package com.inmobi.messaging.consumer.util;
  */
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.hadoop.fs.Path;
@@ -67,10 +68,80 @@ public class DatabusUtil {
     msg.set(decodeByteBuffer(line));
   }
 
+  /**
+   * Decodes the base64 encoded message held in the given range of the array,
+   * without copying the encoded bytes.
+   */
+  public static Message decodeMessage(byte[] buf, int offset, int length) {
+    return new Message(AuditUtil.removeHeader(
+        decodeBase64(buf, offset, length)));
+  }
+
   private static ByteBuffer decodeByteBuffer(byte[] line) {
     byte[] data = Base64.decodeBase64(line);
     return AuditUtil.removeHeader(data);
 
   }
 
+  private static final byte PAD = '=';
+  private static final byte[] DECODE_TABLE = new byte[128];
+
+  static {
+    Arrays.fill(DECODE_TABLE, (byte) -1);
+    String alphabet =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for (int i = 0; i < alphabet.length(); i++) {
+      DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+    }
+    // url safe alphabet, accepted by commons-codec as well
+    DECODE_TABLE['-'] = 62;
+    DECODE_TABLE['_'] = 63;
+  }
+
+  private static int decodeValue(byte b) {
+    if (b < 0) {
+      return -1;
+    }
+    return DECODE_TABLE[b];
+  }
+
+  /*
+   * Decodes like Base64.decodeBase64: bytes outside the alphabet are ignored
+   * and decoding stops at the first pad byte.
+   */
+  static byte[] decodeBase64(byte[] buf, int offset, int length) {
+    int end = offset + length;
+    int numChars = 0;
+    for (int i = offset; i < end; i++) {
+      byte b = buf[i];
+      if (b == PAD) {
+        break;
+      }
+      if (decodeValue(b) >= 0) {
+        numChars++;
+      }
+    }
+    byte[] data = new byte[(int) (numChars * 6L / 8)];
+    int bits = 0;
+    int numBits = 0;
+    int pos = 0;
+    for (int i = offset; i < end && pos < data.length; i++) {
+      byte b = buf[i];
+      if (b == PAD) {
+        break;
+      }
+      int value = decodeValue(b);
+      if (value < 0) {
+        continue;
+      }
+      bits = (bits << 6) | value;
+      numBits += 6;
+      if (numBits >= 8) {
+        numBits -= 8;
+        data[pos++] = (byte) (bits >> numBits);
+      }
+    }
+    return data;
+  }
+
 }
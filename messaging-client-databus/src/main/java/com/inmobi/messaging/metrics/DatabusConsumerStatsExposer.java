@@ -21,6 +21,7 @@ package com.inmobi.messaging.metrics;
  */
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.inmobi.messaging.consumer.BaseMessageConsumerStatsExposer;
 
@@ -28,14 +29,50 @@ public class DatabusConsumerStatsExposer extends
     BaseMessageConsumerStatsExposer {
 
   public static String CONSUMER_NUMBER_CONTEXT = "consumerNumber";
+  /*
+   * minute in millis up to which the partitions merged in time order have
+   * been read, 0 if it is not known
+   */
+  public static final String MERGE_WATERMARK = "mergeWatermark";
+  /*
+   * messages which the time ordered merge gave out after a message of a
+   * later minute, because the reorder window expired
+   */
+  public static final String MESSAGES_OUT_OF_ORDER = "messagesOutOfOrder";
 
   Integer consumerNumber;
+  private final AtomicLong mergeWatermark = new AtomicLong(0);
+  private final AtomicLong messagesOutOfOrder = new AtomicLong(0);
+
   public DatabusConsumerStatsExposer(String topicName, String consumerName,
       int consumerNumber) {
     super(topicName, consumerName);
     this.consumerNumber = consumerNumber;
   }
 
+  public void setMergeWatermark(long watermark) {
+    mergeWatermark.set(watermark);
+  }
+
+  public void incrementMessagesOutOfOrder() {
+    messagesOutOfOrder.incrementAndGet();
+  }
+
+  public long getMergeWatermark() {
+    return mergeWatermark.get();
+  }
+
+  public long getMessagesOutOfOrder() {
+    return messagesOutOfOrder.get();
+  }
+
+  @Override
+  protected void addToStatsMap(Map<String, Number> statsMap) {
+    super.addToStatsMap(statsMap);
+    statsMap.put(MERGE_WATERMARK, getMergeWatermark());
+    statsMap.put(MESSAGES_OUT_OF_ORDER, getMessagesOutOfOrder());
+  }
+
   protected void addToContextsMap(Map<String, String> contexts) {
     super.addToContextsMap(contexts);
     contexts.put(CONSUMER_NUMBER_CONTEXT, consumerNumber.toString());
@@ -59,6 +59,19 @@ public class PartitionReaderStatsExposer extends
    * last time when reader waited for a new file
    */
   public static final String READER_WAIT_LAG_TIME = "readerWaitLagTime";
+  /*
+   * Number of files which were opened ahead of reading them
+   */
+  public static final String PREFETCHED_FILES = "prefetchedFiles";
+  /*
+   * Number of file system calls answered from the cached directory listings
+   */
+  public static final String SAVED_FS_OPS = "savedFsOps";
+  /*
+   * Time in milli seconds for which the last data found after a wait was
+   * available before the reader got to it
+   */
+  public static final String FRESHNESS_LAG = "freshnessLag";
 
   private final AtomicLong numMessagesReadFromSource = new AtomicLong(0);
   private final AtomicLong numMessagesAddedToBuffer = new AtomicLong(0);
@@ -70,11 +83,14 @@ public class PartitionReaderStatsExposer extends
   private final AtomicLong openOps = new AtomicLong(0);
   private final AtomicLong fileStatusOps = new AtomicLong(0);
   private final AtomicLong existsOps = new AtomicLong(0);
+  private final AtomicLong prefetchedFiles = new AtomicLong(0);
+  private final AtomicLong savedFsOps = new AtomicLong(0);
   private final String pid;
   private final String fsUri;
   private final String FS_LIST, FS_OPEN, FS_GET_FILE_STATUS, FS_EXISTS;
   private final AtomicLong latestMinuteAlreadyRead = new AtomicLong(0);
   private final AtomicLong lastWaitTimeForNewFile = new AtomicLong(0);
+  private final AtomicLong freshnessLag = new AtomicLong(0);
 
   public PartitionReaderStatsExposer(String topicName, String consumerName,
       String pid, int consumerNumber, String fsUri) {
@@ -127,6 +143,14 @@ public class PartitionReaderStatsExposer extends
     numberRecordReaders.incrementAndGet();
   }
 
+  public void incrementPrefetchedFiles() {
+    prefetchedFiles.incrementAndGet();
+  }
+
+  public void incrementSavedFsOps() {
+    savedFsOps.incrementAndGet();
+  }
+
   public void setLatestMinuteAlreadyRead(Date currentpathTimeStamp) {
     latestMinuteAlreadyRead.set(currentpathTimeStamp.getTime());
   }
@@ -135,6 +159,10 @@ public class PartitionReaderStatsExposer extends
     lastWaitTimeForNewFile.set(lastWaitTime);
   }
 
+  public void setFreshnessLag(long lagMillis) {
+    freshnessLag.set(lagMillis);
+  }
+
   @Override
   protected void addToStatsMap(Map<String, Number> map) {
     map.put(MESSAGES_READ_FROM_SOURCE, getMessagesReadFromSource());
@@ -151,6 +179,9 @@ public class PartitionReaderStatsExposer extends
     map.put(LATEST_DIRECTORY_LAG_TIME, getLatestDirectoryLagTime());
     map.put(LAST_WAIT_TIME_FOR_NEW_FILE, getLastWaitTimeForNewFile());
     map.put(READER_WAIT_LAG_TIME, getReaderWaitLagTime());
+    map.put(PREFETCHED_FILES, getPrefetchedFiles());
+    map.put(SAVED_FS_OPS, getSavedFsOps());
+    map.put(FRESHNESS_LAG, getFreshnessLag());
   }
 
   @Override
@@ -199,6 +230,18 @@ public class PartitionReaderStatsExposer extends
     return existsOps.get();
   }
 
+  public long getPrefetchedFiles() {
+    return prefetchedFiles.get();
+  }
+
+  public long getSavedFsOps() {
+    return savedFsOps.get();
+  }
+
+  public long getFreshnessLag() {
+    return freshnessLag.get();
+  }
+
   public long getLatestMinuteAlreadyRead() {
     return latestMinuteAlreadyRead.get();
   }
@@ -0,0 +1,137 @@
+package com.inmobi.databus.files;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestFileMap {
+
+  private final List<FileStatus> listing = new ArrayList<FileStatus>();
+
+  private final FileMap<CollectorFile> fmap = new FileMap<CollectorFile>() {
+    @Override
+    protected TreeMap<CollectorFile, FileStatus> createFilesMap() {
+      return new TreeMap<CollectorFile, FileStatus>();
+    }
+
+    @Override
+    protected CollectorFile getStreamFile(FileStatus file) {
+      return getStreamFile(file.getPath().getName());
+    }
+
+    @Override
+    protected CollectorFile getStreamFile(String fileName) {
+      return CollectorFile.create(fileName);
+    }
+
+    @Override
+    protected PathFilter createPathFilter() {
+      return null;
+    }
+
+    @Override
+    protected void buildList() throws IOException {
+      for (FileStatus file : listing) {
+        addPath(file);
+      }
+    }
+  };
+
+  private FileStatus[] createFiles(Date start, int count) {
+    FileStatus[] files = new FileStatus[count];
+    Calendar cal = Calendar.getInstance();
+    cal.setTime(start);
+    for (int i = 0; i < count; i++) {
+      String name = new CollectorFile("stream", cal.getTime(), 0).toString();
+      files[i] = new FileStatus(0, false, 1, 1, cal.getTimeInMillis(),
+          new Path("/databus/data/stream/collector", name));
+      cal.add(Calendar.MINUTE, 1);
+    }
+    return files;
+  }
+
+  @Test
+  public void testIterator() throws IOException {
+    FileStatus[] files = createFiles(new Date(), 6);
+    listing.clear();
+    for (int i = 0; i < 5; i++) {
+      listing.add(files[i]);
+    }
+    fmap.build();
+    Assert.assertTrue(fmap.setIterator(files[2]));
+    Assert.assertTrue(fmap.hasNext());
+    Assert.assertEquals(fmap.getNext(), files[3]);
+    Assert.assertEquals(fmap.getNext(), files[4]);
+    Assert.assertFalse(fmap.hasNext());
+    Assert.assertNull(fmap.getNext());
+
+    Assert.assertTrue(fmap.setIterator(files[0]));
+    Assert.assertEquals(fmap.getNext(), files[1]);
+
+    // a file which is not in the map leaves nothing to iterate
+    Assert.assertFalse(fmap.setIterator(files[5]));
+    Assert.assertFalse(fmap.hasNext());
+    Assert.assertNull(fmap.getNext());
+  }
+
+  @Test
+  public void testBuildIncremental() throws IOException {
+    FileStatus[] files = createFiles(new Date(), 6);
+    listing.clear();
+    for (int i = 0; i < 3; i++) {
+      listing.add(files[i]);
+    }
+    fmap.build();
+    Assert.assertTrue(fmap.setIterator(files[1]));
+    Assert.assertEquals(fmap.getNext(), files[2]);
+    Assert.assertFalse(fmap.hasNext());
+
+    // files listed later are merged in and the iterator goes on to them
+    listing.clear();
+    for (int i = 2; i < 6; i++) {
+      listing.add(files[i]);
+    }
+    fmap.buildIncremental();
+    Assert.assertEquals(fmap.getSize(), 6);
+    Assert.assertEquals(fmap.getFirstFile(), files[0]);
+    Assert.assertTrue(fmap.hasNext());
+    Assert.assertEquals(fmap.getNext(), files[3]);
+    Assert.assertEquals(fmap.getNext(), files[4]);
+    Assert.assertEquals(fmap.getNext(), files[5]);
+    Assert.assertFalse(fmap.hasNext());
+
+    // a full build drops the files no longer listed
+    fmap.build();
+    Assert.assertEquals(fmap.getSize(), 4);
+    Assert.assertEquals(fmap.getFirstFile(), files[2]);
+  }
+}
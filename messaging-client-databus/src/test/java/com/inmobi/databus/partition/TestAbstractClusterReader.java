@@ -29,6 +29,8 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -262,6 +264,59 @@ public abstract class TestAbstractClusterReader {
     Assert.assertTrue(prMetrics.getCumulativeNanosForFetchMessage() > 0);
   }
 
+  public void testReadFromStartOnPool() throws Exception {
+    initializeMinList();
+    initializePartitionCheckpointList();
+    Map<Integer, PartitionCheckpoint> expectedDeltaPck = new HashMap<Integer,
+        PartitionCheckpoint>();
+    // smaller than a file, so that the reader waits for buffer space
+    LinkedBlockingQueue<QueueEntry> smallBuffer =
+        new LinkedBlockingQueue<QueueEntry>(10);
+    String fsUri = fs.getUri().toString();
+    PartitionReaderStatsExposer prMetrics = new PartitionReaderStatsExposer(
+        testStream, "c1", partitionId.toString(), consumerNumber, fsUri);
+    preader = new PartitionReader(partitionId, partitionCheckpointList, fs,
+        smallBuffer, streamDir, conf, inputFormatClass,
+        DatabusStreamWaitingReader.getDateFromStreamDir(streamDir,
+            databusFiles[0].getParent()),
+            1000, isDatabusData(), prMetrics, true, partitionMinList, null);
+    ScheduledExecutorService pool = new ScheduledThreadPoolExecutor(1);
+    try {
+      preader.start("pool", pool);
+      Date fromTime = getTimeStampFromFile(databusFiles[0]);
+      Date toTime = getTimeStampFromFile(databusFiles[1]);
+      TestUtil.prepareExpectedDeltaPck(fromTime, toTime, expectedDeltaPck,
+          fs.getFileStatus(databusFiles[0]), streamDir, partitionMinList,
+          partitionCheckpointList, true, false);
+      TestUtil.assertBuffer(DatabusStreamWaitingReader.getHadoopStreamFile(
+          fs.getFileStatus(databusFiles[0])), 1, 0, 100, partitionId,
+          smallBuffer, isDatabusData(), expectedDeltaPck);
+      TestUtil.prepareExpectedDeltaPck(fromTime, toTime, expectedDeltaPck,
+          fs.getFileStatus(databusFiles[0]), streamDir, partitionMinList,
+          partitionCheckpointList, false, false);
+      TestUtil.assertBuffer(DatabusStreamWaitingReader.getHadoopStreamFile(
+          fs.getFileStatus(databusFiles[1])), 2, 0, 100, partitionId,
+          smallBuffer, isDatabusData(), expectedDeltaPck);
+      expectedDeltaPck.clear();
+      fromTime = getTimeStampFromFile(databusFiles[1]);
+      toTime = getTimeStampFromFile(databusFiles[2]);
+      TestUtil.prepareExpectedDeltaPck(fromTime, toTime, expectedDeltaPck,
+          fs.getFileStatus(databusFiles[1]), streamDir, partitionMinList,
+          partitionCheckpointList, false, false);
+      TestUtil.assertBuffer(DatabusStreamWaitingReader.getHadoopStreamFile(
+          fs.getFileStatus(databusFiles[2])), 3, 0, 100, partitionId,
+          smallBuffer, isDatabusData(), expectedDeltaPck);
+      Assert.assertTrue(smallBuffer.take().getMessage() instanceof EOFMessage);
+      preader.join();
+      Assert.assertTrue(smallBuffer.isEmpty());
+    } finally {
+      pool.shutdownNow();
+    }
+    Assert.assertEquals(prMetrics.getHandledExceptions(), 0);
+    Assert.assertEquals(prMetrics.getMessagesReadFromSource(), 300);
+    Assert.assertEquals(prMetrics.getMessagesAddedToBuffer(), 300);
+  }
+
   public void testReadFromCheckpoint() throws Exception {
     initializeMinList();
     initializePartitionCheckpointList();
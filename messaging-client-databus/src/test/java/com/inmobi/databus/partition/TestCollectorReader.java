@@ -39,6 +39,7 @@ import com.inmobi.databus.partition.PartitionReader;
 import com.inmobi.databus.readers.CollectorStreamReader;
 import com.inmobi.databus.readers.LocalStreamCollectorReader;
 import com.inmobi.messaging.EOFMessage;
+import com.inmobi.messaging.consumer.databus.MessagingConsumerConfig;
 import com.inmobi.messaging.consumer.databus.QueueEntry;
 import com.inmobi.messaging.consumer.databus.StreamType;
 import com.inmobi.messaging.consumer.util.ClusterUtil;
@@ -444,7 +445,7 @@ public class TestCollectorReader {
    */
   @Test
   public void testReaderWithStopTime()
-      throws IOException, InterruptedException {
+      throws Exception {
     CollectorReaderStatsExposer prMetrics = new CollectorReaderStatsExposer(
         testStream, "c1", partitionId.toString(), consumerNumber, fsUri);
     Date firstFileTimestamp = CollectorStreamReader.getDateFromCollectorFile(files[0]);
@@ -585,6 +586,42 @@ public class TestCollectorReader {
     Assert.assertTrue(prMetrics.getCumulativeNanosForFetchMessage() > 0);
   }
 
+  @Test
+  public void testCheckpointOffsets() throws Exception {
+    CollectorReaderStatsExposer prMetrics = new CollectorReaderStatsExposer(
+        testStream, "c1", partitionId.toString(), consumerNumber, fsUri);
+    // checkpoints carry no offset unless enabled
+    preader = new PartitionReader(partitionId, new PartitionCheckpoint(
+        CollectorStreamReader.getCollectorFile(files[4]), 40), conf, fs,
+        collectorDir, streamsLocalDir, buffer, testStream, null,
+        10, 1000, prMetrics, true, null);
+    preader.init();
+    preader.execute();
+    PartitionCheckpoint pck = (PartitionCheckpoint) buffer.take()
+        .getMessageChkpoint();
+    Assert.assertEquals(pck.getLineNum(), 41);
+    Assert.assertEquals(pck.getOffset(), -1);
+    preader.close();
+    preader.join();
+    buffer.clear();
+
+    Configuration offsetConf = new Configuration(conf);
+    offsetConf.setBoolean(MessagingConsumerConfig.checkpointOffsetsConfig,
+        true);
+    preader = new PartitionReader(partitionId, new PartitionCheckpoint(
+        CollectorStreamReader.getCollectorFile(files[4]), 40), offsetConf, fs,
+        collectorDir, streamsLocalDir, buffer, testStream, null,
+        10, 1000, prMetrics, true, null);
+    preader.init();
+    preader.execute();
+    pck = (PartitionCheckpoint) buffer.take().getMessageChkpoint();
+    Assert.assertEquals(pck.getLineNum(), 41);
+    Assert.assertTrue(pck.getOffset() > 0);
+    preader.close();
+    preader.join();
+    buffer.clear();
+  }
+
   /**
    *  Disable this test if partition reader should not read from start of stream
    *  if check point does not exist.
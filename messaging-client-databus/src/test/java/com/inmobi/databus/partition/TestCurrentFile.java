@@ -36,6 +36,7 @@ import org.testng.annotations.Test;
 import com.inmobi.databus.partition.PartitionId;
 import com.inmobi.databus.partition.PartitionReader;
 import com.inmobi.databus.readers.CollectorStreamReader;
+import com.inmobi.messaging.consumer.databus.MessagingConsumerConfig;
 import com.inmobi.messaging.consumer.databus.QueueEntry;
 import com.inmobi.messaging.consumer.databus.StreamType;
 import com.inmobi.messaging.consumer.util.ClusterUtil;
@@ -102,9 +103,38 @@ public class TestCurrentFile {
 
   @Test
   public void testReadFromCurrentScribeFile() throws Exception {
+    readFromCurrentScribeFile(conf, collectorName);
+  }
+
+  /*
+   * The data flushed to the block being written is not in the length of the
+   * file known to the NameNode, which the adaptive waits must not rely on.
+   */
+  @Test(timeOut = 60000)
+  public void testReadFromCurrentScribeFileWithMinWait() throws Exception {
+    Configuration readerConf = new Configuration(conf);
+    readerConf.setLong(MessagingConsumerConfig.minWaitTimeConfig, 10);
+    readFromCurrentScribeFile(readerConf, "collector2");
+  }
+
+  @Test(timeOut = 60000)
+  public void testTailFollowCurrentScribeFile() throws Exception {
+    Configuration readerConf = new Configuration(conf);
+    readerConf.setBoolean(MessagingConsumerConfig.tailFollowConfig, true);
+    readerConf.setLong(MessagingConsumerConfig.minWaitTimeConfig, 10);
+    readFromCurrentScribeFile(readerConf, "collector3");
+  }
+
+  private void readFromCurrentScribeFile(Configuration readerConf,
+      String collector) throws Exception {
+    msgIndex = 300;
+    PartitionId partitionId = new PartitionId(clusterName, collector);
+    Path collectorDir = DatabusUtil.getCollectorStreamDir(
+        new Path(cluster.getRootDir()), testStream, collector);
+    fs.mkdirs(collectorDir);
     CollectorReaderStatsExposer prMetrics = new CollectorReaderStatsExposer(
         testStream, "c1", partitionId.toString(), consumerNumber, fsUri);
-    preader = new PartitionReader(partitionId, null, conf, fs,
+    preader = new PartitionReader(partitionId, null, readerConf, fs,
         collectorDir, streamsLocalDir, buffer, testStream,
         CollectorStreamReader.getDateFromCollectorFile(currentScribeFile), 1000,
         1000, prMetrics, null);
@@ -122,6 +152,7 @@ public class TestCurrentFile {
     Assert.assertEquals(((CollectorReader)preader.getReader())
         .getReader().getClass().getName(),
         CollectorStreamReader.class.getName());
+    // flushed while the file is open, within its first block
     writeMessages(out, 20);
     TestUtil.assertBuffer(CollectorStreamReader.getCollectorFile(
         currentScribeFile), 4, 10, 20, partitionId, buffer, true, null);
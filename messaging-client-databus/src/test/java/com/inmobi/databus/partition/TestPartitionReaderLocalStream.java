@@ -68,6 +68,11 @@ public class TestPartitionReaderLocalStream extends TestAbstractClusterReader {
     super.testReadFromStart();
   }
 
+  @Test
+  public void testReadFromStartOnPool() throws Exception {
+    super.testReadFromStartOnPool();
+  }
+
   @Test
   public void testReadFromCheckpoint() throws Exception {
     super.testReadFromCheckpoint();
@@ -0,0 +1,53 @@
+package com.inmobi.databus.readers;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestAdaptiveWait {
+
+  @Test
+  public void testBackoff() {
+    AdaptiveWait wait = new AdaptiveWait(100, 1000);
+    Assert.assertTrue(wait.isAdaptive());
+    Assert.assertEquals(wait.next(), 100);
+    Assert.assertEquals(wait.next(), 200);
+    Assert.assertEquals(wait.next(), 400);
+    Assert.assertEquals(wait.next(), 800);
+    Assert.assertEquals(wait.next(), 1000);
+    Assert.assertEquals(wait.next(), 1000);
+    wait.reset();
+    Assert.assertEquals(wait.next(), 100);
+  }
+
+  @Test
+  public void testFixed() {
+    AdaptiveWait wait = new AdaptiveWait(0, 1000);
+    Assert.assertFalse(wait.isAdaptive());
+    Assert.assertEquals(wait.next(), 1000);
+    Assert.assertEquals(wait.next(), 1000);
+    // a minimum above the maximum waits the maximum
+    wait = new AdaptiveWait(5000, 1000);
+    Assert.assertFalse(wait.isAdaptive());
+    Assert.assertEquals(wait.next(), 1000);
+  }
+}
@@ -33,6 +33,7 @@ import org.testng.annotations.Test;
 import com.inmobi.databus.partition.PartitionCheckpoint;
 import com.inmobi.databus.partition.PartitionId;
 import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.databus.MessagingConsumerConfig;
 import com.inmobi.messaging.consumer.util.ClusterUtil;
 import com.inmobi.messaging.consumer.util.MessageUtil;
 import com.inmobi.messaging.consumer.util.TestUtil;
@@ -196,6 +197,54 @@ public class TestCollectorStreamReader {
     Assert.assertTrue(metrics.getNumberRecordReaders() == 0);
   }
 
+  @Test
+  public void testIncrementalListing() throws Exception {
+    CollectorReaderStatsExposer metrics = new
+        CollectorReaderStatsExposer(testStream, "c1", partitionId.toString(),
+            consumerNumber, fsUri);
+    Configuration incrementalConf = new Configuration(conf);
+    incrementalConf.setBoolean(
+        MessagingConsumerConfig.incrementalListingConfig, true);
+    FileSystem fs = FileSystem.get(cluster.getHadoopConf());
+    cReader = new CollectorStreamReader(partitionId, fs, testStream,
+        TestUtil.getCollectorDir(cluster, testStream, collectorName),
+        10, 10, metrics, incrementalConf, true, null, true);
+    // let the modification time of the directory be older than the listing
+    Thread.sleep(1100);
+    cReader.build();
+    long listOps = metrics.getListOps();
+    cReader.build();
+    Assert.assertEquals(metrics.getListOps(), listOps);
+    Assert.assertEquals(metrics.getSavedFsOps(), 1);
+    cReader.initFromStart();
+    Assert.assertEquals(cReader.getCurrentFile().getName(), files[0]);
+
+    Path newFile = new Path(collectorDir, doesNotExist3);
+    Path movedFile = new Path(collectorDir.getParent(), files[0]);
+    try {
+      // new files are added after the last file
+      TestUtil.createEmptyFile(fs, collectorDir, doesNotExist3);
+      cReader.build();
+      Assert.assertEquals(metrics.getListOps(), listOps + 1);
+      Assert.assertEquals(cReader.getLastFile().getName(), doesNotExist3);
+      Assert.assertTrue(cReader.setIterator());
+
+      // files moved out of the directory are removed
+      fs.rename(new Path(collectorDir, files[0]), movedFile);
+      cReader.build();
+      Assert.assertEquals(cReader.getFirstFileInStream().getPath().getName(),
+          files[1]);
+      Assert.assertEquals(cReader.getLastFile().getName(), doesNotExist3);
+      Assert.assertFalse(cReader.setIterator());
+    } finally {
+      fs.delete(newFile, false);
+      if (fs.exists(movedFile)) {
+        fs.rename(movedFile, new Path(collectorDir, files[0]));
+      }
+    }
+    cReader.close();
+  }
+
   @Test
   public void testReadFromCheckpoint() throws Exception {
     CollectorReaderStatsExposer metrics = new
@@ -225,6 +274,45 @@ public class TestCollectorStreamReader {
     Assert.assertTrue(metrics.getNumberRecordReaders() == 0);
   }
 
+  @Test
+  public void testReadFromOffsetCheckpoint() throws Exception {
+    CollectorReaderStatsExposer metrics = new
+        CollectorReaderStatsExposer(testStream, "c1", partitionId.toString(),
+            consumerNumber, fsUri);
+    cReader = new CollectorStreamReader(partitionId,
+        FileSystem.get(cluster.getHadoopConf()), testStream,
+        TestUtil.getCollectorDir(cluster, testStream, collectorName),
+        10, 10, metrics, conf, true, null, true);
+    cReader.build();
+    cReader.initializeCurrentFile(new PartitionCheckpoint(
+        CollectorStreamReader.getCollectorFile(files[1]), 0));
+    cReader.openStream();
+    Assert.assertEquals(cReader.getCurrentOffset(), 0);
+    for (int i = 0; i < 20; i++) {
+      Assert.assertNotNull(cReader.readLine());
+    }
+    Assert.assertEquals(cReader.getCurrentLineNum(), 20);
+    long offset = cReader.getCurrentOffset();
+    Assert.assertTrue(offset > 0);
+    cReader.close();
+
+    // restart from the checkpoint with the offset
+    cReader = new CollectorStreamReader(partitionId,
+        FileSystem.get(cluster.getHadoopConf()), testStream,
+        TestUtil.getCollectorDir(cluster, testStream, collectorName),
+        10, 10, metrics, conf, true, null, true);
+    cReader.build();
+    cReader.initializeCurrentFile(new PartitionCheckpoint(
+        CollectorStreamReader.getCollectorFile(files[1]), 20, offset));
+    cReader.openStream();
+    Assert.assertEquals(cReader.getCurrentOffset(), offset);
+    readFile(1, 20);
+    readFile(2, 0);
+    cReader.close();
+    Assert.assertEquals(metrics.getHandledExceptions(), 0);
+    Assert.assertEquals(metrics.getMessagesReadFromSource(), 200);
+  }
+
   @Test
   public void testReadFromTimeStamp() throws Exception {
     CollectorReaderStatsExposer metrics = new 
@@ -20,6 +20,8 @@ package com.inmobi.databus.readers;
  * #L%
  */
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -29,7 +31,13 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.testng.Assert;
 import org.testng.annotations.AfterTest;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
@@ -90,6 +98,23 @@ public class TestHadoopStreamReader extends TestAbstractDatabusWaitingReader {
   }
 
   @Override
+  @Test
+  public void testSerialize() throws IOException {
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    // backing arrays longer than the values
+    Text text = new Text("a longer message");
+    text.set("msg");
+    BytesWritable bytes = new BytesWritable(new byte[] {1, 2, 3, 4});
+    bytes.setSize(2);
+    Writable[] values = {text, bytes, new IntWritable(5)};
+    for (Writable value : values) {
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      value.write(new DataOutputStream(expected));
+      Assert.assertEquals(DatabusStreamReader.serialize(value, buffer)
+          .getData().array(), expected.toByteArray());
+    }
+  }
+
   Path getStreamsDir() {
     return streamDir;
   }
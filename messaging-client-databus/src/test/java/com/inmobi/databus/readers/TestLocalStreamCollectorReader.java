@@ -182,10 +182,43 @@ public class TestLocalStreamCollectorReader {
     Assert.assertTrue(metrics.getListOps() > 0);
     Assert.assertTrue(metrics.getOpenOps() == 0);
     Assert.assertTrue(metrics.getFileStatusOps() > 0);
-    Assert.assertTrue(metrics.getExistsOps() > 0);
+    Assert.assertEquals(metrics.getExistsOps(), 0);
     Assert.assertTrue(metrics.getNumberRecordReaders() > 0);
   }
 
+  @Test
+  public void testSharedListing() throws Exception {
+    DirectoryListingCache listingCache = new DirectoryListingCache(60000);
+    CollectorReaderStatsExposer metrics1 = new
+        CollectorReaderStatsExposer(testStream, "c1", partitionId.toString(),
+            consumerNumber, fsUri);
+    CollectorReaderStatsExposer metrics2 = new
+        CollectorReaderStatsExposer(testStream, "c1", partitionId.toString(),
+            consumerNumber, fsUri);
+    LocalStreamCollectorReader reader1 = new LocalStreamCollectorReader(
+        partitionId, FileSystem.get(cluster.getHadoopConf()), testStream,
+        TestUtil.getStreamsLocalDir(cluster, testStream), conf, 0L,
+        metrics1, null);
+    LocalStreamCollectorReader reader2 = new LocalStreamCollectorReader(
+        partitionId, FileSystem.get(cluster.getHadoopConf()), testStream,
+        TestUtil.getStreamsLocalDir(cluster, testStream), conf, 0L,
+        metrics2, null);
+    reader1.setListingCache(listingCache);
+    reader2.setListingCache(listingCache);
+    reader1.build(CollectorStreamReader.getDateFromCollectorFile(files[0]));
+    Assert.assertTrue(metrics1.getListOps() > 0);
+    // the second reader gets the listings of the first one
+    reader2.build(CollectorStreamReader.getDateFromCollectorFile(files[0]));
+    Assert.assertEquals(metrics2.getListOps(), 0);
+    Assert.assertTrue(metrics2.getSavedFsOps() > 0);
+    reader1.initFromStart();
+    reader2.initFromStart();
+    Assert.assertEquals(reader1.getCurrentFile(), databusFiles[0]);
+    Assert.assertEquals(reader2.getCurrentFile(), databusFiles[0]);
+    reader1.close();
+    reader2.close();
+  }
+
   @Test
   public void testReadFromCheckpoint() throws Exception {
     CollectorReaderStatsExposer metrics = new 
@@ -213,7 +246,7 @@ public class TestLocalStreamCollectorReader {
     Assert.assertTrue(metrics.getListOps() > 0);
     Assert.assertTrue(metrics.getOpenOps() == 0);
     Assert.assertTrue(metrics.getFileStatusOps() > 0);
-    Assert.assertTrue(metrics.getExistsOps() > 0);
+    Assert.assertEquals(metrics.getExistsOps(), 0);
     Assert.assertTrue(metrics.getNumberRecordReaders() > 0);
   }
 
@@ -241,7 +274,7 @@ public class TestLocalStreamCollectorReader {
     Assert.assertTrue(metrics.getListOps() > 0);
     Assert.assertTrue(metrics.getOpenOps() == 0);
     Assert.assertTrue(metrics.getFileStatusOps() > 0);
-    Assert.assertTrue(metrics.getExistsOps() > 0);
+    Assert.assertEquals(metrics.getExistsOps(), 0);
     Assert.assertTrue(metrics.getNumberRecordReaders() > 0);
   }
 
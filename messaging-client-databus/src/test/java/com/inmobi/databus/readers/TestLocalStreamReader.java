@@ -75,6 +75,21 @@ public class TestLocalStreamReader extends TestAbstractDatabusWaitingReader {
     super.testReadFromStart();
   }
 
+  @Test
+  public void testReadFromStartWithPrefetch() throws Exception {
+    super.testReadFromStartWithPrefetch();
+  }
+
+  @Test
+  public void testReadFromStartOnReaderPool() throws Exception {
+    super.testReadFromStartOnReaderPool();
+  }
+
+  @Test
+  public void testListingCache() throws Exception {
+    super.testListingCache();
+  }
+
   @Test
   public void testReadFromCheckpoint() throws Exception {
     super.testReadFromCheckpoint();
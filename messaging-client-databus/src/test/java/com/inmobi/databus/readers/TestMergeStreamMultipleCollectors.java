@@ -121,7 +121,7 @@ public class TestMergeStreamMultipleCollectors {
     Assert.assertTrue(metrics.getListOps() > 0);
     Assert.assertTrue(metrics.getOpenOps() == 0);
     Assert.assertTrue(metrics.getFileStatusOps() > 0);
-    Assert.assertTrue(metrics.getExistsOps() > 0);
+    Assert.assertTrue(metrics.getSavedFsOps() > 0);
     Assert.assertTrue(metrics.getNumberRecordReaders() > 0);
   }
 }
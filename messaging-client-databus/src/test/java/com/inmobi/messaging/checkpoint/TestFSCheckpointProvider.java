@@ -0,0 +1,109 @@
+package com.inmobi.messaging.checkpoint;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class TestFSCheckpointProvider {
+  private final String dir = new File("target", "TestFSCheckpointProvider")
+      .getAbsolutePath();
+
+  @AfterMethod
+  public void cleanup() {
+    FileUtil.fullyDelete(new File(dir));
+  }
+
+  private void write(Path path, byte[] bytes) throws IOException {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    FSDataOutputStream out = fs.create(path);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  private byte[] withTrailer(byte[] checkpoint) {
+    byte[] trailer = FSCheckpointProvider.getTrailer(checkpoint);
+    byte[] file = Arrays.copyOf(checkpoint, checkpoint.length
+        + trailer.length);
+    System.arraycopy(trailer, 0, file, checkpoint.length, trailer.length);
+    return file;
+  }
+
+  @Test
+  public void testReadWrite() {
+    FSCheckpointProvider provider = new FSCheckpointProvider(dir);
+    Assert.assertNull(provider.read("key1"));
+    provider.checkpoint("key1", new byte[] {1, 2});
+    provider.checkpoint("key1", new byte[] {3});
+    Assert.assertEquals(provider.read("key1"), new byte[] {3});
+    provider.checkpoint("key2", new byte[0]);
+    Assert.assertEquals(provider.read("key2"), new byte[0]);
+  }
+
+  @Test
+  public void testRecoverCompleteNewCheckpoint() throws IOException {
+    FSCheckpointProvider provider = new FSCheckpointProvider(dir);
+    // failure after deleting the current checkpoint, before the rename
+    write(new Path(dir, "key1.ck.new"), withTrailer(new byte[] {1, 2, 3}));
+    Assert.assertEquals(provider.read("key1"), new byte[] {1, 2, 3});
+    Assert.assertTrue(new File(dir, "key1.ck").exists());
+    Assert.assertFalse(new File(dir, "key1.ck.new").exists());
+  }
+
+  @Test
+  public void testDeleteIncompleteNewCheckpoint() throws IOException {
+    FSCheckpointProvider provider = new FSCheckpointProvider(dir);
+    byte[] file = withTrailer(new byte[] {1, 2, 3});
+    // failure while writing the new checkpoint
+    write(new Path(dir, "key1.ck.new"), Arrays.copyOf(file,
+        file.length - 1));
+    Assert.assertNull(provider.read("key1"));
+    Assert.assertFalse(new File(dir, "key1.ck").exists());
+    Assert.assertFalse(new File(dir, "key1.ck.new").exists());
+
+    // corrupt checkpoint of the right length
+    file[0] = 9;
+    write(new Path(dir, "key1.ck.new"), file);
+    Assert.assertNull(provider.read("key1"));
+    Assert.assertFalse(new File(dir, "key1.ck.new").exists());
+  }
+
+  @Test
+  public void testReadWithoutTrailer() throws IOException {
+    FSCheckpointProvider provider = new FSCheckpointProvider(dir);
+    // checkpoint written before the trailer was added
+    write(new Path(dir, "key1.ck"), new byte[] {1, 2, 3});
+    Assert.assertEquals(provider.read("key1"), new byte[] {1, 2, 3});
+  }
+}
@@ -0,0 +1,124 @@
+package com.inmobi.messaging.checkpoint;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.inmobi.messaging.checkpoint.LocalCheckpointProvider.FsyncMode;
+
+public class TestLocalCheckpointProvider {
+  private final String dir = new File("target", "TestLocalCheckpointProvider")
+      .getAbsolutePath();
+
+  @AfterMethod
+  public void cleanup() {
+    FileUtil.fullyDelete(new File(dir));
+  }
+
+  @Test
+  public void testReadAfterReopen() throws IOException {
+    LocalCheckpointProvider provider = new LocalCheckpointProvider(dir,
+        FsyncMode.BATCH);
+    Assert.assertNull(provider.read("key1"));
+    provider.checkpoint("key1", new byte[] {1, 2});
+    provider.checkpoint("key2", new byte[] {3});
+    provider.flush();
+    provider.checkpoint("key1", new byte[] {4});
+    provider.flush();
+    provider.close();
+
+    provider = new LocalCheckpointProvider(dir, FsyncMode.BATCH);
+    Assert.assertEquals(provider.read("key1"), new byte[] {4});
+    Assert.assertEquals(provider.read("key2"), new byte[] {3});
+    provider.close();
+  }
+
+  @Test
+  public void testTornWriteFallsBackToPreviousGeneration()
+      throws IOException {
+    LocalCheckpointProvider provider = new LocalCheckpointProvider(dir,
+        FsyncMode.ALWAYS);
+    provider.checkpoint("key1", new byte[] {1});
+    provider.checkpoint("key1", new byte[] {2});
+    provider.close();
+
+    // the second generation is in the second slot, corrupt its payload
+    File file = new File(dir, LocalCheckpointProvider.FILE_NAME);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(16 + 64 * 1024 + 20);
+      raf.writeInt(12345);
+    } finally {
+      raf.close();
+    }
+    provider = new LocalCheckpointProvider(dir, FsyncMode.ALWAYS);
+    Assert.assertEquals(provider.read("key1"), new byte[] {1});
+    provider.close();
+  }
+
+  @Test
+  public void testGrow() throws IOException {
+    LocalCheckpointProvider provider = new LocalCheckpointProvider(dir,
+        FsyncMode.BATCH);
+    byte[] value = new byte[1024];
+    for (int i = 0; i < 200; i++) {
+      value[0] = (byte) i;
+      provider.checkpoint("key" + i, value);
+    }
+    provider.flush();
+    provider.close();
+
+    provider = new LocalCheckpointProvider(dir, FsyncMode.BATCH);
+    for (int i = 0; i < 200; i++) {
+      Assert.assertEquals(provider.read("key" + i)[0], (byte) i);
+    }
+    provider.close();
+  }
+
+  @Test
+  public void testSharedDir() throws IOException {
+    LocalCheckpointProvider provider = new LocalCheckpointProvider(dir,
+        FsyncMode.BATCH);
+    provider.checkpoint("key1", new byte[] {1});
+    try {
+      new LocalCheckpointProvider(dir, FsyncMode.BATCH);
+      Assert.fail("second provider on the same dir should fail");
+    } catch (RuntimeException e) {
+      // expected
+    }
+    // checkpoints of the first provider are intact
+    provider.checkpoint("key2", new byte[] {2});
+    provider.close();
+
+    // dir can be used once the first provider is closed
+    provider = new LocalCheckpointProvider(dir, FsyncMode.BATCH);
+    Assert.assertEquals(provider.read("key1"), new byte[] {1});
+    Assert.assertEquals(provider.read("key2"), new byte[] {2});
+    provider.close();
+  }
+}
@@ -20,16 +20,23 @@ package com.inmobi.messaging.consumer.databus;
  * #L%
  */
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.inmobi.databus.files.CollectorFile;
+import com.inmobi.databus.partition.DeltaPartitionCheckPoint;
 import com.inmobi.databus.partition.PartitionCheckpoint;
 import com.inmobi.databus.partition.PartitionId;
 import com.inmobi.databus.readers.CollectorStreamReader;
+import com.inmobi.messaging.checkpoint.CheckpointProvider;
 import com.inmobi.messaging.consumer.util.TestUtil;
 
 
@@ -60,4 +67,197 @@ public class TestCheckpointSerialization {
     Assert.assertEquals(map_cp2.get(id2), pcp2);
     Assert.assertNull(map_cp2.get(id3));
   }
+
+  @Test
+  public void testOffset() throws IOException {
+    PartitionId id1 = new PartitionId("cluster1", "collector1");
+    PartitionId id2 = new PartitionId("cluster1", "collector2");
+    PartitionId id3 = new PartitionId("cluster1", "collector3");
+    PartitionCheckpoint pcp1 = new PartitionCheckpoint(
+        CollectorStreamReader.getCollectorFile(TestUtil.files[0]), 100, 4096);
+    PartitionCheckpoint pcp2 = new PartitionCheckpoint(
+        CollectorStreamReader.getCollectorFile(TestUtil.files[1]), 0, 0);
+    PartitionCheckpoint pcp3 = new PartitionCheckpoint(
+        CollectorStreamReader.getCollectorFile(TestUtil.files[2]), -1);
+
+    Checkpoint ckPoint1 = new Checkpoint();
+    ckPoint1.set(id1, pcp1);
+    ckPoint1.set(id2, pcp2);
+    ckPoint1.set(id3, pcp3);
+    Checkpoint ckPoint2 = new Checkpoint(ckPoint1.toBytes());
+    Assert.assertEquals(ckPoint1, ckPoint2);
+    Map<PartitionId, PartitionCheckpoint> map_cp2 =
+        ckPoint2.getPartitionsCheckpoint();
+    Assert.assertEquals(map_cp2.get(id1).getLineNum(), 100);
+    Assert.assertEquals(map_cp2.get(id1).getOffset(), 4096);
+    Assert.assertEquals(map_cp2.get(id2).getLineNum(), 0);
+    Assert.assertEquals(map_cp2.get(id2).getOffset(), 0);
+    Assert.assertEquals(map_cp2.get(id3).getLineNum(), -1);
+    Assert.assertEquals(map_cp2.get(id3).getOffset(), -1);
+  }
+
+  @Test
+  public void testReadWithoutOffset() throws IOException {
+    // checkpoint in the layout written before offsets were added
+    PartitionId id1 = new PartitionId("cluster1", "collector1");
+    ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bOut);
+    out.writeInt(1);
+    id1.write(out);
+    out.writeBoolean(true);
+    out.writeUTF(CollectorFile.class.getCanonicalName());
+    CollectorStreamReader.getCollectorFile(TestUtil.files[0]).write(out);
+    out.writeLong(100);
+    Checkpoint ckPoint = new Checkpoint(bOut.toByteArray());
+    PartitionCheckpoint pcp = ckPoint.getPartitionsCheckpoint().get(id1);
+    Assert.assertEquals(pcp, new PartitionCheckpoint(
+        CollectorStreamReader.getCollectorFile(TestUtil.files[0]), 100));
+    Assert.assertEquals(pcp.getOffset(), -1);
+
+    // checkpoints without offset are still written in the old layout
+    Checkpoint ckPoint2 = new Checkpoint();
+    ckPoint2.set(id1, pcp);
+    Assert.assertEquals(ckPoint2.toBytes(), bOut.toByteArray());
+  }
+
+  @Test
+  public void testCoalesceDeltaCheckpoints() {
+    PartitionId id = new PartitionId("cluster1", null);
+    CollectorFile file1 = CollectorStreamReader.getCollectorFile(
+        TestUtil.files[0]);
+    CollectorFile file2 = CollectorStreamReader.getCollectorFile(
+        TestUtil.files[1]);
+    Map<Integer, PartitionCheckpoint> noTransitions =
+        new HashMap<Integer, PartitionCheckpoint>();
+    Map<Integer, PartitionCheckpoint> transitions =
+        new HashMap<Integer, PartitionCheckpoint>();
+    transitions.put(1, new PartitionCheckpoint(file1, -1));
+
+    Set<Integer> idList = new HashSet<Integer>();
+    idList.add(1);
+    idList.add(2);
+    CheckpointList checkpointList = new CheckpointList(idList);
+    checkpointList.set(id, new DeltaPartitionCheckPoint(file1, 10, 1,
+        noTransitions));
+    checkpointList.set(id, new DeltaPartitionCheckPoint(file1, 20, 1,
+        noTransitions));
+    checkpointList.set(id, new DeltaPartitionCheckPoint(file2, 5, 2,
+        transitions));
+    checkpointList.set(id, new DeltaPartitionCheckPoint(file2, 6, 2,
+        noTransitions));
+
+    Map<Integer, Checkpoint> checkpoints = checkpointList.getCheckpoints();
+    Assert.assertEquals(checkpoints.size(), 2);
+    Assert.assertEquals(checkpoints.get(1).getPartitionsCheckpoint().get(id),
+        new PartitionCheckpoint(file1, -1));
+    Assert.assertEquals(checkpoints.get(2).getPartitionsCheckpoint().get(id),
+        new PartitionCheckpoint(file2, 6));
+
+    // later positions in the same minute do not bring back older minutes
+    checkpointList.set(id, new DeltaPartitionCheckPoint(file2, 7, 2,
+        noTransitions));
+    checkpoints = checkpointList.getCheckpoints();
+    Assert.assertEquals(checkpoints.get(1).getPartitionsCheckpoint().get(id),
+        new PartitionCheckpoint(file1, -1));
+    Assert.assertEquals(checkpoints.get(2).getPartitionsCheckpoint().get(id),
+        new PartitionCheckpoint(file2, 7));
+  }
+
+  private static class InMemoryCheckpointProvider
+      implements CheckpointProvider {
+    private final Map<String, byte[]> checkpoints =
+        new HashMap<String, byte[]>();
+    private int numWrites = 0;
+
+    @Override
+    public byte[] read(String key) {
+      return checkpoints.get(key);
+    }
+
+    @Override
+    public void checkpoint(String key, byte[] checkpoint) {
+      numWrites++;
+      checkpoints.put(key, checkpoint);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private CheckpointList setCheckpoints(boolean singleFile) {
+    PartitionId id = new PartitionId("cluster1", null);
+    CollectorFile file1 = CollectorStreamReader.getCollectorFile(
+        TestUtil.files[0]);
+    Set<Integer> idList = new HashSet<Integer>();
+    for (int i = 0; i < 60; i++) {
+      idList.add(i);
+    }
+    CheckpointList checkpointList = new CheckpointList(idList, singleFile);
+    checkpointList.set(id, new DeltaPartitionCheckPoint(file1, 10, 1,
+        new HashMap<Integer, PartitionCheckpoint>()));
+    checkpointList.set(id, new DeltaPartitionCheckPoint(file1, 20, 2,
+        new HashMap<Integer, PartitionCheckpoint>()));
+    return checkpointList;
+  }
+
+  private void assertMinutes(CheckpointList actual, CheckpointList expected) {
+    for (int i = 1; i <= 2; i++) {
+      Assert.assertEquals(actual.getCheckpoints().get(i),
+          expected.getCheckpoints().get(i));
+    }
+  }
+
+  @Test
+  public void testWriteDirtyMinutes() throws IOException {
+    InMemoryCheckpointProvider provider = new InMemoryCheckpointProvider();
+    CheckpointList checkpointList = setCheckpoints(false);
+    checkpointList.write(provider, "key");
+    Assert.assertEquals(provider.numWrites, 2);
+    Assert.assertNotNull(provider.read(
+        CheckpointList.getChkpointKey("key", 1)));
+    Assert.assertNotNull(provider.read(
+        CheckpointList.getChkpointKey("key", 2)));
+    Assert.assertTrue(checkpointList.getDirtyIds().isEmpty());
+
+    // unchanged checkpoints are not written again
+    PartitionId id = new PartitionId("cluster1", null);
+    CollectorFile file1 = CollectorStreamReader.getCollectorFile(
+        TestUtil.files[0]);
+    checkpointList.set(id, new DeltaPartitionCheckPoint(file1, 20, 2,
+        new HashMap<Integer, PartitionCheckpoint>()));
+    checkpointList.write(provider, "key");
+    Assert.assertEquals(provider.numWrites, 2);
+    checkpointList.set(id, new DeltaPartitionCheckPoint(file1, 21, 2,
+        new HashMap<Integer, PartitionCheckpoint>()));
+    checkpointList.write(provider, "key");
+    Assert.assertEquals(provider.numWrites, 3);
+
+    CheckpointList readList = setCheckpoints(false);
+    readList.read(provider, "key");
+    assertMinutes(readList, checkpointList);
+  }
+
+  @Test
+  public void testSingleFile() throws IOException {
+    InMemoryCheckpointProvider provider = new InMemoryCheckpointProvider();
+    CheckpointList minuteFiles = setCheckpoints(false);
+    minuteFiles.write(provider, "key");
+
+    // per minute checkpoints are carried over to the single file
+    CheckpointList checkpointList = setCheckpoints(true);
+    checkpointList.read(provider, "key");
+    Assert.assertEquals(checkpointList.getDirtyIds().size(), 2);
+    checkpointList.write(provider, "key");
+    Assert.assertEquals(provider.numWrites, 3);
+    Assert.assertNotNull(provider.read(
+        CheckpointList.getSingleChkpointKey("key")));
+    checkpointList.write(provider, "key");
+    Assert.assertEquals(provider.numWrites, 3);
+
+    CheckpointList readList = setCheckpoints(true);
+    readList.read(provider, "key");
+    Assert.assertTrue(readList.getDirtyIds().isEmpty());
+    assertMinutes(readList, minuteFiles);
+  }
 }
@@ -27,12 +27,14 @@ import java.util.GregorianCalendar;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.testng.Assert;
 import org.testng.annotations.AfterTest;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
 import com.inmobi.databus.readers.CollectorStreamReader;
 import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.checkpoint.LocalCheckpointProvider;
 import com.inmobi.messaging.consumer.AbstractMessageConsumer;
 import com.inmobi.messaging.consumer.MessageConsumerFactory;
 import com.inmobi.messaging.consumer.util.ConsumerUtil;
@@ -64,6 +66,38 @@ public class TestDatabusConsumer extends TestAbstractDatabusConsumer {
         CollectorStreamReader.getDateFromCollectorFile(dataFiles[0]), false, 300);
   }
 
+  @Test
+  public void testNextBatch() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDirs[0].toUri().toString());
+    config.set(DatabusConsumerConfig.checkpointDirConfig, ck14);
+    ConsumerUtil.testNextBatch(config, testStream, consumerName,
+        CollectorStreamReader.getDateFromCollectorFile(dataFiles[0]), false, 300);
+  }
+
+  @Test
+  public void testMarkAsync() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDirs[0].toUri().toString());
+    config.set(DatabusConsumerConfig.checkpointDirConfig, ck16);
+    ConsumerUtil.testMarkAsync(config, testStream, consumerName,
+        CollectorStreamReader.getDateFromCollectorFile(dataFiles[0]), false,
+        300);
+  }
+
+  @Test
+  public void testParallelConsumption() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDirs[0].toUri().toString() + "," + rootDirs[1].toUri().toString());
+    config.set(DatabusConsumerConfig.checkpointDirConfig, ck15);
+    ConsumerUtil.testParallelConsumption(config, testStream, consumerName,
+        CollectorStreamReader.getDateFromCollectorFile(dataFiles[0]), false,
+        2, 300, 4);
+  }
+
   @Test
   public void testMarkAndReset() throws Exception {
     ClientConfig config = loadConfig();
@@ -75,6 +109,34 @@ public class TestDatabusConsumer extends TestAbstractDatabusConsumer {
     ConsumerUtil.testMarkAndReset(config, testStream, consumerName, false);
   }
 
+  @Test
+  public void testMarkAndResetWithLocalCheckpoints() throws Exception {
+    ClientConfig config = loadConfig();
+    config.set(DatabusConsumerConfig.databusRootDirsConfig,
+        rootDirs[0].toUri().toString());
+    config.set(DatabusConsumerConfig.chkProviderConfig,
+        LocalCheckpointProvider.class.getName());
+    // the local provider takes a path on the local file system
+    config.set(DatabusConsumerConfig.checkpointDirConfig,
+        new Path(ck17).toUri().getPath());
+    config.set(MessagingConsumerConfig.relativeStartTimeConfig,
+        relativeStartTime);
+    // the consumer created after the first one is closed gets the dir
+    ConsumerUtil.testMarkAndReset(config, testStream, consumerName, false);
+
+    // one checkpoint dir belongs to one open consumer
+    DatabusConsumer consumer = new DatabusConsumer();
+    consumer.init(testStream, consumerName, null, config);
+    try {
+      new DatabusConsumer().init(testStream, "c2", null, config);
+      Assert.fail("Consumer started on a checkpoint dir in use");
+    } catch (IllegalArgumentException e) {
+      // expected
+    } finally {
+      consumer.close();
+    }
+  }
+
   @Test
   public void testMarkAndResetWithStartTime() throws Exception {
     ClientConfig config = loadConfig();
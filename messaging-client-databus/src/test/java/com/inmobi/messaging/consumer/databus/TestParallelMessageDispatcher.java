@@ -0,0 +1,102 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.databus.files.CollectorFile;
+import com.inmobi.databus.partition.PartitionCheckpoint;
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.databus.readers.CollectorStreamReader;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.consumer.MessageHandler;
+import com.inmobi.messaging.metrics.DatabusConsumerStatsExposer;
+
+public class TestParallelMessageDispatcher {
+
+  private final PartitionId id1 = new PartitionId("cluster1", "collector1");
+  private final PartitionId id2 = new PartitionId("cluster1", "collector2");
+  private final CollectorFile file = CollectorStreamReader.getCollectorFile(
+      "stream", new Date(1356998400000L));
+
+  private QueueEntry entry(PartitionId id, int lineNum) {
+    Message msg = new Message((id.getCollector() + "-" + lineNum).getBytes());
+    return new QueueEntry(msg, id, new PartitionCheckpoint(file, lineNum));
+  }
+
+  private long getLineNum(MessageCheckpoint checkpoint) {
+    return ((PartitionCheckpoint) checkpoint).getLineNum();
+  }
+
+  @Test
+  public void testHandlerFailure() throws Exception {
+    LinkedBlockingQueue<QueueEntry> buffer =
+        new LinkedBlockingQueue<QueueEntry>();
+    for (int i = 1; i <= 3; i++) {
+      buffer.put(entry(id2, i));
+    }
+    for (int i = 1; i <= 5; i++) {
+      buffer.put(entry(id1, i));
+    }
+    final List<String> handled = new ArrayList<String>();
+    final RuntimeException error = new RuntimeException("handler failed");
+    MessageHandler handler = new MessageHandler() {
+      @Override
+      public void handle(Message msg) throws Exception {
+        String data = new String(msg.getData().array());
+        if (data.equals("collector1-3")) {
+          throw error;
+        }
+        synchronized (handled) {
+          handled.add(data);
+        }
+      }
+    };
+    DatabusConsumerStatsExposer metrics = new DatabusConsumerStatsExposer(
+        "stream", "consumer", 0);
+    ParallelMessageDispatcher dispatcher = new ParallelMessageDispatcher(
+        buffer, 2, handler, 2, 10, metrics, "test");
+    dispatcher.start();
+    // stops without the readers being closed
+    Assert.assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+    Assert.assertSame(dispatcher.getFailure(), error);
+
+    Map<PartitionId, MessageCheckpoint> checkpoints =
+        new HashMap<PartitionId, MessageCheckpoint>();
+    dispatcher.drainFinishedCheckpoints(checkpoints);
+    // not past the message the handler failed on
+    Assert.assertEquals(getLineNum(checkpoints.get(id1)), 2);
+    // dispatched before the failure, so handled
+    Assert.assertEquals(getLineNum(checkpoints.get(id2)), 3);
+    Assert.assertFalse(handled.contains("collector1-4"));
+    Assert.assertFalse(handled.contains("collector1-5"));
+    Assert.assertEquals(metrics.getNumMessagesConsumed(), 5);
+  }
+}
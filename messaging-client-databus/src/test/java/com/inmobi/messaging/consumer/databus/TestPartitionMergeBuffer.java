@@ -0,0 +1,245 @@
+package com.inmobi.messaging.consumer.databus;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.databus.files.CollectorFile;
+import com.inmobi.databus.partition.PartitionCheckpoint;
+import com.inmobi.databus.partition.PartitionId;
+import com.inmobi.databus.readers.CollectorStreamReader;
+import com.inmobi.messaging.EOFMessage;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.MessageBase;
+import com.inmobi.messaging.metrics.DatabusConsumerStatsExposer;
+
+public class TestPartitionMergeBuffer {
+
+  private static final long ONE_MINUTE = 60 * 1000;
+  private final PartitionId id1 = new PartitionId("cluster1", "collector1");
+  private final PartitionId id2 = new PartitionId("cluster1", "collector2");
+  private final PartitionId id3 = new PartitionId("cluster2", "collector1");
+  private final Date start = new Date(1356998400000L);
+
+  private QueueEntry entry(PartitionId id, int minute, int lineNum) {
+    return entry(id, minute, lineNum, new Message(new byte[0]));
+  }
+
+  private QueueEntry entry(PartitionId id, int minute, int lineNum,
+      MessageBase msg) {
+    CollectorFile file = CollectorStreamReader.getCollectorFile("stream",
+        getMinute(minute));
+    return new QueueEntry(msg, id, new PartitionCheckpoint(file, lineNum));
+  }
+
+  private Date getMinute(int minute) {
+    return new Date(start.getTime() + minute * ONE_MINUTE);
+  }
+
+  private int getLineNum(QueueEntry entry) {
+    return (int) ((PartitionCheckpoint) entry.getMessageChkpoint())
+        .getLineNum();
+  }
+
+  @Test
+  public void testPartitionCapacity() throws Exception {
+    PartitionMergeBuffer buffer = new PartitionMergeBuffer(2,
+        new RoundRobinMergePolicy());
+    Assert.assertTrue(buffer.offer(entry(id1, 0, 1)));
+    Assert.assertTrue(buffer.offer(entry(id1, 0, 2)));
+    // the full partition does not hold back the others
+    Assert.assertFalse(buffer.offer(entry(id1, 0, 3)));
+    Assert.assertTrue(buffer.offer(entry(id2, 0, 1)));
+    Assert.assertEquals(buffer.size(), 3);
+    buffer.take();
+    Assert.assertTrue(buffer.offer(entry(id1, 0, 3)));
+    buffer.clear();
+    Assert.assertTrue(buffer.isEmpty());
+    Assert.assertNull(buffer.poll());
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    PartitionMergeBuffer buffer = new PartitionMergeBuffer(2,
+        new OldestFirstMergePolicy());
+    QueueEntry head1 = entry(id1, 0, 1);
+    QueueEntry next1 = entry(id1, 3, 2);
+    QueueEntry head2 = entry(id2, 1, 1);
+    QueueEntry next2 = entry(id2, 2, 2);
+    buffer.put(head1);
+    buffer.put(next1);
+    buffer.put(head2);
+    buffer.put(next2);
+    Assert.assertFalse(buffer.remove(entry(id1, 0, 1)));
+    // the policy no longer selects the removed head
+    Assert.assertTrue(buffer.remove(head1));
+    Assert.assertEquals(buffer.size(), 3);
+    Assert.assertTrue(buffer.offer(entry(id1, 4, 3)));
+    Assert.assertTrue(buffer.remove(next2));
+    Assert.assertSame(buffer.take(), head2);
+    Assert.assertSame(buffer.take(), next1);
+    Assert.assertEquals(buffer.size(), 1);
+
+    buffer.clear();
+    buffer.put(head1);
+    buffer.put(next1);
+    buffer.put(head2);
+    Assert.assertTrue(buffer.removeAll(Collections.singleton(head1)));
+    Assert.assertFalse(buffer.removeAll(Collections.singleton(head1)));
+    Assert.assertTrue(buffer.retainAll(Collections.singleton(next1)));
+    Assert.assertEquals(buffer.size(), 1);
+    Assert.assertSame(buffer.poll(), next1);
+    Assert.assertNull(buffer.poll());
+  }
+
+  @Test
+  public void testRoundRobin() throws Exception {
+    PartitionMergeBuffer buffer = new PartitionMergeBuffer(10,
+        new RoundRobinMergePolicy());
+    for (int i = 1; i <= 3; i++) {
+      buffer.put(entry(id1, 0, i));
+    }
+    buffer.put(entry(id2, 0, 1));
+    buffer.put(entry(id3, 0, 1));
+    PartitionId[] expected = {id1, id2, id3, id1, id1};
+    for (PartitionId id : expected) {
+      Assert.assertEquals(buffer.take().getPartitionId(), id);
+    }
+    Assert.assertTrue(buffer.isEmpty());
+  }
+
+  @Test
+  public void testOldestFirst() throws Exception {
+    PartitionMergeBuffer buffer = new PartitionMergeBuffer(10,
+        new OldestFirstMergePolicy());
+    buffer.put(entry(id1, 2, 1));
+    buffer.put(entry(id1, 3, 2));
+    buffer.put(entry(id2, 0, 1));
+    buffer.put(entry(id2, 2, 2));
+    buffer.put(entry(id3, 1, 1));
+    QueueEntry entry = buffer.take();
+    Assert.assertEquals(entry.getPartitionId(), id2);
+    entry = buffer.take();
+    Assert.assertEquals(entry.getPartitionId(), id3);
+    // both are at minute 2, taken in turn after id3
+    entry = buffer.take();
+    Assert.assertEquals(entry.getPartitionId(), id1);
+    Assert.assertEquals(getLineNum(entry), 1);
+    entry = buffer.take();
+    Assert.assertEquals(entry.getPartitionId(), id2);
+    Assert.assertEquals(getLineNum(entry), 2);
+    entry = buffer.take();
+    Assert.assertEquals(entry.getPartitionId(), id1);
+    Assert.assertEquals(getLineNum(entry), 2);
+  }
+
+  @Test
+  public void testWeighted() throws Exception {
+    Map<String, Integer> weights = new HashMap<String, Integer>();
+    weights.put("cluster1", 3);
+    PartitionMergeBuffer buffer = new PartitionMergeBuffer(100,
+        new WeightedMergePolicy(weights));
+    for (int i = 1; i <= 40; i++) {
+      buffer.put(entry(id1, 0, i));
+      buffer.put(entry(id3, 0, i));
+    }
+    int fromId1 = 0;
+    for (int i = 0; i < 40; i++) {
+      if (buffer.take().getPartitionId().equals(id1)) {
+        fromId1++;
+      }
+    }
+    Assert.assertEquals(fromId1, 30);
+  }
+
+  @Test
+  public void testParseWeights() {
+    Map<String, Integer> weights = WeightedMergePolicy.parseWeights(
+        "cluster1:3, cluster2-collector1:2");
+    Assert.assertEquals(weights.get("cluster1"), Integer.valueOf(3));
+    Assert.assertEquals(weights.get("cluster2-collector1"),
+        Integer.valueOf(2));
+    WeightedMergePolicy policy = new WeightedMergePolicy(weights);
+    Assert.assertEquals(policy.getWeight(id1), 3);
+    Assert.assertEquals(policy.getWeight(id3), 2);
+    Assert.assertEquals(policy.getWeight(new PartitionId("cluster3", null)),
+        1);
+  }
+
+  @Test
+  public void testTimeOrdered() throws Exception {
+    TimeOrderedMergePolicy policy = new TimeOrderedMergePolicy(60000);
+    PartitionMergeBuffer buffer = new PartitionMergeBuffer(10, policy);
+    Set<PartitionId> partitions = new HashSet<PartitionId>();
+    partitions.add(id1);
+    partitions.add(id2);
+    buffer.setPartitions(partitions);
+    buffer.put(entry(id1, 1, 1));
+    // id2 may still add an older entry
+    Assert.assertNull(buffer.poll());
+    buffer.put(entry(id2, 0, 1));
+    Assert.assertEquals(buffer.poll().getPartitionId(), id2);
+    Assert.assertNull(buffer.poll());
+    buffer.put(entry(id2, 2, 2));
+    Assert.assertEquals(buffer.poll().getPartitionId(), id1);
+    Assert.assertEquals(policy.getWatermark(), getMinute(1).getTime());
+    Assert.assertNull(buffer.poll());
+    // a partition which reached its end does not hold back the others
+    buffer.put(entry(id1, 1, 1, new EOFMessage()));
+    Assert.assertTrue(buffer.poll().getMessage() instanceof EOFMessage);
+    QueueEntry entry = buffer.poll();
+    Assert.assertEquals(entry.getPartitionId(), id2);
+    Assert.assertEquals(getLineNum(entry), 2);
+    Assert.assertEquals(policy.getWatermark(), getMinute(2).getTime());
+    Assert.assertTrue(buffer.isEmpty());
+  }
+
+  @Test
+  public void testReorderWindow() throws Exception {
+    TimeOrderedMergePolicy policy = new TimeOrderedMergePolicy(200);
+    DatabusConsumerStatsExposer metrics = new DatabusConsumerStatsExposer(
+        "stream", "consumer", 0);
+    policy.setMetrics(metrics);
+    PartitionMergeBuffer buffer = new PartitionMergeBuffer(10, policy);
+    Set<PartitionId> partitions = new HashSet<PartitionId>();
+    partitions.add(id1);
+    partitions.add(id2);
+    buffer.setPartitions(partitions);
+    buffer.put(entry(id1, 1, 1));
+    Assert.assertNull(buffer.poll());
+    // given out once the window expires
+    QueueEntry entry = buffer.poll(1, TimeUnit.SECONDS);
+    Assert.assertNotNull(entry);
+    Assert.assertEquals(entry.getPartitionId(), id1);
+    buffer.put(entry(id2, 0, 1));
+    Assert.assertEquals(buffer.take().getPartitionId(), id2);
+    Assert.assertEquals(metrics.getMessagesOutOfOrder(), 1);
+  }
+}
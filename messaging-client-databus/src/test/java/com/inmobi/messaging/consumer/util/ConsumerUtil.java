@@ -21,10 +21,14 @@ package com.inmobi.messaging.consumer.util;
  */
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.fs.Path;
@@ -37,6 +41,8 @@ import com.inmobi.messaging.Message;
 import com.inmobi.messaging.consumer.AbstractMessageConsumer;
 import com.inmobi.messaging.consumer.BaseMessageConsumerStatsExposer;
 import com.inmobi.messaging.consumer.EndOfStreamException;
+import com.inmobi.messaging.consumer.MarkCallback;
+import com.inmobi.messaging.consumer.MessageHandler;
 import com.inmobi.messaging.consumer.MessageConsumerFactory;
 import com.inmobi.messaging.consumer.databus.AbstractMessagingDatabusConsumer;
 import com.inmobi.messaging.consumer.databus.Checkpoint;
@@ -416,6 +422,142 @@ public class ConsumerUtil {
         consumer.getMetrics())).getNumOfTiemOutsOnNext(), 10);
   }
 
+  public static void testNextBatch(ClientConfig config, String streamName,
+      String consumerName, Date startTime, boolean hadoop, int numOfMessages)
+          throws Exception {
+    AbstractMessagingDatabusConsumer consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, startTime, config);
+    int i = 0;
+    while (i < numOfMessages) {
+      List<Message> batch = consumer.nextBatch(numOfMessages - i, 60,
+          TimeUnit.SECONDS);
+      Assert.assertFalse(batch.isEmpty());
+      for (Message msg : batch) {
+        Assert.assertEquals(getMessage(msg.getData().array(), hadoop),
+            MessageUtil.constructMessage(i));
+        i++;
+      }
+    }
+    consumer.mark();
+
+    ConsumerCheckpoint expectedCheckpoint = consumer.getCurrentCheckpoint();
+    Map<PartitionId, PartitionCheckpoint> lastCheckpoint = new
+        HashMap<PartitionId, PartitionCheckpoint>();
+    Map<Integer, Checkpoint> checkpointMap = new
+        HashMap<Integer, Checkpoint>();
+    createCheckpointList(expectedCheckpoint, checkpointMap, lastCheckpoint,
+        consumer);
+    Assert.assertTrue(consumer.nextBatch(10, 1, TimeUnit.SECONDS).isEmpty());
+    compareConsumerCheckpoints(expectedCheckpoint, checkpointMap,
+        lastCheckpoint, consumer);
+    consumer.close();
+    Assert.assertEquals(((BaseMessageConsumerStatsExposer) (
+        consumer.getMetrics())).getNumMessagesConsumed(), numOfMessages);
+    Assert.assertEquals(((BaseMessageConsumerStatsExposer)(
+        consumer.getMetrics())).getNumOfTiemOutsOnNext(), 1);
+
+    // restart from the marked checkpoint, there is nothing more to read
+    consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, startTime, config);
+    Assert.assertNull(consumer.next(1, TimeUnit.SECONDS));
+    consumer.close();
+  }
+
+  public static void testMarkAsync(ClientConfig config, String streamName,
+      String consumerName, Date startTime, boolean hadoop, int numOfMessages)
+          throws Exception {
+    final CountDownLatch marked = new CountDownLatch(2);
+    final List<Exception> failures = new ArrayList<Exception>();
+    MarkCallback callback = new MarkCallback() {
+      @Override
+      public void onCompletion(Exception exception) {
+        if (exception != null) {
+          synchronized (failures) {
+            failures.add(exception);
+          }
+        }
+        marked.countDown();
+      }
+    };
+    AbstractMessagingDatabusConsumer consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, startTime, config);
+    int half = numOfMessages / 2;
+    for (int i = 0; i < half; i++) {
+      Assert.assertEquals(getMessage(consumer.next().getData().array(),
+          hadoop), MessageUtil.constructMessage(i));
+    }
+    Future<Void> first = consumer.markAsync(callback);
+    // consumption goes on while the mark is being committed
+    for (int i = half; i < half + 10; i++) {
+      Assert.assertEquals(getMessage(consumer.next().getData().array(),
+          hadoop), MessageUtil.constructMessage(i));
+    }
+    Future<Void> second = consumer.markAsync(callback);
+    first.get();
+    second.get();
+    Assert.assertTrue(marked.await(60, TimeUnit.SECONDS));
+    Assert.assertTrue(failures.isEmpty());
+    Assert.assertEquals(((BaseMessageConsumerStatsExposer) (
+        consumer.getMetrics())).getNumMarkCalls(), 2);
+    consumer.close();
+
+    // restart from the second mark
+    consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, startTime, config);
+    for (int i = half + 10; i < numOfMessages; i++) {
+      Assert.assertEquals(getMessage(consumer.next().getData().array(),
+          hadoop), MessageUtil.constructMessage(i));
+    }
+    consumer.close();
+  }
+
+  public static void testParallelConsumption(ClientConfig config,
+      String streamName, String consumerName, Date startTime, boolean hadoop,
+      int numPartitions, int numMessagesPerPartition, int numWorkers)
+          throws Exception {
+    final int totalMessages = numPartitions * numMessagesPerPartition;
+    final Map<String, Integer> counts = new HashMap<String, Integer>();
+    final CountDownLatch handled = new CountDownLatch(totalMessages);
+    final boolean isHadoop = hadoop;
+    AbstractMessagingDatabusConsumer consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, startTime, config);
+    consumer.startParallelConsumption(new MessageHandler() {
+      @Override
+      public void handle(Message msg) throws Exception {
+        String msgStr = getMessage(msg.getData().array(), isHadoop);
+        synchronized (counts) {
+          Integer count = counts.get(msgStr);
+          counts.put(msgStr, count == null ? 1 : count + 1);
+        }
+        handled.countDown();
+      }
+    }, numWorkers);
+    Assert.assertTrue(handled.await(60, TimeUnit.SECONDS));
+    try {
+      consumer.next(1, TimeUnit.SECONDS);
+      Assert.fail("next should fail in parallel consumption");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    consumer.mark();
+    consumer.stopParallelConsumption();
+    Assert.assertNull(consumer.next(1, TimeUnit.SECONDS));
+    consumer.close();
+    Assert.assertEquals(counts.size(), numMessagesPerPartition);
+    for (int i = 0; i < numMessagesPerPartition; i++) {
+      Assert.assertEquals(counts.get(MessageUtil.constructMessage(i)),
+          Integer.valueOf(numPartitions));
+    }
+    Assert.assertEquals(((BaseMessageConsumerStatsExposer) (
+        consumer.getMetrics())).getNumMessagesConsumed(), totalMessages);
+
+    // restart from the marked checkpoint, there is nothing more to read
+    consumer = createConsumer(hadoop);
+    consumer.init(streamName, consumerName, startTime, config);
+    Assert.assertNull(consumer.next(1, TimeUnit.SECONDS));
+    consumer.close();
+  }
+
   public static void testMarkAndReset(ClientConfig config, String streamName,
       String consumerName, boolean hadoop) throws Exception {
 
@@ -0,0 +1,65 @@
+package com.inmobi.messaging.consumer.util;
+
+/*
+ * #%L
+ * messaging-client-databus
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.util.AuditUtil;
+
+public class TestDatabusUtil {
+
+  @Test
+  public void testDecodeRange() {
+    Random random = new Random(1);
+    for (int len = 0; len < 200; len++) {
+      byte[] data = new byte[len];
+      random.nextBytes(data);
+      byte[] encoded = Base64.encodeBase64(data);
+      byte[] line = new byte[encoded.length + 10];
+      System.arraycopy(encoded, 0, line, 5, encoded.length);
+      Message msg = DatabusUtil.decodeMessage(line, 5, encoded.length);
+      Assert.assertEquals(msg, DatabusUtil.decodeMessage(encoded));
+      Assert.assertEquals(msg.getData(), ByteBuffer.wrap(data));
+    }
+  }
+
+  @Test
+  public void testDecodeRangeWithAuditHeader() {
+    Message msg = new Message(MessageUtil.constructMessage(10).getBytes());
+    AuditUtil.attachHeaders(msg, System.currentTimeMillis());
+    ByteBuffer data = msg.getData();
+    byte[] bytes = new byte[data.remaining()];
+    data.duplicate().get(bytes);
+    byte[] encoded = Base64.encodeBase64(bytes);
+    Message decoded = DatabusUtil.decodeMessage(encoded, 0, encoded.length);
+    // array of the consumed message holds exactly the payload
+    Assert.assertEquals(new String(decoded.getData().array()),
+        MessageUtil.constructMessage(10));
+    Assert.assertEquals(new String(DatabusUtil.decodeMessage(encoded)
+        .getData().array()), MessageUtil.constructMessage(10));
+  }
+}
@@ -21,6 +21,7 @@ package com.inmobi.messaging.flume;
  */
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -74,7 +75,7 @@ public class FlumeMessagePublisher extends AbstractMessagePublisher {
   protected void publish(Map<String, String> headers, Message m) {
     // headers.put("streamName", "rr");
     String topic = headers.get(HEADER_TOPIC);
-    Event event = EventBuilder.withBody(m.getData().array(), headers);
+    Event event = EventBuilder.withBody(getBody(m), headers);
     synchronized (queue) {
       if (!queue.offer(event)) {
         // queue is full
@@ -87,6 +88,34 @@ public class FlumeMessagePublisher extends AbstractMessagePublisher {
     }
   }
 
+  /**
+   * Flume events need the body as a byte array. The array backing the data is
+   * used as is if it holds exactly the message, otherwise the message, with
+   * its header if any, is copied once into a new array.
+   */
+  private static byte[] getBody(Message m) {
+    ByteBuffer[] segments = m.getSegments();
+    if (segments.length == 1) {
+      ByteBuffer data = segments[0];
+      if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+          && data.remaining() == data.array().length) {
+        return data.array();
+      }
+    }
+    int size = 0;
+    for (ByteBuffer segment : segments) {
+      size += segment.remaining();
+    }
+    byte[] body = new byte[size];
+    int offset = 0;
+    for (ByteBuffer segment : segments) {
+      int length = segment.remaining();
+      segment.get(body, offset, length);
+      offset += length;
+    }
+    return body;
+  }
+
   @Override
   public void close() {
     super.close();
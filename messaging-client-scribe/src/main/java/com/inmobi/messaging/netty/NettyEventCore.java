@@ -24,11 +24,16 @@ import org.jboss.netty.channel.socket.*;
 import org.jboss.netty.channel.socket.nio.*;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class NettyEventCore {
   private static final NettyEventCore ourInstance = new NettyEventCore();
 
+  // number of threads shared by all the topics for sending messages
+  private static final int SENDER_THREADS = 2;
+
   private ClientSocketChannelFactory factory = null;
+  private ScheduledExecutorService senderScheduler = null;
   private int leases = 0;
 
   public static NettyEventCore getInstance() {
@@ -50,10 +55,34 @@ class NettyEventCore {
       factory = new NioClientSocketChannelFactory(
           Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
     }
+    if (senderScheduler == null) {
+      senderScheduler = Executors.newScheduledThreadPool(SENDER_THREADS,
+          new ThreadFactory() {
+            private final AtomicInteger threadNum = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "scribe-sender-"
+                  + threadNum.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+    }
     leases++;
     return factory;
   }
 
+  /**
+   * Get a handle to the scheduler on which messages of all the topics are
+   * flushed. The scheduler is leased along with the factory.
+   *
+   * @return the sender scheduler
+   */
+  public synchronized ScheduledExecutorService getSenderScheduler() {
+    return senderScheduler;
+  }
+
   /**
    * Application indicating that it no longer needs this
    *
@@ -66,6 +95,8 @@ class NettyEventCore {
       if (leases == 0) {
         factory.releaseExternalResources();
         factory = null;
+        senderScheduler.shutdown();
+        senderScheduler = null;
       }
     } else {
       // WTF! releasing what you did not take
@@ -20,7 +20,9 @@ package com.inmobi.messaging.netty;
  * #L%
  */
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.List;
 
 import org.apache.thrift.TBase;
 import org.apache.thrift.TException;
@@ -40,40 +42,100 @@ public class ScribeBites {
   private static final byte[] SINGLE_ENTRY_PREFIX = {(byte) 0x80, 0x01, 0x00,
       0x01, 0x00, 0x00, 0x00, 0x03, 0x4c, 0x6f, 0x67, 0x00, 0x00, 0x00, 0x00,
       0x0f, 0x00, 0x01, 0x0c, 0x00, 0x00, 0x00, 0x01, 0x0b, 0x00, 0x01 };
+  // Log call header upto the element type of the messages list
+  private static final byte[] LOG_CALL_PREFIX = {(byte) 0x80, 0x01, 0x00,
+      0x01, 0x00, 0x00, 0x00, 0x03, 0x4c, 0x6f, 0x67, 0x00, 0x00, 0x00, 0x00,
+      0x0f, 0x00, 0x01, 0x0c };
   private static final byte[] BODY_MARKER = {0x0b, 0x00, 0x02 };
   private static final byte[] TRAILER = { 0x00, 0x00 };
+  private static final ChannelBuffer TRAILER_BUFFER = ChannelBuffers
+      .unmodifiableBuffer(ChannelBuffers.wrappedBuffer(TRAILER));
+  private static final ChannelBuffer STOP_BUFFER = TRAILER_BUFFER.slice(0, 1);
+  // offset of the category marker in the header with category
+  private static final int ENTRY_HEADER_OFFSET = LOG_CALL_PREFIX.length + 4;
 
   public static void publish(Channel ch, String category, Message m) {
-    ChannelBuffer output = ChannelBuffers.dynamicBuffer(ByteOrder.BIG_ENDIAN,
-        2048);
+    publish(ch, generateHeaderWithCategory(category), m);
+  }
 
-    output.writeBytes(SINGLE_ENTRY_PREFIX);
+  /**
+   * Writes the message as a single entry Log call. The frame is composed of
+   * the given category header, the message length and the message data
+   * without copying either the header or the data.
+   *
+   * @param categoryAsByteStream header generated by
+   *          {@link #generateHeaderWithCategory(String)}
+   */
+  public static void publish(Channel ch, ChannelBuffer categoryAsByteStream,
+      Message m) {
+    ChannelBuffer data = wrapData(m);
+    ch.write(ChannelBuffers.wrappedBuffer(categoryAsByteStream.duplicate(),
+        bodyHeader(data.readableBytes()), data, TRAILER_BUFFER.duplicate()));
+  }
 
-    byte[] catBytes = category.getBytes();
-    output.writeInt(catBytes.length);
-    output.writeBytes(catBytes);
+  /**
+   * Writes all the messages as entries of a single Log call, so that the
+   * whole batch is acknowledged by one ResultCode. As for a single message,
+   * neither the category header nor the message data is copied.
+   *
+   * @param categoryAsByteStream header generated by
+   *          {@link #generateHeaderWithCategory(String)}
+   */
+  public static void publish(Channel ch, ChannelBuffer categoryAsByteStream,
+      List<Message> batch) {
+    // the header minus the Log call prefix and list size is the LogEntry
+    // header with the category
+    ChannelBuffer entryHeader = categoryAsByteStream.slice(
+        categoryAsByteStream.readerIndex() + ENTRY_HEADER_OFFSET,
+        categoryAsByteStream.readableBytes() - ENTRY_HEADER_OFFSET);
+    ChannelBuffer[] components = new ChannelBuffer[batch.size() * 4 + 2];
+    int i = 0;
+    ChannelBuffer prefix = ChannelBuffers.buffer(ENTRY_HEADER_OFFSET);
+    prefix.writeBytes(LOG_CALL_PREFIX);
+    prefix.writeInt(batch.size());
+    components[i++] = prefix;
+    for (Message m : batch) {
+      ChannelBuffer data = wrapData(m);
+      components[i++] = entryHeader.duplicate();
+      components[i++] = bodyHeader(data.readableBytes());
+      components[i++] = data;
+      components[i++] = STOP_BUFFER.duplicate();
+    }
+    components[i] = STOP_BUFFER.duplicate();
+    ch.write(ChannelBuffers.wrappedBuffer(components));
+  }
 
-    output.writeBytes(BODY_MARKER);
-    output.writeInt(m.getData().array().length);
-    output.writeBytes(m.getData());
+  /**
+   * Wraps the remaining bytes of message header, if any, and data,
+   * irrespective of whether they are backed by an array, without changing
+   * their positions.
+   */
+  private static ChannelBuffer wrapData(Message m) {
+    ByteBuffer[] segments = m.getSegments();
+    ChannelBuffer[] parts = new ChannelBuffer[segments.length];
+    for (int i = 0; i < segments.length; i++) {
+      // all components of a composite buffer must have the same byte order
+      parts[i] = ChannelBuffers.wrappedBuffer(segments[i]
+          .order(ByteOrder.BIG_ENDIAN));
+    }
+    if (parts.length == 1) {
+      return parts[0];
+    }
+    return ChannelBuffers.wrappedBuffer(parts);
+  }
 
-    output.writeBytes(TRAILER);
-    ch.write(output);
+  private static ChannelBuffer bodyHeader(int length) {
+    ChannelBuffer bodyHeader = ChannelBuffers.buffer(BODY_MARKER.length + 4);
+    bodyHeader.writeBytes(BODY_MARKER);
+    bodyHeader.writeInt(length);
+    return bodyHeader;
   }
 
   public static void publish(Channel ch, ChannelBuffer categoryAsByteStream,
       byte[] stream) {
-    ChannelBuffer output = ChannelBuffers.dynamicBuffer(ByteOrder.BIG_ENDIAN,
-        2048);
-
-    output.writeBytes(categoryAsByteStream.duplicate());
-
-    output.writeBytes(BODY_MARKER);
-    output.writeInt(stream.length);
-    output.writeBytes(stream);
-
-    output.writeBytes(TRAILER);
-    ch.write(output);
+    ch.write(ChannelBuffers.wrappedBuffer(categoryAsByteStream.duplicate(),
+        bodyHeader(stream.length), ChannelBuffers.wrappedBuffer(stream),
+        TRAILER_BUFFER.duplicate()));
   }
 
   public static void publish(Channel ch, ChannelBuffer categoryAsByteStream,
@@ -35,6 +35,7 @@ public class ScribeBlockingTopicPublisher extends ScribeTopicPublisher {
   protected boolean addToSend(final Message m) {
     try {
       toBeSent.put(m);
+      queued(m);
       return true;
     } catch (InterruptedException e) {
       LOG.error("Error while waiting for free space in queue. Message dropped :( ");
@@ -189,6 +189,19 @@ public class ScribeHandler extends SimpleChannelHandler {
     }
   }
 
+  @Override
+  public void channelInterestChanged(ChannelHandlerContext ctx,
+      ChannelStateEvent e) throws Exception {
+    if (channelSetter.getCurrentChannel() != null
+        && ctx.getChannel().getId().equals(
+            channelSetter.getCurrentChannel().getId())
+        && ctx.getChannel().isWritable()) {
+      // send the messages held back while the channel was not writable
+      thisPublisher.scheduleFlush();
+    }
+    super.channelInterestChanged(ctx, e);
+  }
+
   public void channelDisconnected(ChannelHandlerContext ctx,
       ChannelStateEvent e) {
     if (channelSetter.getCurrentChannel() != null
@@ -21,8 +21,8 @@ package com.inmobi.messaging.netty;
  */
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -46,9 +46,12 @@ public class ScribeMessagePublisher extends AbstractMessagePublisher implements
   private int msgQueueSize;
   private int ackQueueSize;
   private int numDrainsOnClose;
+  private int batchSize;
+  private int batchMaxBytes;
+  private long batchLingerMillis;
 
   protected Map<String, ScribeTopicPublisher> scribeConnections =
-      new HashMap<String, ScribeTopicPublisher>();
+      new ConcurrentHashMap<String, ScribeTopicPublisher>();
 
   @Override
   public void init(ClientConfig config) throws IOException {
@@ -63,13 +66,16 @@ public class ScribeMessagePublisher extends AbstractMessagePublisher implements
         config.getInteger(messageQueueSizeConfig, DEFAULT_MSG_QUEUE_SIZE),
         config.getInteger(ackQueueSizeConfig, DEFAULT_ACK_QUEUE_SIZE),
         config
-            .getInteger(drainRetriesOnCloseConfig, DEFAULT_NUM_DRAINS_ONCLOSE));
+            .getInteger(drainRetriesOnCloseConfig, DEFAULT_NUM_DRAINS_ONCLOSE),
+        config.getInteger(batchSizeConfig, DEFAULT_BATCH_SIZE),
+        config.getInteger(batchMaxBytesConfig, DEFAULT_BATCH_MAX_BYTES),
+        config.getLong(batchLingerMillisConfig, DEFAULT_BATCH_LINGER_MILLIS));
   }
 
   private void init(String host, int port, int backoffSeconds, int timeout,
       boolean enableRetries, boolean resendOnAckLost, long sleepInterval,
-      int msgQueueSize, int ackQueueSize, int numDrainsOnClose)
-      throws IOException {
+      int msgQueueSize, int ackQueueSize, int numDrainsOnClose, int batchSize,
+      int batchMaxBytes, long batchLingerMillis) throws IOException {
     this.host = host;
     this.port = port;
     this.backoffSeconds = backoffSeconds;
@@ -80,12 +86,17 @@ public class ScribeMessagePublisher extends AbstractMessagePublisher implements
     this.msgQueueSize = msgQueueSize;
     this.ackQueueSize = ackQueueSize;
     this.numDrainsOnClose = numDrainsOnClose;
+    this.batchSize = batchSize;
+    this.batchMaxBytes = batchMaxBytes;
+    this.batchLingerMillis = batchLingerMillis;
     LOG.info("Initialized ScribeMessagePublisher with host:" + host + " port:"
         + +port + " backoffSeconds:" + backoffSeconds + " timeoutSeconds:"
         + timeoutSeconds + " enableRetries:" + enableRetries
         + " resendOnAckLost:" + resendOnAckLost + "asyncSleepInterval:"
         + asyncSleepInterval + "msgQueueSize:" + msgQueueSize + "ackQueueSize:"
-        + ackQueueSize + "numDrainsOnClose:" + numDrainsOnClose);
+        + ackQueueSize + "numDrainsOnClose:" + numDrainsOnClose
+        + " batchSize:" + batchSize + " batchMaxBytes:" + batchMaxBytes
+        + " batchLingerMillis:" + batchLingerMillis);
   }
 
   protected void initTopic(String topic, PintailTimingAccumulator stats) {
@@ -101,12 +112,17 @@ public class ScribeMessagePublisher extends AbstractMessagePublisher implements
       PintailTimingAccumulator stats) {
     connection.init(topic, host, port, backoffSeconds, timeoutSeconds, stats,
       enableRetries, resendOnAckLost, asyncSleepInterval, msgQueueSize,
-      ackQueueSize, numDrainsOnClose);
+      ackQueueSize, numDrainsOnClose, batchSize, batchMaxBytes,
+      batchLingerMillis);
   }
 
   @Override
   protected void publish(Map<String, String> headers, Message m) {
-    String topic = headers.get(HEADER_TOPIC);
+    publishToTopic(headers.get(HEADER_TOPIC), m);
+  }
+
+  @Override
+  protected void publishToTopic(String topic, Message m) {
     scribeConnections.get(topic).publish(m);
   }
 
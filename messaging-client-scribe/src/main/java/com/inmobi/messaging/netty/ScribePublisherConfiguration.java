@@ -53,4 +53,14 @@ public interface ScribePublisherConfiguration {
   public static final String drainRetriesOnCloseConfig =
       "scribe.numdrains.onclose";
   public static final int DEFAULT_NUM_DRAINS_ONCLOSE = -1;
+
+  public static final String batchSizeConfig = "scribe.batch.size";
+  public static final int DEFAULT_BATCH_SIZE = 1;
+
+  public static final String batchMaxBytesConfig = "scribe.batch.max.bytes";
+  public static final int DEFAULT_BATCH_MAX_BYTES = 256 * 1024;
+
+  public static final String batchLingerMillisConfig =
+      "scribe.batch.linger.millis";
+  public static final long DEFAULT_BATCH_LINGER_MILLIS = 10;
 }
@@ -21,13 +21,23 @@ package com.inmobi.messaging.netty;
  */
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -48,19 +58,42 @@ public class ScribeTopicPublisher {
   private ClientBootstrap bootstrap;
   private volatile Channel thisChannel = null;
   private String topic;
+  // Log call header with the topic as category, reused for every message
+  private ChannelBuffer categoryHeader;
   private String host;
   private int port;
   protected PintailTimingAccumulator stats;
   protected BlockingQueue<Message> toBeSent;
   private BlockingQueue<Message> toBeAcked;
   private long sleepInterval = 10;
-  private boolean stopped = false;
-  private Thread senderThread;
+  private volatile boolean stopped = false;
+  // scheduler shared by all the topics for flushing queued messages
+  private ScheduledExecutorService senderScheduler;
+  // set whenever a send is requested, cleared by the thread sending messages
+  private final AtomicBoolean sendRequested = new AtomicBoolean(false);
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  private final AtomicBoolean lingerFlushScheduled = new AtomicBoolean(false);
+  private final AtomicBoolean retryFlushScheduled = new AtomicBoolean(false);
+  private final Runnable flushTask = new FlushTask(flushScheduled);
+  private final Runnable lingerFlushTask = new FlushTask(lingerFlushScheduled);
+  private final Runnable retryFlushTask = new FlushTask(retryFlushScheduled);
   private ScribeHandler handler;
   private boolean resendOnAckLost = false;
   private boolean reconnectionInProgress = false;
   private boolean enabledRetries = true;
   private int numDrainsOnClose = 10;
+  private int batchSize = 1;
+  private int batchMaxBytes;
+  private long batchLingerMillis;
+  // enqueue times and total size of the messages in to-be-sent queue, kept
+  // only when batching is enabled. A not yet full batch lingers until its
+  // oldest message has waited batchLingerMillis.
+  private final Queue<Long> enqueueTimes = new ConcurrentLinkedQueue<Long>();
+  private final AtomicLong queuedBytes = new AtomicLong(0);
+  // number of messages in each Log call written on the channel, in the order
+  // in which they were written. Scribe acks each Log call with one ResultCode.
+  private final Queue<Integer> unackedBatchSizes =
+      new ConcurrentLinkedQueue<Integer>();
   // Reentrant lock used to synchronize sending messages from send queue.
   private final ReentrantLock sendLock = new ReentrantLock();
 
@@ -117,8 +150,11 @@ public class ScribeTopicPublisher {
       final int backoffSeconds, final int timeoutSeconds,
       final PintailTimingAccumulator stats, final boolean enableRetries,
       final boolean resendOnAckLost, final long sleepInterval,
-      final int msgQueueSize, final int ackQueueSize, final int numDrainsOnClose) {
+      final int msgQueueSize, final int ackQueueSize,
+      final int numDrainsOnClose, final int batchSize, final int batchMaxBytes,
+      final long batchLingerMillis) {
     this.topic = topic;
+    this.categoryHeader = ScribeBites.generateHeaderWithCategory(topic);
     this.stats = stats;
     this.host = host;
     this.port = port;
@@ -132,8 +168,12 @@ public class ScribeTopicPublisher {
       this.toBeAcked = new LinkedBlockingQueue<Message>(ackQueueSize);
     }
     this.numDrainsOnClose = numDrainsOnClose;
+    this.batchSize = batchSize;
+    this.batchMaxBytes = batchMaxBytes;
+    this.batchLingerMillis = batchLingerMillis;
 
     bootstrap = new ClientBootstrap(NettyEventCore.getInstance().getFactory());
+    senderScheduler = NettyEventCore.getInstance().getSenderScheduler();
 
     ChannelSetter chs = new ChannelSetter();
     handler = new ScribeHandler(stats, chs, backoffSeconds, timer, this);
@@ -148,8 +188,6 @@ public class ScribeTopicPublisher {
       handler.scheduleReconnect();
     }
     handler.setInited();
-    senderThread = new Thread(new AsyncSender());
-    senderThread.start();
   }
 
   protected void publish(final Message m) {
@@ -163,9 +201,34 @@ public class ScribeTopicPublisher {
       stats.accumulateOutcomeWithDelta(Outcome.LOST, 0);
       return false;
     }
+    queued(m);
     return true;
   }
 
+  /**
+   * Records the enqueue time and size of a message just added to the
+   * to-be-sent queue. Should be called by every path adding to the queue.
+   */
+  protected void queued(final Message m) {
+    if (isBatchingEnabled()) {
+      enqueueTimes.offer(System.currentTimeMillis());
+      queuedBytes.addAndGet(m.getSize());
+    }
+  }
+
+  /**
+   * Drops the bookkeeping of a message removed from the to-be-sent queue.
+   * A message can be taken out before its enqueue time got recorded, in
+   * which case the time of the next oldest message goes, which keeps the
+   * oldest recorded time a lower bound.
+   */
+  private void dequeued(final Message m) {
+    if (isBatchingEnabled()) {
+      enqueueTimes.poll();
+      queuedBytes.addAndGet(-m.getSize());
+    }
+  }
+
   boolean isSendQueueEmpty() {
     return toBeSent.size() == 0;
   }
@@ -178,59 +241,195 @@ public class ScribeTopicPublisher {
     if (isSendQueueEmpty()) {
       return;
     }
+    // Messages are sent by the publishing thread and on channel events. A
+    // send which can not go through right now is retried after sleepInterval,
+    // so nothing is polled while the queue is empty.
     if (isChannelConnected()) {
       if (isChannelWritable()) {
+        sendRequested.set(true);
         // if tryLock is true, then acquire tryLock else acquire lock
         if (!tryLock) {
           sendLock.lock();
         } else {
-          // if tryLock fails, then return. The assumption is that the thread
-          // that has already acquired lock will try to send all messages.
+          // if tryLock fails, then return. The thread that has already
+          // acquired lock will see the send request and send all messages.
           if (!sendLock.tryLock()) {
             return;
           }
         }
 
+        boolean blocked = false;
         try {
-          Message m = null;
-          while ((m = toBeSent.peek()) != null) {
-            // Add this message to ack queue before writing the message.
-            // Also add a clone of this message to ack queue.
-            if (enabledRetries
-                && (toBeAcked.remainingCapacity() == 0 || !toBeAcked.offer(m
-                    .clone()))) {
-              LOG.info("Could not send earlier messages successfully, not"
-                  + " sending right now.");
-              break;
-            }
-            // write the current message
-            ScribeBites.publish(thisChannel, topic, m);
-            // remove the message from sent queue
-            toBeSent.poll();
-            // check if the next message can be written immediately
-            if (!isChannelWritable()) {
-              break;
-            }
+          while (!blocked && sendRequested.getAndSet(false)) {
+            blocked = !sendQueuedMessages();
           }
         } finally {
           sendLock.unlock();
         }
+        if (blocked) {
+          scheduleRetryFlush();
+        } else if (sendRequested.get() && !isSendQueueEmpty()) {
+          // hand over a request made after the last check, but before the
+          // lock got released, to the sender scheduler
+          scheduleFlush();
+        }
+      } else {
+        scheduleRetryFlush();
       }
     } else {
       suggestReconnect();
+      scheduleRetryFlush();
+    }
+  }
+
+  /**
+   * Sends the messages in to-be-sent queue. Should be called holding
+   * sendLock.
+   *
+   * @return false if messages could not be sent because either the ack queue
+   *         is full or the channel is not writable, true otherwise
+   */
+  private boolean sendQueuedMessages() {
+    if (isBatchingEnabled()) {
+      return sendBatches();
+    }
+    Message m = null;
+    while ((m = toBeSent.peek()) != null) {
+      // Add this message to ack queue before writing the message.
+      // Also add a clone of this message to ack queue.
+      if (enabledRetries
+          && (toBeAcked.remainingCapacity() == 0 || !toBeAcked.offer(m
+              .clone()))) {
+        LOG.info("Could not send earlier messages successfully, not"
+            + " sending right now.");
+        return false;
+      }
+      // write the current message
+      ScribeBites.publish(thisChannel, categoryHeader, m);
+      // remove the message from sent queue
+      toBeSent.poll();
+      // check if the next message can be written immediately
+      if (!isChannelWritable()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isBatchingEnabled() {
+    return batchSize > 1;
+  }
+
+  /**
+   * Sends the messages in to-be-sent queue as batches of atmost batchSize
+   * messages or batchMaxBytes bytes, each batch in a single Log call.
+   * A batch which is not full yet, by count or by bytes, is held back until
+   * its oldest message has been queued for batchLingerMillis. Should be
+   * called holding sendLock.
+   */
+  private boolean sendBatches() {
+    int pending;
+    while ((pending = toBeSent.size()) > 0) {
+      if (pending < batchSize && queuedBytes.get() < batchMaxBytes
+          && !stopped) {
+        // no recorded time means the messages are just being queued
+        Long oldest = enqueueTimes.peek();
+        long lingerLeft = oldest == null ? batchLingerMillis : oldest
+            + batchLingerMillis - System.currentTimeMillis();
+        if (lingerLeft > 0) {
+          scheduleLingerFlush(lingerLeft);
+          break;
+        }
+      }
+      List<Message> batch = new ArrayList<Message>(Math.min(pending,
+          batchSize));
+      long batchBytes = 0;
+      Message m = null;
+      while (batch.size() < batchSize && (m = toBeSent.peek()) != null) {
+        if (!batch.isEmpty() && batchBytes + m.getSize() > batchMaxBytes) {
+          break;
+        }
+        // Add a clone of the message to ack queue before writing the batch.
+        if (enabledRetries
+            && (toBeAcked.remainingCapacity() == 0 || !toBeAcked.offer(m
+                .clone()))) {
+          break;
+        }
+        batch.add(m);
+        batchBytes += m.getSize();
+        toBeSent.poll();
+        dequeued(m);
+      }
+      if (batch.isEmpty()) {
+        LOG.info("Could not send earlier messages successfully, not"
+            + " sending right now.");
+        return false;
+      }
+      // record the batch size before writing, as ack can come any time after
+      unackedBatchSizes.offer(batch.size());
+      ScribeBites.publish(thisChannel, categoryHeader, batch);
+      // check if the next batch can be written immediately
+      if (!isChannelWritable()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Asks the shared sender scheduler to send the queued messages. Called on
+   * events which can unblock sending, like the channel becoming writable,
+   * an ack freeing up the ack queue or a reconnection.
+   */
+  void scheduleFlush() {
+    if (!stopped && flushScheduled.compareAndSet(false, true)) {
+      try {
+        senderScheduler.execute(flushTask);
+      } catch (RejectedExecutionException e) {
+        flushScheduled.set(false);
+        LOG.debug("Sender scheduler is shutdown, not flushing");
+      }
     }
   }
 
-  private class AsyncSender implements Runnable {
+  private void scheduleLingerFlush(long delayMillis) {
+    scheduleDelayedFlush(lingerFlushScheduled, lingerFlushTask, delayMillis);
+  }
+
+  /**
+   * Retries sending the queued messages after sleepInterval. Called when
+   * they can not be sent right now, as a fallback for the events which may
+   * never come, like a reconnection attempt which was backed off.
+   */
+  private void scheduleRetryFlush() {
+    scheduleDelayedFlush(retryFlushScheduled, retryFlushTask, sleepInterval);
+  }
+
+  private void scheduleDelayedFlush(AtomicBoolean scheduled, Runnable task,
+      long delayMillis) {
+    if (!stopped && scheduled.compareAndSet(false, true)) {
+      try {
+        senderScheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        scheduled.set(false);
+        LOG.debug("Sender scheduler is shutdown, not flushing");
+      }
+    }
+  }
+
+  private class FlushTask implements Runnable {
+    private final AtomicBoolean scheduled;
+
+    FlushTask(AtomicBoolean scheduled) {
+      this.scheduled = scheduled;
+    }
+
     @Override
     public void run() {
-      while (!stopped && !Thread.interrupted()) {
-        trySending(false);
-        try {
-          Thread.sleep(sleepInterval);
-        } catch (InterruptedException ie) {
-          LOG.info("Async sender interrupted. Exiting");
-        }
+      scheduled.set(false);
+      // never block the shared scheduler on the send lock
+      if (!stopped) {
+        trySending(true);
       }
     }
   }
@@ -294,9 +493,12 @@ public class ScribeTopicPublisher {
 
   void doneReconnect() {
     reconnectionInProgress = false;
+    scheduleFlush();
   }
 
   void emptyAckQueue() {
+    // acks for the batches written on the old channel will never come
+    unackedBatchSizes.clear();
     if (!enabledRetries) {
       return;
     }
@@ -319,21 +521,15 @@ public class ScribeTopicPublisher {
     if (toBeSent.size() > 0) {
       LOG.warn("Emptying message queue of size:" + toBeSent.size());
     }
-    while (toBeSent.poll() != null) {
+    Message m = null;
+    while ((m = toBeSent.poll()) != null) {
+      dequeued(m);
       stats.accumulateOutcomeWithDelta(Outcome.LOST, 0);
     }
   }
 
   public void close() {
     stopped = true;
-    if (senderThread != null) {
-      senderThread.interrupt();
-      try {
-        senderThread.join();
-      } catch (InterruptedException e) {
-        LOG.info("join on sender Thread interrupted");
-      }
-    }
     drainAll();
     LOG.info("Closing the channel");
     handler.prepareClose();
@@ -345,6 +541,24 @@ public class ScribeTopicPublisher {
   }
 
   void ack(final ResultCode success) {
+    int numMessages = 1;
+    if (isBatchingEnabled()) {
+      Integer sentBatchSize = unackedBatchSizes.poll();
+      if (sentBatchSize != null) {
+        numMessages = sentBatchSize;
+      }
+    }
+    // the result code applies to all the messages of the Log call
+    for (int i = 0; i < numMessages; i++) {
+      ackMessage(success);
+    }
+    // the ack queue has space now, and retried messages may have been queued
+    if (!isSendQueueEmpty()) {
+      scheduleFlush();
+    }
+  }
+
+  private void ackMessage(final ResultCode success) {
     // first check the result code. If it is success, then increment the
     // success counter and remove the message from ack queue, if configured
     if (success.getValue() == 0) {
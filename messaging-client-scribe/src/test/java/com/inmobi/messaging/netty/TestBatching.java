@@ -0,0 +1,198 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-scribe
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.testng.annotations.Test;
+
+import random.pkg.NtMultiServer;
+import random.pkg.ScribeAlwaysSuccess;
+import scribe.thrift.LogEntry;
+import scribe.thrift.ResultCode;
+
+import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.PortNumberUtil;
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
+
+public class TestBatching {
+
+  private static final String TOPIC = "batch";
+
+  /**
+   * Counts the Log calls and entries received for the test topic. Replies
+   * TRY_LATER for the first call, if asked to.
+   */
+  private static class CountingScribe extends ScribeAlwaysSuccess {
+    private final AtomicInteger logCalls = new AtomicInteger(0);
+    private final AtomicInteger entries = new AtomicInteger(0);
+    private final boolean tryLaterOnce;
+    private volatile int firstCallSize = -1;
+
+    CountingScribe(boolean tryLaterOnce) {
+      this.tryLaterOnce = tryLaterOnce;
+    }
+
+    @Override
+    public ResultCode Log(List<LogEntry> messages) throws TException {
+      if (!TOPIC.equals(messages.get(0).getCategory())) {
+        return ResultCode.OK;
+      }
+      if (logCalls.incrementAndGet() == 1) {
+        firstCallSize = messages.size();
+        if (tryLaterOnce) {
+          return ResultCode.TRY_LATER;
+        }
+      }
+      entries.addAndGet(messages.size());
+      return ResultCode.OK;
+    }
+  }
+
+  private ScribeMessagePublisher createPublisher(int port, int batchSize,
+      long lingerMillis) throws Exception {
+    return createPublisher(port, batchSize, lingerMillis, -1);
+  }
+
+  private ScribeMessagePublisher createPublisher(int port, int batchSize,
+      long lingerMillis, int maxBytes) throws Exception {
+    ScribeMessagePublisher pub = new ScribeMessagePublisher();
+    ClientConfig config = new ClientConfig();
+    config.set(ScribePublisherConfiguration.hostNameConfig, "localhost");
+    config.set(ScribePublisherConfiguration.portConfig, port + "");
+    config.set(ScribePublisherConfiguration.backOffSecondsConfig, "1");
+    config.set(ScribePublisherConfiguration.timeoutSecondsConfig, "10");
+    config.set(ScribePublisherConfiguration.batchSizeConfig, batchSize + "");
+    config.set(ScribePublisherConfiguration.batchLingerMillisConfig,
+        lingerMillis + "");
+    if (maxBytes > 0) {
+      config.set(ScribePublisherConfiguration.batchMaxBytesConfig,
+          maxBytes + "");
+    }
+    pub.init(config);
+    return pub;
+  }
+
+  @Test
+  public void testBatchedSend() throws Exception {
+    int port = PortNumberUtil.getFreePortNumber(7931);
+    CountingScribe scribe = new CountingScribe(false);
+    NtMultiServer tserver = new NtMultiServer(scribe, port);
+    tserver.start();
+    try {
+      ScribeMessagePublisher mb = createPublisher(port, 10, 1000);
+      int numMessages = 30;
+      for (int i = 0; i < numMessages; i++) {
+        mb.publish(TOPIC, new Message(("msg" + i).getBytes()));
+      }
+      mb.close();
+      PintailTimingAccumulator inspector = mb.getStats(TOPIC);
+      System.out.println("TestBatching.testBatchedSend stats:" + inspector);
+      assertEquals(inspector.getInFlight(), 0,
+          "ensure not considered midflight");
+      assertEquals(inspector.getSuccessCount(), numMessages);
+      assertEquals(scribe.entries.get(), numMessages);
+      assertTrue(scribe.logCalls.get() < numMessages,
+          "messages were not batched");
+    } finally {
+      tserver.stop();
+    }
+  }
+
+  @Test
+  public void testBatchRetriedOnTryLater() throws Exception {
+    int port = PortNumberUtil.getFreePortNumber(7932);
+    CountingScribe scribe = new CountingScribe(true);
+    NtMultiServer tserver = new NtMultiServer(scribe, port);
+    tserver.start();
+    try {
+      ScribeMessagePublisher mb = createPublisher(port, 5, 10);
+      int numMessages = 12;
+      for (int i = 0; i < numMessages; i++) {
+        mb.publish(TOPIC, new Message(("msg" + i).getBytes()));
+      }
+      mb.close();
+      PintailTimingAccumulator inspector = mb.getStats(TOPIC);
+      System.out.println("TestBatching.testBatchRetriedOnTryLater stats:"
+          + inspector);
+      assertEquals(inspector.getInFlight(), 0,
+          "ensure not considered midflight");
+      assertEquals(inspector.getRetryCount(), scribe.firstCallSize,
+          "all messages of the batch should be retried");
+      assertEquals(inspector.getSuccessCount(), numMessages);
+      assertEquals(scribe.entries.get(), numMessages);
+    } finally {
+      tserver.stop();
+    }
+  }
+
+  @Test
+  public void testLingerFromOldestMessage() throws Exception {
+    int port = PortNumberUtil.getFreePortNumber(7933);
+    CountingScribe scribe = new CountingScribe(false);
+    NtMultiServer tserver = new NtMultiServer(scribe, port);
+    tserver.start();
+    try {
+      ScribeMessagePublisher mb = createPublisher(port, 10, 1000);
+      mb.publish(TOPIC, new Message("msg0".getBytes()));
+      Thread.sleep(500);
+      assertEquals(scribe.logCalls.get(), 0,
+          "batch sent before the oldest message lingered");
+      mb.publish(TOPIC, new Message("msg1".getBytes()));
+      // the batch goes once the first message has lingered, not a full
+      // linger after the second one
+      Thread.sleep(1000);
+      assertEquals(scribe.logCalls.get(), 1);
+      assertEquals(scribe.firstCallSize, 2);
+      mb.close();
+      assertEquals(scribe.entries.get(), 2);
+    } finally {
+      tserver.stop();
+    }
+  }
+
+  @Test
+  public void testBatchSentOnMaxBytes() throws Exception {
+    int port = PortNumberUtil.getFreePortNumber(7934);
+    CountingScribe scribe = new CountingScribe(false);
+    NtMultiServer tserver = new NtMultiServer(scribe, port);
+    tserver.start();
+    try {
+      // lingers long enough for the test to time out, if bytes are ignored
+      ScribeMessagePublisher mb = createPublisher(port, 100, 60000, 40);
+      for (int i = 0; i < 4; i++) {
+        mb.publish(TOPIC, new Message("0123456789".getBytes()));
+      }
+      Thread.sleep(1000);
+      assertEquals(scribe.entries.get(), 4,
+          "batch not sent on reaching batch max bytes");
+      mb.close();
+    } finally {
+      tserver.stop();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-scribe
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.testng.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.thrift.TException;
+import org.testng.annotations.Test;
+
+import random.pkg.NtMultiServer;
+import random.pkg.ScribeAlwaysSuccess;
+import scribe.thrift.LogEntry;
+import scribe.thrift.ResultCode;
+
+import com.inmobi.messaging.ClientConfig;
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.PortNumberUtil;
+
+public class TestScribeBites {
+
+  private static class CapturingScribe extends ScribeAlwaysSuccess {
+    private final List<String> messages =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public ResultCode Log(List<LogEntry> entries) throws TException {
+      for (LogEntry entry : entries) {
+        messages.add(entry.getCategory() + ":" + entry.getMessage());
+      }
+      return ResultCode.OK;
+    }
+  }
+
+  private void sendNonArrayBuffers(int batchSize, int port) throws Exception {
+    CapturingScribe scribe = new CapturingScribe();
+    NtMultiServer tserver = new NtMultiServer(scribe, port);
+    tserver.start();
+    try {
+      ScribeMessagePublisher mb = new ScribeMessagePublisher();
+      ClientConfig config = new ClientConfig();
+      config.set(ScribePublisherConfiguration.portConfig, port + "");
+      config.set(ScribePublisherConfiguration.batchSizeConfig, batchSize + "");
+      mb.init(config);
+
+      byte[] msg = "direct".getBytes();
+      ByteBuffer direct = ByteBuffer.allocateDirect(msg.length);
+      direct.put(msg);
+      direct.flip();
+      mb.publish("zc", new Message(direct));
+
+      ByteBuffer whole = ByteBuffer.wrap("xxslicedyy".getBytes());
+      whole.position(2);
+      whole.limit(8);
+      mb.publish("zc", new Message(whole.slice()));
+      mb.publish("zc", new Message("wrapped".getBytes()));
+      mb.close();
+
+      assertEquals(mb.getStats("zc").getSuccessCount(), 3);
+      List<String> expected = new ArrayList<String>();
+      expected.add("zc:direct");
+      expected.add("zc:sliced");
+      expected.add("zc:wrapped");
+      assertEquals(scribe.messages, expected);
+    } finally {
+      tserver.stop();
+    }
+  }
+
+  @Test
+  public void testNonArrayBuffers() throws Exception {
+    sendNonArrayBuffers(1, PortNumberUtil.getFreePortNumber(7933));
+  }
+
+  @Test
+  public void testNonArrayBuffersInBatch() throws Exception {
+    sendNonArrayBuffers(2, PortNumberUtil.getFreePortNumber(7934));
+  }
+}
@@ -0,0 +1,75 @@
+package com.inmobi.messaging.netty;
+
+/*
+ * #%L
+ * messaging-client-scribe
+ * %%
+ * Copyright (C) 2012 - 2014 InMobi
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import random.pkg.NtMultiServer;
+import random.pkg.ScribeAlwaysSuccess;
+
+import com.inmobi.messaging.Message;
+import com.inmobi.messaging.PortNumberUtil;
+import com.inmobi.messaging.TestServerStarter;
+import com.inmobi.messaging.instrumentation.PintailTimingAccumulator;
+
+public class TestSharedSender {
+
+  private int countSenderThreads() {
+    int count = 0;
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.getName().startsWith("scribe-sender-")) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void testSenderThreadsDoNotGrowWithTopics() throws Exception {
+    int port = PortNumberUtil.getFreePortNumber(7935);
+    NtMultiServer tserver = new NtMultiServer(new ScribeAlwaysSuccess(), port);
+    tserver.start();
+    try {
+      ScribeMessagePublisher mb = TestServerStarter.createPublisher(port, 5);
+      int numTopics = 20;
+      for (int i = 0; i < numTopics; i++) {
+        mb.publish("topic" + i, new Message(("msg" + i).getBytes()));
+      }
+      for (int i = 0; i < numTopics; i++) {
+        PintailTimingAccumulator inspector = mb.getStats("topic" + i);
+        while (inspector.getInFlight() != 0) {
+          Thread.sleep(10);
+        }
+        assertEquals(inspector.getSuccessCount(), 1);
+      }
+      int senderThreads = countSenderThreads();
+      assertTrue(senderThreads > 0 && senderThreads < numTopics,
+          "Found " + senderThreads + " sender threads for " + numTopics
+              + " topics");
+      mb.close();
+    } finally {
+      tserver.stop();
+    }
+  }
+}